@@ -8,6 +8,9 @@ import org.wisdom.api.annotations.*;
 import org.wisdom.api.http.Result;
 import org.wisdom.api.model.Crud;
 import org.wisdom.api.model.HasBeenRollBackException;
+import org.wisdom.framework.jpa.crud.AbstractJTACrud;
+import org.wisdom.framework.jpa.crud.Page;
+import org.wisdom.framework.jpa.crud.Sort;
 import org.wisdom.framework.transaction.Transactional;
 import todo.models.Todo;
 import todo.models.TodoList;
@@ -21,12 +24,32 @@ import static org.wisdom.api.http.HttpMethod.*;
 @Path("/list")
 public class TodoController extends DefaultController {
 
+    private static final int DEFAULT_PAGE_SIZE = 20;
+
+    /**
+     * Header containing the value of the {@code after} parameter to use to retrieve the next page of lists.
+     */
+    private static final String NEXT_PAGE_HEADER = "X-Next-Page-After";
+
     @Model(TodoList.class)
     private Crud<TodoList, String> listCrud;
 
     @Model(Todo.class)
     private Crud<Todo, String> todoCrud;
 
+    /**
+     * Gets the JPA implementation of the list crud service, giving access to the operations that are not part of
+     * the {@link Crud} API (pagination, fetch joins). The Crud services registered by the JPA manager are
+     * {@link AbstractJTACrud} instances, but the controller also works with other Crud providers, so the
+     * operations fall back on the {@link Crud} API when this method returns {@code null}.
+     *
+     * @return the JPA crud service, {@code null} if the list crud service is not provided by the JPA manager
+     */
+    @SuppressWarnings("unchecked")
+    private AbstractJTACrud<TodoList, String> jpaListCrud() {
+        return listCrud instanceof AbstractJTACrud ? (AbstractJTACrud<TodoList, String>) listCrud : null;
+    }
+
 
     @Validate
     public void start() throws HasBeenRollBackException {
@@ -68,8 +91,20 @@ public class TodoController extends DefaultController {
     }
 
     @Route(method = GET, uri = "/")
-    public Result getList() {
-        return ok(Iterables.toArray(listCrud.findAll(), TodoList.class)).json();
+    public Result getList(@Parameter("limit") Integer limit, @Parameter("after") Long after) {
+        AbstractJTACrud<TodoList, String> jpa = jpaListCrud();
+        if (jpa == null) {
+            return ok(Iterables.toArray(listCrud.findAll(), TodoList.class)).json();
+        }
+        // Keyset pagination on the id, the next page starts after the last returned list.
+        Page<TodoList> page = jpa.findPage(Sort.ascending("id"),
+                limit == null || limit <= 0 ? DEFAULT_PAGE_SIZE : limit,
+                after == null ? null : Page.Key.of(after));
+        Result result = ok(page.getContent().toArray(new TodoList[page.getContent().size()])).json();
+        if (page.hasNext()) {
+            result.with(NEXT_PAGE_HEADER, String.valueOf(page.getNext().getId()));
+        }
+        return result;
     }
 
     @Route(method = PUT, uri = "/")
@@ -92,10 +127,11 @@ public class TodoController extends DefaultController {
 
     @Route(method = GET, uri = "/{id}")
     public Result getTodos(final @Parameter("id") String id) {
-        TodoList todoList = null;
-
+        TodoList todoList;
+        AbstractJTACrud<TodoList, String> jpa = jpaListCrud();
         try {
-            todoList = listCrud.findOne(id);
+            // Load the list and its todos in a single query. The id is converted to the type of the list id.
+            todoList = jpa == null ? listCrud.findOne(id) : jpa.findOne(id, "todos");
         } catch (IllegalArgumentException e) {
             return badRequest();
         }
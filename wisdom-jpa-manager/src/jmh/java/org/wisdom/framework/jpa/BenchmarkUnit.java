@@ -0,0 +1,194 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.felix.ipojo.ComponentInstance;
+import org.apache.felix.ipojo.Factory;
+import org.apache.openjpa.persistence.PersistenceProviderImpl;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.service.jdbc.DataSourceFactory;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+import org.wisdom.framework.jpa.crud.JTAEntityCrud;
+import org.wisdom.framework.jpa.model.Persistence;
+import org.wisdom.framework.jpa.model.PersistenceUnitTransactionType;
+import org.wisdom.framework.transaction.impl.TransactionManagerService;
+import org.wisdom.jdbc.driver.h2.H2Service;
+
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+import javax.transaction.TransactionManager;
+import java.io.Serializable;
+import java.util.Dictionary;
+import java.util.Properties;
+
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A JTA persistence unit backed by an in-memory H2 database, started outside of OSGi for the benchmarks. The
+ * bundle and the service registry are mocked as in {@code PersistenceUnitComponentTest}, the transaction manager is
+ * the (non-recoverable) one of the {@link TransactionManagerService}.
+ */
+public final class BenchmarkUnit {
+
+    private final TransactionManagerService transactionManagerService;
+    private final PersistenceUnitComponent component;
+    private EntityManager entityManager;
+
+    private BenchmarkUnit(String name, Class<?>... entities) throws Exception {
+        transactionManagerService = new TransactionManagerService(mock(BundleContext.class), defaultConfiguration());
+
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getVersion()).thenReturn(new Version(1, 0, 0));
+        BundleWiring wiring = mock(BundleWiring.class);
+        when(wiring.getClassLoader()).thenReturn(BenchmarkUnit.class.getClassLoader());
+        when(bundle.adapt(BundleWiring.class)).thenReturn(wiring);
+        BundleContext context = mock(BundleContext.class);
+        when(context.getBundle()).thenReturn(bundle);
+        when(bundle.getBundleContext()).thenReturn(context);
+        when(context.registerService(any(Class.class), any(), any(Dictionary.class))).thenAnswer(
+                new Answer<ServiceRegistration>() {
+                    @Override
+                    public ServiceRegistration answer(InvocationOnMock invocation) throws Throwable {
+                        if (invocation.getArguments()[0] == EntityManager.class) {
+                            entityManager = (EntityManager) invocation.getArguments()[1];
+                        }
+                        return mock(ServiceRegistration.class);
+                    }
+                });
+        Factory factory = mock(Factory.class);
+        when(factory.createComponentInstance(any(Dictionary.class))).thenReturn(mock(ComponentInstance.class));
+
+        Persistence.PersistenceUnit pu = new Persistence.PersistenceUnit();
+        pu.setName(name);
+        pu.setJtaDataSource("data");
+        pu.setNonJtaDataSource("data");
+        pu.setTransactionType(PersistenceUnitTransactionType.JTA);
+        for (Class<?> entity : entities) {
+            pu.getClazz().add(entity.getName());
+        }
+        Persistence.PersistenceUnit.Properties properties = new Persistence.PersistenceUnit.Properties();
+        properties.getProperty().add(property("location", "META-INF/persistence.xml"));
+        properties.getProperty().add(property("openjpa.jdbc.SynchronizeMappings",
+                "buildSchema(ForeignKeys=true)"));
+        pu.setProperties(properties);
+
+        component = new PersistenceUnitComponent(new PersistentBundle(bundle, ImmutableSet.of(pu), factory), pu,
+                context);
+        Properties jdbc = new Properties();
+        jdbc.put(DataSourceFactory.JDBC_URL, "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        DataSource dataSource = new H2Service().createDataSource(jdbc);
+        component.jtaDataSource = dataSource;
+        component.nonJtaDataSource = dataSource;
+        component.provider = new PersistenceProviderImpl();
+        component.transformer = mock(JPATransformer.class);
+        component.transactionManager = TransactionManagerService.get();
+    }
+
+    /**
+     * Starts a unit managing the given entities.
+     *
+     * @param name     the name of the unit, also used as name of the in-memory database
+     * @param entities the entities
+     * @return the started unit
+     * @throws Exception if the unit cannot be started
+     */
+    public static BenchmarkUnit start(String name, Class<?>... entities) throws Exception {
+        BenchmarkUnit unit = new BenchmarkUnit(name, entities);
+        unit.component.start();
+        if (unit.entityManager == null) {
+            throw new IllegalStateException("The persistence unit " + name + " has not started");
+        }
+        return unit;
+    }
+
+    /**
+     * @return the entity manager of the unit, joining the JTA transactions
+     */
+    public EntityManager getEntityManager() {
+        return entityManager;
+    }
+
+    /**
+     * @return the transaction manager
+     */
+    public TransactionManager getTransactionManager() {
+        return TransactionManagerService.get();
+    }
+
+    /**
+     * Creates a Crud service for the given entity, configured as the ones registered by the unit.
+     *
+     * @param entity the entity
+     * @param id     the class of the id
+     * @param <T>    the type of entity
+     * @param <I>    the type of id
+     * @return the Crud service
+     */
+    public <T, I extends Serializable> JTAEntityCrud<T, I> crud(Class<T> entity, Class<I> id) {
+        return new JTAEntityCrud<>(component.getPersistenceUnitName(), entityManager, getTransactionManager(),
+                entity, id, null);
+    }
+
+    /**
+     * Stops the unit and the transaction manager.
+     *
+     * @throws Exception if the transaction manager cannot be stopped
+     */
+    public void stop() throws Exception {
+        component.shutdown();
+        transactionManagerService.unregister();
+    }
+
+    private static Persistence.PersistenceUnit.Properties.Property property(String name, String value) {
+        Persistence.PersistenceUnit.Properties.Property property =
+                new Persistence.PersistenceUnit.Properties.Property();
+        property.setName(name);
+        property.setValue(value);
+        return property;
+    }
+
+    /**
+     * Creates a configuration returning the default value of every key, so the transaction manager is not
+     * recoverable.
+     */
+    private static ApplicationConfiguration defaultConfiguration() {
+        ApplicationConfiguration configuration = mock(ApplicationConfiguration.class);
+        Answer<Object> defaultValue = new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                return invocation.getArguments()[1];
+            }
+        };
+        when(configuration.getWithDefault(anyString(), anyString())).thenAnswer(defaultValue);
+        when(configuration.getIntegerWithDefault(anyString(), anyInt())).thenAnswer(defaultValue);
+        when(configuration.getBooleanWithDefault(anyString(), anyBoolean())).thenAnswer(defaultValue);
+        when(configuration.getLongWithDefault(anyString(), anyLong())).thenAnswer(defaultValue);
+        return configuration;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wisdom.framework.entities.vehicules.Car;
+import org.wisdom.framework.entities.vehicules.Driver;
+import org.wisdom.framework.jpa.BenchmarkUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
+import javax.transaction.TransactionManager;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-call cost of the standard queries issued from the precomputed JPQL of {@link QueryTemplates},
+ * against the same queries built as a {@link CriteriaQuery} on each call, which is what the Crud services used to
+ * do. Every call runs in a JTA transaction, so the query result cache of the Crud services is bypassed and only the
+ * query creation and execution are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class QueryTemplatesBenchmark {
+
+    private BenchmarkUnit unit;
+    private EntityManager entityManager;
+    private TransactionManager transactionManager;
+    private QueryTemplates templates;
+    private Long id;
+
+    @Setup
+    public void setUp() throws Exception {
+        unit = BenchmarkUnit.start("query-templates", Car.class, Driver.class);
+        entityManager = unit.getEntityManager();
+        transactionManager = unit.getTransactionManager();
+        templates = new QueryTemplates("Car", "id");
+        JTAEntityCrud<Car, Long> crud = unit.crud(Car.class, Long.class);
+        for (int i = 0; i < 10; i++) {
+            Car car = new Car();
+            car.setName("car-" + i);
+            id = crud.save(car).getId();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        unit.stop();
+    }
+
+    @Benchmark
+    public Long countTemplate() throws Exception {
+        transactionManager.begin();
+        try {
+            return entityManager.createQuery(templates.count(), Long.class).getSingleResult();
+        } finally {
+            transactionManager.commit();
+        }
+    }
+
+    @Benchmark
+    public Long countCriteria() throws Exception {
+        transactionManager.begin();
+        try {
+            CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+            CriteriaQuery<Long> cq = builder.createQuery(Long.class);
+            cq.select(builder.count(cq.from(Car.class)));
+            return entityManager.createQuery(cq).getSingleResult();
+        } finally {
+            transactionManager.commit();
+        }
+    }
+
+    @Benchmark
+    public List<Object> existsTemplate() throws Exception {
+        transactionManager.begin();
+        try {
+            return entityManager.createQuery(templates.exists(), Object.class)
+                    .setParameter(QueryTemplates.ID_PARAMETER, id)
+                    .setMaxResults(1).getResultList();
+        } finally {
+            transactionManager.commit();
+        }
+    }
+
+    @Benchmark
+    public List<Object> existsCriteria() throws Exception {
+        transactionManager.begin();
+        try {
+            CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+            CriteriaQuery<Object> cq = builder.createQuery(Object.class);
+            Root<Car> root = cq.from(Car.class);
+            Path<?> key = root.get("id");
+            cq.select(key).where(builder.equal(key, id));
+            return entityManager.createQuery(cq).setMaxResults(1).getResultList();
+        } finally {
+            transactionManager.commit();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wisdom.framework.entities.vehicules.Car;
+import org.wisdom.framework.entities.vehicules.Driver;
+import org.wisdom.framework.jpa.BenchmarkUnit;
+
+import javax.transaction.TransactionManager;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the two paths of the reads of {@link JTAEntityCrud}: the read-only scope used when no transaction is
+ * active, and a read running in its own JTA transaction, which is what every read used to do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ReadPathBenchmark {
+
+    private BenchmarkUnit unit;
+    private JTAEntityCrud<Car, Long> crud;
+    private TransactionManager transactionManager;
+    private Long id;
+
+    @Setup
+    public void setUp() throws Exception {
+        unit = BenchmarkUnit.start("read-path", Car.class, Driver.class);
+        crud = unit.crud(Car.class, Long.class);
+        transactionManager = unit.getTransactionManager();
+        Car car = new Car();
+        car.setName("benchmark");
+        id = crud.save(car).getId();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        unit.stop();
+    }
+
+    /**
+     * The read runs in the read-only scope of the entity manager, no JTA transaction is started.
+     */
+    @Benchmark
+    public Car readOnlyScope() {
+        return crud.findOne(id);
+    }
+
+    /**
+     * The read joins a JTA transaction begun and committed around it.
+     */
+    @Benchmark
+    public Car jtaTransaction() throws Exception {
+        transactionManager.begin();
+        try {
+            return crud.findOne(id);
+        } finally {
+            transactionManager.commit();
+        }
+    }
+}
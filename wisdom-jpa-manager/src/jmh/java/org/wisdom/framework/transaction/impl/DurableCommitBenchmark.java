@@ -0,0 +1,135 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.transaction.impl;
+
+import org.apache.geronimo.transaction.manager.TransactionBranchInfo;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfoImpl;
+import org.apache.geronimo.transaction.manager.TransactionLog;
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.transaction.xa.Xid;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the rate of durable two-phase commits, i.e. a forced prepare record followed by a commit record, of the
+ * transaction journal against the HOWL log, both with the default configuration of the transaction manager. The
+ * transactions are run by several threads, so the group commit of the journal and the flush timer of HOWL can
+ * batch the forces.
+ * <p>
+ * The logs write to a temporary directory: run it on the disk type of the production servers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DurableCommitBenchmark {
+
+    @Param({TransactionManagerService.JOURNAL_LOG, TransactionManagerService.HOWL_LOG})
+    public String log;
+
+    private File directory;
+    private TransactionLog transactionLog;
+    private final XidFactory xidFactory = new XidFactoryImpl("benchmark".getBytes());
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("transaction-log").toFile();
+        if (TransactionManagerService.JOURNAL_LOG.equals(log)) {
+            JournalLog journal = new JournalLog(directory, "transaction",
+                    TransactionManagerService.DEFAULT_JOURNAL_SEGMENT_SIZE * 1024,
+                    TransactionManagerService.DEFAULT_JOURNAL_SEGMENTS);
+            journal.start();
+            transactionLog = journal;
+        } else {
+            HowlLog howl = new HowlLog("org.objectweb.howl.log.BlockLogBuffer", 4, true, true, 50,
+                    directory.getAbsolutePath(), "log", "transaction", -1, 0, 2, 4, -1, true, xidFactory, null);
+            howl.start();
+            transactionLog = howl;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (transactionLog instanceof JournalLog) {
+            ((JournalLog) transactionLog).stop();
+        } else {
+            ((HowlLog) transactionLog).stop();
+        }
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private Object commit() throws Exception {
+        Xid xid = xidFactory.createXid();
+        List<TransactionBranchInfo> branches = Collections.<TransactionBranchInfo>singletonList(
+                new TransactionBranchInfoImpl(xidFactory.createBranch(xid, 1), "db"));
+        Object mark = transactionLog.prepare(xid, branches);
+        transactionLog.commit(xid, mark);
+        return mark;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object oneThread() throws Exception {
+        return commit();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object sixteenThreads() throws Exception {
+        return commit();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Object sixtyFourThreads() throws Exception {
+        return commit();
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.transaction.impl;
+
+import org.apache.geronimo.transaction.manager.TransactionBranchInfo;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfoImpl;
+import org.apache.geronimo.transaction.manager.TransactionLog;
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wisdom.framework.transaction.TransactionLogStatistics;
+
+import javax.transaction.xa.Xid;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Measures the memory allocated, and the bytes logged, per transaction by the transaction logs, i.e. a prepare
+ * record for a single branch followed by a commit record. Run it with the GC profiler:
+ * <pre>
+ * mvn -Pbenchmarks process-test-classes exec:exec -Dbenchmark=LogAllocationBenchmark -Dbenchmark.args="-prof gc"
+ * </pre>
+ * {@code gc.alloc.rate.norm} is the number of bytes allocated per transaction, and {@code bytesPerTransaction} the
+ * number of bytes logged per transaction.
+ * <p>
+ * {@link #legacyEncoding(LoggedBytes)} is the baseline: it builds the same two records the way the journal did
+ * before reusing its buffer and checksum, i.e. a {@link DataOutputStream} per payload, a buffer and a {@link CRC32}
+ * per record, and the resource name written in every prepare record. It does not write anything, so it only accounts
+ * for the encoding, while {@link #log(Log, LoggedBytes)} also includes the writes and the forces.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LogAllocationBenchmark {
+
+    /**
+     * The number of pre-created transaction ids, so the benchmarks do not measure the id creation.
+     */
+    private static final int XIDS = 1024;
+
+    private static final String RESOURCE = "db";
+
+    private final XidFactory xidFactory = new XidFactoryImpl("benchmark".getBytes());
+    private final Xid[] xids = new Xid[XIDS];
+    private final List<?>[] branches = new List<?>[XIDS];
+    private int next;
+
+    /**
+     * The transaction log under test.
+     */
+    @State(Scope.Benchmark)
+    public static class Log {
+
+        @Param({TransactionManagerService.JOURNAL_LOG, TransactionManagerService.HOWL_LOG})
+        public String type;
+
+        private File directory;
+        private TransactionLog transactionLog;
+        private TransactionLogStatistics statistics;
+
+        @Setup
+        public void setUp(LogAllocationBenchmark benchmark) throws Exception {
+            directory = Files.createTempDirectory("transaction-log").toFile();
+            if (TransactionManagerService.JOURNAL_LOG.equals(type)) {
+                JournalLog journal = new JournalLog(directory, "transaction",
+                        TransactionManagerService.DEFAULT_JOURNAL_SEGMENT_SIZE * 1024,
+                        TransactionManagerService.DEFAULT_JOURNAL_SEGMENTS);
+                journal.start();
+                transactionLog = journal;
+                statistics = journal.getStatistics();
+            } else {
+                HowlLog howl = new HowlLog("org.objectweb.howl.log.BlockLogBuffer", 4, true, true, 50,
+                        directory.getAbsolutePath(), "log", "transaction", -1, 0, 2, 4, -1, true,
+                        benchmark.xidFactory, null);
+                howl.start();
+                transactionLog = howl;
+                statistics = howl.getStatistics();
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            if (transactionLog instanceof JournalLog) {
+                ((JournalLog) transactionLog).stop();
+            } else {
+                ((HowlLog) transactionLog).stop();
+            }
+            delete(directory);
+        }
+
+        /**
+         * @return the number of bytes made durable so far
+         */
+        private double getLoggedBytes() {
+            return statistics.getBytesPerForce() * statistics.getForceCount();
+        }
+
+        private static void delete(File file) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    delete(child);
+                }
+            }
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Reports the number of bytes logged per transaction in each iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class LoggedBytes {
+
+        public double bytesPerTransaction;
+
+        private double bytes;
+        private long transactions;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytesPerTransaction = 0;
+            bytes = 0;
+            transactions = 0;
+        }
+
+        private void add(double transactionBytes) {
+            bytes += transactionBytes;
+            transactions++;
+            bytesPerTransaction = bytes / transactions;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < XIDS; i++) {
+            xids[i] = xidFactory.createXid();
+            branches[i] = Collections.<TransactionBranchInfo>singletonList(
+                    new TransactionBranchInfoImpl(xidFactory.createBranch(xids[i], 1), RESOURCE));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<TransactionBranchInfo> branches(int index) {
+        return (List<TransactionBranchInfo>) branches[index];
+    }
+
+    @Benchmark
+    public Object log(Log log, LoggedBytes loggedBytes) throws Exception {
+        int index = next++ & (XIDS - 1);
+        double before = log.getLoggedBytes();
+        Object mark = log.transactionLog.prepare(xids[index], branches(index));
+        log.transactionLog.commit(xids[index], mark);
+        loggedBytes.add(log.getLoggedBytes() - before);
+        return mark;
+    }
+
+    @Benchmark
+    public Object legacyEncoding(LoggedBytes loggedBytes) throws IOException {
+        int index = next++ & (XIDS - 1);
+        Xid xid = xids[index];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(xid.getFormatId());
+        writeBytes(out, xid.getGlobalTransactionId());
+        writeBytes(out, xid.getBranchQualifier());
+        List<TransactionBranchInfo> list = branches(index);
+        out.writeInt(list.size());
+        for (TransactionBranchInfo branch : list) {
+            writeBytes(out, branch.getBranchXid().getBranchQualifier());
+            out.writeUTF(branch.getResourceName());
+        }
+        out.flush();
+        ByteBuffer prepare = frame(JournalLog.PREPARE, index, bytes.toByteArray());
+        ByteBuffer commit = frame(JournalLog.COMMIT, index, new byte[0]);
+        loggedBytes.add(prepare.limit() + commit.limit());
+        return commit;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        out.writeShort(value.length);
+        out.write(value);
+    }
+
+    private static ByteBuffer frame(byte type, long id, byte[] payload) {
+        ByteBuffer record = ByteBuffer.allocate(JournalLog.RECORD_OVERHEAD + payload.length);
+        record.putInt(JournalLog.MAGIC).put(type).putLong(0).putLong(id).putInt(payload.length).put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        record.flip();
+        return record;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.transaction.impl;
+
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.transaction.xa.Xid;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the creation of transaction ids scales with the number of threads, for the {@link XidFactoryImpl}
+ * of the transaction manager, allocating the ids from an atomic counter, against the Geronimo factory, whose
+ * methods are synchronized. Each operation creates a global id and a branch id, as a transaction enlisting one
+ * resource does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class XidFactoryBenchmark {
+
+    private final XidFactory factory = new XidFactoryImpl("benchmark".getBytes());
+    private final XidFactory geronimo =
+            new org.apache.geronimo.transaction.manager.XidFactoryImpl("benchmark".getBytes());
+
+    private static Xid create(XidFactory factory) {
+        return factory.createBranch(factory.createXid(), 1);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Xid oneThread() {
+        return create(factory);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Xid fourThreads() {
+        return create(factory);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Xid maxThreads() {
+        return create(factory);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Xid geronimoOneThread() {
+        return create(geronimo);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Xid geronimoFourThreads() {
+        return create(geronimo);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Xid geronimoMaxThreads() {
+        return create(geronimo);
+    }
+}
@@ -19,6 +19,9 @@
  */
 package org.wisdom.framework.jpa;
 
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.io.IOUtils;
 import org.apache.felix.ipojo.annotations.*;
 import org.osgi.framework.BundleContext;
@@ -26,6 +29,9 @@ import org.osgi.framework.ServiceRegistration;
 import org.osgi.framework.wiring.BundleWiring;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+import org.wisdom.framework.jpa.cache.SecondLevelCacheStatistics;
+import org.wisdom.framework.jpa.crud.Dialect;
 import org.wisdom.framework.jpa.crud.JPARepository;
 import org.wisdom.framework.jpa.model.Persistence;
 import org.wisdom.framework.jpa.model.PersistenceUnitCachingType;
@@ -44,9 +50,13 @@ import javax.transaction.TransactionManager;
 import javax.validation.ValidatorFactory;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class is the interface between the bridge (the manager) and the Persistence Provider.
@@ -68,6 +78,24 @@ public class PersistenceUnitComponent implements PersistenceUnitInfo {
     private static final String UNIT_NAME_PROP = "persistent.unit.name";
     private static final String UNIT_ENTITIES_PROP = "persistent.unit.entities";
     private static final String UNIT_TRANSACTION_PROP = "persistent.unit.transaction.mode";
+    private static final String UNIT_CACHE_MODE_PROP = "persistent.unit.cache.mode";
+
+    /**
+     * The persistence unit property configuring the JDBC batch size.
+     */
+    public static final String JDBC_BATCH_SIZE_PROP = "wisdom.jdbc.batchSize";
+    private static final int DEFAULT_JDBC_BATCH_SIZE = 100;
+
+    /**
+     * The number of threads of the asynchronous executor if the size of the connection pool cannot be determined.
+     * It is the default size of the Hikari pool.
+     */
+    private static final int DEFAULT_ASYNC_POOL_SIZE = 10;
+
+    /**
+     * The maximum number of asynchronous operations waiting for a thread.
+     */
+    private static final int ASYNC_QUEUE_SIZE = 1000;
 
     private final Persistence.PersistenceUnit persistenceUnitXml;
 
@@ -81,10 +109,18 @@ public class PersistenceUnitComponent implements PersistenceUnitInfo {
     private EntityManager entityManager;
     private EntityManagerFactory entityManagerFactory;
     private JPARepository repository;
+    ListeningExecutorService executor;
+    private SecondLevelCache secondLevelCache;
 
     @Requires
     private ValidatorFactory validator;
 
+    /**
+     * The application configuration, used to configure the second-level cache.
+     */
+    @Requires(optional = true, nullable = false)
+    ApplicationConfiguration configuration;
+
 
     /**
      * Filter injected in the instance configuration.
@@ -120,6 +156,7 @@ public class PersistenceUnitComponent implements PersistenceUnitInfo {
 
     ServiceRegistration<EntityManager> emRegistration;
     ServiceRegistration<EntityManagerFactory> emfRegistration;
+    ServiceRegistration<SecondLevelCacheStatistics> cacheRegistration;
 
     /**
      * Create a new Persistence Unit Info
@@ -146,6 +183,16 @@ public class PersistenceUnitComponent implements PersistenceUnitInfo {
         if (repository != null) {
             repository.dispose();
         }
+        if (executor != null) {
+            executor.shutdown();
+        }
+
+        if (cacheRegistration != null) {
+            cacheRegistration.unregister();
+        }
+        if (secondLevelCache != null) {
+            secondLevelCache.stop();
+        }
 
         if (emRegistration != null) {
             emRegistration.unregister();
@@ -182,6 +229,13 @@ public class PersistenceUnitComponent implements PersistenceUnitInfo {
                         "invocation(TransactionManagerMethod=org.wisdom.framework.jpa.accessor" +
                                 ".TransactionManagerAccessor.get)");
             }
+            configureStatementBatching(map);
+            secondLevelCache = new SecondLevelCache(persistenceUnitXml.getName(), configuration);
+            if (isOpenJPA()) {
+                secondLevelCache.configureOpenJPA(map, getXmlSharedCacheMode());
+            } else if (isHibernate()) {
+                secondLevelCache.configureHibernate(map);
+            }
 
             // This is not going to work with OpenJPA because the current version of OpenJPA requires an old version
             // of javax.validation. The wisdom one is too recent.
@@ -195,6 +249,17 @@ public class PersistenceUnitComponent implements PersistenceUnitInfo {
             properties.put(UNIT_ENTITIES_PROP, entities.toArray(new String[entities.size()]));
             properties.put(UNIT_TRANSACTION_PROP, getTransactionType().toString());
 
+            DataSource dataSource = nonJtaDataSource != null ? nonJtaDataSource : jtaDataSource;
+            Dialect dialect = Dialect.fromDataSource(dataSource);
+            LOGGER.debug("Database dialect of the unit {} : {}", persistenceUnitXml.getName(), dialect);
+            if (getTransactionType() == PersistenceUnitTransactionType.JTA) {
+                executor = createExecutor(getMaximumPoolSize(dataSource));
+            } else {
+                // The crud services of a resource-local unit share a single entity manager and a single entity
+                // transaction, none of them being thread-safe: asynchronous operations run in the caller thread.
+                executor = null;
+            }
+
             // If the unit set the transaction to RESOURCE_LOCAL, no JTA involved.
             if (persistenceUnitXml.getTransactionType() ==
                     org.wisdom.framework.jpa.model.PersistenceUnitTransactionType.RESOURCE_LOCAL) {
@@ -207,7 +272,8 @@ public class PersistenceUnitComponent implements PersistenceUnitInfo {
                         entityManager, properties);
 
                 repository = new JPARepository(persistenceUnitXml, entityManager,
-                        entityManagerFactory, transactionManager, sourceBundle.bundle.getBundleContext());
+                        entityManagerFactory, transactionManager, sourceBundle.bundle.getBundleContext(), dialect,
+                        executor);
             } else {
                 // JTA
                 entityManagerFactory = provider.createContainerEntityManagerFactory(this, map);
@@ -217,7 +283,18 @@ public class PersistenceUnitComponent implements PersistenceUnitInfo {
                         entityManager, properties);
                 emfRegistration = bundleContext.registerService(EntityManagerFactory.class, entityManagerFactory, properties);
                 repository = new JPARepository(persistenceUnitXml, entityManager,
-                        entityManagerFactory, transactionManager, sourceBundle.bundle.getBundleContext());
+                        entityManagerFactory, transactionManager, sourceBundle.bundle.getBundleContext(), dialect,
+                        executor);
+            }
+
+            secondLevelCache.start(entityManagerFactory);
+            // Only OpenJPA collects the cache statistics, the service would report 0 for everything else.
+            if (isOpenJPA()) {
+                Dictionary<String, Object> cacheProperties = new Hashtable<>();
+                cacheProperties.put(UNIT_NAME_PROP, persistenceUnitXml.getName());
+                cacheProperties.put(UNIT_CACHE_MODE_PROP, String.valueOf(getSharedCacheMode()));
+                cacheRegistration = bundleContext.registerService(SecondLevelCacheStatistics.class,
+                        secondLevelCache, cacheProperties);
             }
         } catch (Exception e) {
             LOGGER.error("Error while initializing the JPA services for unit {}",
@@ -226,10 +303,112 @@ public class PersistenceUnitComponent implements PersistenceUnitInfo {
 
     }
 
+    /**
+     * Creates the executor running the asynchronous operations of the crud services of a JTA unit. The number of
+     * threads matches the size of the connection pool, so asynchronous operations never wait for a connection. The
+     * queue is bounded, operations submitted when it is full are rejected.
+     *
+     * @param size the number of threads
+     * @return the executor
+     */
+    private ListeningExecutorService createExecutor(int size) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(ASYNC_QUEUE_SIZE),
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("wisdom-jpa-" + persistenceUnitXml.getName() + "-%d").build());
+        pool.allowCoreThreadTimeOut(true);
+        return MoreExecutors.listeningDecorator(pool);
+    }
+
+    /**
+     * Gets the maximum size of the connection pool backing the given data source. The data sources are provided by
+     * Hikari, the {@code getMaximumPoolSize} method is called reflectively to not depend on it.
+     *
+     * @param dataSource the data source, may be {@code null}
+     * @return the maximum size of the pool, {@link #DEFAULT_ASYNC_POOL_SIZE} if it cannot be determined
+     */
+    static int getMaximumPoolSize(DataSource dataSource) {
+        if (dataSource == null) {
+            return DEFAULT_ASYNC_POOL_SIZE;
+        }
+        try {
+            Method method = dataSource.getClass().getMethod("getMaximumPoolSize");
+            Object size = method.invoke(dataSource);
+            if (size instanceof Number && ((Number) size).intValue() > 0) {
+                return ((Number) size).intValue();
+            }
+        } catch (Exception e) { //NOSONAR
+            LOGGER.debug("Cannot determine the size of the connection pool of {}", dataSource, e);
+        }
+        return DEFAULT_ASYNC_POOL_SIZE;
+    }
+
     private boolean isOpenJPA() {
         return provider.getClass().getName().contains("openjpa");
     }
 
+    private boolean isHibernate() {
+        return provider.getClass().getName().contains("hibernate");
+    }
+
+    /**
+     * Enables the JDBC statement batching of the provider, unless the unit configures it explicitly.
+     *
+     * @param map the properties given to the provider
+     */
+    private void configureStatementBatching(Map<String, Object> map) {
+        int batchSize = DEFAULT_JDBC_BATCH_SIZE;
+        Object value = map.get(JDBC_BATCH_SIZE_PROP);
+        if (value != null) {
+            try {
+                batchSize = Integer.parseInt(value.toString().trim());
+            } catch (NumberFormatException e) {
+                LOGGER.error("Invalid value for {} in unit {} : {}", JDBC_BATCH_SIZE_PROP,
+                        persistenceUnitXml.getName(), value, e);
+            }
+        }
+        if (batchSize <= 0) {
+            return;
+        }
+        if (isOpenJPA()) {
+            map.put("openjpa.jdbc.DBDictionary",
+                    addBatchLimit((String) map.get("openjpa.jdbc.DBDictionary"), batchSize));
+        } else if (isHibernate() && !map.containsKey("hibernate.jdbc.batch_size")) {
+            map.put("hibernate.jdbc.batch_size", Integer.toString(batchSize));
+            map.put("hibernate.order_inserts", "true");
+            map.put("hibernate.order_updates", "true");
+        }
+    }
+
+    /**
+     * Adds the {@code batchLimit} property to an OpenJPA DBDictionary plugin string, if not already set.
+     *
+     * @param dictionary the plugin string, may be {@code null}
+     * @param batchSize  the batch size
+     * @return the updated plugin string
+     */
+    static String addBatchLimit(String dictionary, int batchSize) {
+        String limit = "batchLimit=" + batchSize;
+        if (dictionary == null || dictionary.trim().isEmpty()) {
+            return limit;
+        }
+        String plugin = dictionary.trim();
+        if (plugin.contains("batchLimit")) {
+            return plugin;
+        }
+        if (plugin.endsWith(")")) {
+            // alias(a=b) form
+            String body = plugin.substring(plugin.indexOf('(') + 1, plugin.length() - 1).trim();
+            return plugin.substring(0, plugin.length() - 1) + (body.isEmpty() ? "" : ",") + limit + ")";
+        }
+        if (plugin.contains("=")) {
+            // a=b,c=d form
+            return plugin + "," + limit;
+        }
+        // alias form
+        return plugin + "(" + limit + ")";
+    }
+
     /**
      * Add a new transformer.
      *
@@ -440,6 +619,17 @@ public class PersistenceUnitComponent implements PersistenceUnitInfo {
      */
     @Override
     public SharedCacheMode getSharedCacheMode() {
+        // The application configuration overrides the persistence.xml file.
+        if (secondLevelCache != null && secondLevelCache.getMode() != null) {
+            return secondLevelCache.getMode();
+        }
+        return getXmlSharedCacheMode();
+    }
+
+    /**
+     * @return the shared cache mode set in the persistence.xml file, {@code null} if not set
+     */
+    private SharedCacheMode getXmlSharedCacheMode() {
         PersistenceUnitCachingType sharedCacheMode = persistenceUnitXml.getSharedCacheMode();
         if (sharedCacheMode == null) {
             return null;
@@ -0,0 +1,376 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+import org.wisdom.api.configuration.Configuration;
+import org.wisdom.framework.jpa.cache.SecondLevelCacheStatistics;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.SharedCacheMode;
+import javax.persistence.metamodel.EntityType;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Configures the second-level cache of a persistence unit from the application configuration, and exposes its
+ * statistics. The configuration is read from the {@code jpa.<unit name>.cache} prefix:
+ * <pre>
+ * jpa {
+ *   my-unit {
+ *     cache {
+ *       mode = ENABLE_SELECTIVE  # the shared cache mode, overrides the value from the persistence.xml file
+ *       size = 1000              # the maximum number of cached entities
+ *       timeout = 60000          # the time-to-live of the cached entities, in milliseconds
+ *       query = true             # enables or disables the query cache
+ *       evictionInterval {       # the delay between two flushes of the entities of a given class, in ms
+ *         Car = 10000
+ *       }
+ *     }
+ *   }
+ * }
+ * </pre>
+ * The settings are mapped to the provider properties, unless the persistence unit sets them explicitly. The
+ * eviction interval is not a time-to-live: all the cached entities of the class are flushed at once, periodically,
+ * whatever their age. The {@code timeout} bounds the age of each cached entity.
+ */
+class SecondLevelCache implements SecondLevelCacheStatistics {
+
+    /**
+     * The prefix of the JPA configuration in the application configuration.
+     */
+    static final String CONFIGURATION_PREFIX = "jpa";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SecondLevelCache.class);
+
+    private final String unit;
+    private final Configuration configuration;
+    private final AtomicLong scheduledEvictions = new AtomicLong();
+
+    private volatile EntityManagerFactory emf;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates the second-level cache support of a unit.
+     *
+     * @param unit          the unit name
+     * @param configuration the application configuration, may be {@code null}
+     */
+    SecondLevelCache(String unit, ApplicationConfiguration configuration) {
+        this.unit = unit;
+        this.configuration = getCacheConfiguration(configuration, unit);
+    }
+
+    private static Configuration getCacheConfiguration(ApplicationConfiguration configuration, String unit) {
+        if (configuration == null) {
+            return null;
+        }
+        Configuration jpa = configuration.getConfiguration(CONFIGURATION_PREFIX);
+        if (jpa == null) {
+            return null;
+        }
+        Configuration conf = jpa.getConfiguration(unit);
+        if (conf == null) {
+            return null;
+        }
+        return conf.getConfiguration("cache");
+    }
+
+    /**
+     * @return the shared cache mode set in the configuration, {@code null} if not set or invalid.
+     */
+    SharedCacheMode getMode() {
+        if (configuration == null || configuration.get("mode") == null) {
+            return null;
+        }
+        String mode = configuration.get("mode").trim().toUpperCase();
+        try {
+            return SharedCacheMode.valueOf(mode);
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Invalid shared cache mode for unit {} : {}", unit, mode, e);
+            return null;
+        }
+    }
+
+    /**
+     * Adds the OpenJPA properties configuring the data cache and the query cache. The data cache is not enabled if
+     * the shared cache mode, from the configuration or else from the persistence.xml file, is {@code NONE}.
+     *
+     * @param map     the properties given to the provider
+     * @param xmlMode the shared cache mode set in the persistence.xml file, {@code null} if not set
+     */
+    void configureOpenJPA(Map<String, Object> map, SharedCacheMode xmlMode) {
+        if (configuration == null) {
+            return;
+        }
+        SharedCacheMode mode = getMode();
+        if (mode != null) {
+            map.put("javax.persistence.sharedCache.mode", mode.name());
+        } else {
+            mode = xmlMode;
+        }
+        if (mode == SharedCacheMode.NONE) {
+            putIfAbsent(map, "openjpa.DataCache", "false");
+            putIfAbsent(map, "openjpa.QueryCache", "false");
+            return;
+        }
+
+        StringBuilder plugin = new StringBuilder("true(EnableStatistics=true");
+        Long size = configuration.getLong("size");
+        if (size != null) {
+            plugin.append(",CacheSize=").append(size);
+        }
+        plugin.append(")");
+        putIfAbsent(map, "openjpa.DataCache", plugin.toString());
+        // The data cache requires a commit provider to be notified of the changes.
+        putIfAbsent(map, "openjpa.RemoteCommitProvider", "sjvm");
+
+        Long timeout = configuration.getLong("timeout");
+        if (timeout != null) {
+            putIfAbsent(map, "openjpa.DataCacheTimeout", timeout.toString());
+        }
+        Boolean query = configuration.getBoolean("query");
+        if (query != null) {
+            putIfAbsent(map, "openjpa.QueryCache", query.toString());
+        }
+    }
+
+    /**
+     * Adds the Hibernate properties enabling the second-level cache and the query cache. The size and timeout
+     * depend on the region factory, and are not mapped.
+     *
+     * @param map the properties given to the provider
+     */
+    void configureHibernate(Map<String, Object> map) {
+        if (configuration == null) {
+            return;
+        }
+        SharedCacheMode mode = getMode();
+        if (mode != null) {
+            map.put("javax.persistence.sharedCache.mode", mode.name());
+            putIfAbsent(map, "hibernate.cache.use_second_level_cache", Boolean.toString(mode != SharedCacheMode.NONE));
+        }
+        Boolean query = configuration.getBoolean("query");
+        if (query != null) {
+            putIfAbsent(map, "hibernate.cache.use_query_cache", query.toString());
+        }
+        putIfAbsent(map, "hibernate.generate_statistics", "true");
+    }
+
+    private void putIfAbsent(Map<String, Object> map, String key, String value) {
+        if (map.containsKey(key)) {
+            LOGGER.debug("{} set by the unit {}, ignoring the value from the configuration", key, unit);
+        } else {
+            map.put(key, value);
+        }
+    }
+
+    /**
+     * Starts flushing periodically the entity classes having an eviction interval from the cache of the given
+     * factory.
+     *
+     * @param factory the entity manager factory
+     */
+    synchronized void start(EntityManagerFactory factory) {
+        this.emf = factory;
+        if (configuration == null || configuration.getConfiguration("evictionInterval") == null) {
+            return;
+        }
+        Configuration intervals = configuration.getConfiguration("evictionInterval");
+        for (String name : intervals.asMap().keySet()) {
+            Class<?> entity = getEntity(factory, name);
+            Long delay = intervals.getLong(name);
+            if (entity == null || delay == null || delay <= 0) {
+                LOGGER.error("Invalid cache eviction interval for {} in unit {} : {}", name, unit,
+                        intervals.get(name));
+                continue;
+            }
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("wisdom-jpa-" + unit + "-cache").build());
+            }
+            scheduler.scheduleWithFixedDelay(new Eviction(entity), delay, delay, TimeUnit.MILLISECONDS);
+            LOGGER.info("Cached {} entities of unit {} flushed every {} ms", entity.getName(), unit, delay);
+        }
+    }
+
+    private static Class<?> getEntity(EntityManagerFactory factory, String name) {
+        for (EntityType<?> type : factory.getMetamodel().getEntities()) {
+            Class<?> clazz = type.getJavaType();
+            if (name.equals(clazz.getName()) || name.equals(clazz.getSimpleName())) {
+                return clazz;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops the evictions.
+     */
+    synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        emf = null;
+    }
+
+    @Override
+    public String getUnitName() {
+        return unit;
+    }
+
+    @Override
+    public long getHitCount() {
+        return count(getCacheStatistics(), "getHitCount");
+    }
+
+    @Override
+    public long getMissCount() {
+        Object statistics = getCacheStatistics();
+        return Math.max(0, count(statistics, "getReadCount") - count(statistics, "getHitCount"));
+    }
+
+    @Override
+    public long getHitCount(Class<?> entity) {
+        return count(getCacheStatistics(), "getHitCount", entity);
+    }
+
+    @Override
+    public long getMissCount(Class<?> entity) {
+        Object statistics = getCacheStatistics();
+        return Math.max(0, count(statistics, "getReadCount", entity) - count(statistics, "getHitCount", entity));
+    }
+
+    @Override
+    public long getScheduledEvictionCount() {
+        return scheduledEvictions.get();
+    }
+
+    @Override
+    public long getQueryHitCount() {
+        return count(getQueryStatistics(), "getHitCount");
+    }
+
+    @Override
+    public long getQueryMissCount() {
+        Object statistics = getQueryStatistics();
+        return Math.max(0, count(statistics, "getExecutionCount") - count(statistics, "getHitCount"));
+    }
+
+    @Override
+    public void reset() {
+        invoke(getCacheStatistics(), "reset");
+        invoke(getQueryStatistics(), "reset");
+        scheduledEvictions.set(0);
+    }
+
+    /**
+     * @return the statistics of the OpenJPA data cache, {@code null} if not available
+     */
+    private Object getCacheStatistics() {
+        EntityManagerFactory factory = emf;
+        if (factory == null) {
+            return null;
+        }
+        try {
+            return invoke(factory.getCache(), "getStatistics");
+        } catch (IllegalStateException e) { //NOSONAR
+            // Closed factory.
+            return null;
+        }
+    }
+
+    /**
+     * @return the statistics of the OpenJPA query cache, {@code null} if not available
+     */
+    private Object getQueryStatistics() {
+        return invoke(invoke(emf, "getQueryResultCache"), "getStatistics");
+    }
+
+    private static long count(Object statistics, String method, Object... args) {
+        Object count = invoke(statistics, method, args);
+        if (count instanceof Number) {
+            return ((Number) count).longValue();
+        }
+        return 0L;
+    }
+
+    /**
+     * Calls the given method reflectively, the statistics are provider specific.
+     *
+     * @param target the object, may be {@code null}
+     * @param name   the method name
+     * @param args   the arguments, only classes are supported
+     * @return the result, {@code null} if the target is {@code null} or the method cannot be called
+     */
+    private static Object invoke(Object target, String name, Object... args) {
+        if (target == null) {
+            return null;
+        }
+        Class<?>[] types = new Class<?>[args.length];
+        for (int i = 0; i < args.length; i++) {
+            types[i] = Class.class;
+        }
+        try {
+            Method method = target.getClass().getMethod(name, types);
+            method.setAccessible(true);
+            return method.invoke(target, args);
+        } catch (Exception e) { //NOSONAR
+            LOGGER.trace("Cannot call {} on {}", name, target, e);
+            return null;
+        }
+    }
+
+    /**
+     * Evicts all the entities of a class from the cache.
+     */
+    private class Eviction implements Runnable {
+
+        private final Class<?> entity;
+
+        private Eviction(Class<?> entity) {
+            this.entity = entity;
+        }
+
+        @Override
+        public void run() {
+            EntityManagerFactory factory = emf;
+            if (factory == null) {
+                return;
+            }
+            try {
+                Cache cache = factory.getCache();
+                cache.evict(entity);
+                scheduledEvictions.incrementAndGet();
+            } catch (RuntimeException e) {
+                LOGGER.debug("Cannot evict {} from the cache of unit {}", entity.getName(), unit, e);
+            }
+        }
+    }
+}
@@ -20,6 +20,10 @@
 package org.wisdom.framework.jpa;
 
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wisdom.framework.jpa.crud.ReadOnlyScope;
+
 import javax.persistence.*;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
@@ -27,6 +31,8 @@ import javax.persistence.metamodel.Metamodel;
 import javax.transaction.Synchronization;
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
+import java.sql.Connection;
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -34,14 +40,28 @@ import java.util.Map;
  * Manager. The delegate is created when it is needed for the first time in a
  * transaction and later reused. The delegate is automatically closed at the end
  * of the transaction.
+ * <p>
+ * Outside of transactions, it can serve reads within a read-only scope (see {@link ReadOnlyScope}). The delegate
+ * is then a non-transactional Entity Manager, closed at the end of the scope.
  */
 @SuppressWarnings("rawtypes")
-class TransactionalEntityManager implements EntityManager {
+class TransactionalEntityManager implements EntityManager, ReadOnlyScope {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransactionalEntityManager.class);
+
+    /**
+     * The properties of the read-only Entity Managers. OpenJPA keeps the same connection during the whole life of
+     * the Entity Manager, so it can be marked read-only once.
+     */
+    private static final Map<String, Object> READ_ONLY_PROPERTIES =
+            Collections.<String, Object>singletonMap("openjpa.ConnectionRetainMode", "always");
 
     private final TransactionManager transactionManager;
     private final EntityManagerFactory entityManagerFactory;
     private final PersistenceUnitComponent unit;
     final ThreadLocal<EntityManager> perThreadEntityManager = new ThreadLocal<>();
+    final ThreadLocal<EntityManager> perThreadReadOnlyEntityManager = new ThreadLocal<>();
+    final ThreadLocal<Integer> readOnlyScopeDepth = new ThreadLocal<>();
     volatile boolean open = true;
 
     //TODO Manage transaction manager in the request scope.
@@ -79,6 +99,9 @@ class TransactionalEntityManager implements EntityManager {
             // Nope, so we need to check if there actually is a transaction
             final Transaction transaction = transactionManager.getTransaction();
             if (transaction == null) {
+                if (readOnlyScopeDepth.get() != null) {
+                    return getReadOnlyEM();
+                }
                 throw new TransactionRequiredException("Cannot create an EM since no transaction active");
             }
 
@@ -121,6 +144,49 @@ class TransactionalEntityManager implements EntityManager {
 
     }
 
+    /**
+     * Gets the non-transactional Entity Manager of the current read-only scope, and creates it if needed.
+     *
+     * @return the Entity Manager
+     */
+    private EntityManager getReadOnlyEM() {
+        EntityManager em = perThreadReadOnlyEntityManager.get();
+        if (em == null) {
+            em = entityManagerFactory.createEntityManager(READ_ONLY_PROPERTIES);
+            try {
+                // Lets the database (and the driver) optimize the read-only accesses. The pool resets the flag
+                // when the connection is released.
+                em.unwrap(Connection.class).setReadOnly(true);
+            } catch (Exception e) { //NOSONAR
+                // Not supported by the provider, reads are still executed without transaction.
+                LOGGER.debug("Cannot mark the connection of the Entity Manager as read-only", e);
+            }
+            perThreadReadOnlyEntityManager.set(em);
+        }
+        return em;
+    }
+
+    @Override
+    public void beginReadOnly() {
+        Integer depth = readOnlyScopeDepth.get();
+        readOnlyScopeDepth.set(depth == null ? 1 : depth + 1);
+    }
+
+    @Override
+    public void endReadOnly() {
+        Integer depth = readOnlyScopeDepth.get();
+        if (depth != null && depth > 1) {
+            readOnlyScopeDepth.set(depth - 1);
+            return;
+        }
+        readOnlyScopeDepth.remove();
+        EntityManager em = perThreadReadOnlyEntityManager.get();
+        if (em != null) {
+            perThreadReadOnlyEntityManager.remove();
+            em.close();
+        }
+    }
+
     void shutdown() {
         open = false;
     }
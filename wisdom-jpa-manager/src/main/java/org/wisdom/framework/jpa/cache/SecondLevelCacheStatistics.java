@@ -0,0 +1,79 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.cache;
+
+/**
+ * A service exposing the statistics of the second-level cache of a persistence unit, with the
+ * {@code persistent.unit.name} property set to the unit name.
+ * <p>
+ * The counts are read from the persistence provider, and only OpenJPA collects them: the service is not published
+ * for the units using another provider.
+ */
+public interface SecondLevelCacheStatistics {
+
+    /**
+     * @return the name of the persistence unit
+     */
+    String getUnitName();
+
+    /**
+     * @return the number of entity lookups served by the cache
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of entity lookups not served by the cache
+     */
+    long getMissCount();
+
+    /**
+     * @param entity the entity class
+     * @return the number of lookups of the given entity served by the cache
+     */
+    long getHitCount(Class<?> entity);
+
+    /**
+     * @param entity the entity class
+     * @return the number of lookups of the given entity not served by the cache
+     */
+    long getMissCount(Class<?> entity);
+
+    /**
+     * @return the number of flushes of an entity class from the cache because its configured eviction interval
+     * elapsed. The evictions decided by the provider, because the cache is full or an entry expired, are not
+     * counted.
+     */
+    long getScheduledEvictionCount();
+
+    /**
+     * @return the number of query executions served by the query cache
+     */
+    long getQueryHitCount();
+
+    /**
+     * @return the number of query executions not served by the query cache
+     */
+    long getQueryMissCount();
+
+    /**
+     * Resets the statistics.
+     */
+    void reset();
+}
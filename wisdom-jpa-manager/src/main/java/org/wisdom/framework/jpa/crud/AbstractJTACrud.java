@@ -20,15 +20,54 @@
 package org.wisdom.framework.jpa.crud;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Primitives;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.wisdom.api.model.*;
 
+import javax.persistence.Cache;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityNotFoundException;
+import javax.persistence.EntityNotFoundException;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.Query;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Fetch;
+import javax.persistence.criteria.FetchParent;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
 import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Abstract implementation of the Crud service for JPA.
@@ -39,6 +78,24 @@ import java.util.concurrent.Callable;
  */
 public abstract class AbstractJTACrud<T, I extends Serializable> implements Crud<T, I> {
 
+    /**
+     * The default number of ids used in a single {@code IN} clause.
+     */
+    public static final int DEFAULT_IN_CLAUSE_CHUNK_SIZE = 500;
+
+    /**
+     * The executor used for asynchronous operations when the persistence unit does not provide one.
+     */
+    private static final ListeningExecutorService DIRECT_EXECUTOR = MoreExecutors.newDirectExecutorService();
+
+    /**
+     * The failures swallowed by {@link #inTransaction(Callable)} while a retried block runs on the current thread,
+     * {@code null} if no retried block runs. Shared by all the Crud services, as the block can use any of them.
+     */
+    private static final ThreadLocal<List<Exception>> NESTED_FAILURES = new ThreadLocal<>();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractJTACrud.class);
+
     /**
      * The entity manager.
      */
@@ -64,6 +121,89 @@ public abstract class AbstractJTACrud<T, I extends Serializable> implements Crud
      */
     protected final Repository repository;
 
+    /**
+     * The dialect of the database backing the persistence unit.
+     */
+    protected final Dialect dialect;
+
+    /**
+     * The identifier attribute, lazily retrieved from the metamodel.
+     */
+    private volatile SingularAttribute<? super T, ?> idAttribute;
+
+    /**
+     * The query result cache, {@code null} if not enabled.
+     */
+    private volatile QueryResultCache queryCache;
+
+    /**
+     * The cache of the entities retrieved by id, {@code null} if not enabled.
+     */
+    private volatile NearCache<Object, T> nearCache;
+
+    /**
+     * Copies the entities stored in the near cache.
+     */
+    private volatile EntityCopier<T> copier;
+
+    /**
+     * The mapping of the entity to its table, lazily computed for native statements.
+     */
+    private volatile TableMapping<T> tableMapping;
+
+    /**
+     * The standard queries, lazily computed.
+     */
+    private volatile QueryTemplates queryTemplates;
+
+    /**
+     * The executor running the asynchronous operations, {@code null} to run them in the caller thread.
+     */
+    private volatile ListeningExecutorService executor;
+
+    /**
+     * The policy retrying the failed transactional blocks, {@code null} to not retry them.
+     */
+    private volatile RetryPolicy retryPolicy;
+
+    /**
+     * The registry dispatching the cache invalidations of the unit, {@code null} to only invalidate the caches of
+     * this Crud service.
+     */
+    private volatile InvalidationRegistry invalidationRegistry;
+
+    /**
+     * Invalidates the query result cache and the near cache.
+     */
+    private final Runnable cacheInvalidation = new Runnable() {
+        @Override
+        public void run() {
+            QueryResultCache cache = queryCache;
+            if (cache != null) {
+                cache.invalidate();
+            }
+            NearCache<Object, T> near = nearCache;
+            if (near != null) {
+                near.invalidate();
+            }
+        }
+    };
+
+    /**
+     * Notifies the modification of the entities once the transaction has committed.
+     */
+    private final Runnable commitInvalidation = new Runnable() {
+        @Override
+        public void run() {
+            InvalidationRegistry registry = invalidationRegistry;
+            if (registry != null) {
+                registry.invalidate(entity);
+            } else {
+                cacheInvalidation.run();
+            }
+        }
+    };
+
     /**
      * Super constructor, that implementation must call.
      *
@@ -75,11 +215,27 @@ public abstract class AbstractJTACrud<T, I extends Serializable> implements Crud
      */
     public AbstractJTACrud(String pu, EntityManager em,
                            Class<T> entity, Class<I> id, Repository repository) {
+        this(pu, em, entity, id, repository, Dialect.UNKNOWN);
+    }
+
+    /**
+     * Super constructor, that implementation must call.
+     *
+     * @param pu         the name of the persistence unit
+     * @param em         the entity manager
+     * @param entity     the class of the entity
+     * @param id         the class of the primary key
+     * @param repository the repository
+     * @param dialect    the dialect of the database backing the unit
+     */
+    public AbstractJTACrud(String pu, EntityManager em,
+                           Class<T> entity, Class<I> id, Repository repository, Dialect dialect) {
         this.entityManager = em;
         this.entity = entity;
         this.idClass = id;
         this.pu = pu;
         this.repository = repository;
+        this.dialect = dialect == null ? Dialect.UNKNOWN : dialect;
     }
 
     /**
@@ -113,7 +269,156 @@ public abstract class AbstractJTACrud<T, I extends Serializable> implements Crud
      * A method implemented when the Crud service is stopped.
      */
     public void dispose() {
-        // Do nothing by default.
+        InvalidationRegistry registry = invalidationRegistry;
+        if (registry != null) {
+            registry.unregister(entity, cacheInvalidation);
+        }
+    }
+
+    /**
+     * Sets the registry dispatching the cache invalidations of the persistence unit. The caches of this Crud service
+     * are then invalidated when any Crud service of the unit modifies the entity, or a related entity, and the
+     * modifications made through this Crud service invalidate the caches of the others.
+     *
+     * @param registry the registry, {@code null} to only invalidate the caches of this Crud service
+     */
+    public void setInvalidationRegistry(InvalidationRegistry registry) {
+        InvalidationRegistry previous = invalidationRegistry;
+        if (previous != null) {
+            previous.unregister(entity, cacheInvalidation);
+        }
+        invalidationRegistry = registry;
+        updateInvalidationRegistration();
+    }
+
+    /**
+     * Registers the invalidation of the caches in the registry if a cache is enabled, unregisters it otherwise.
+     */
+    private void updateInvalidationRegistration() {
+        InvalidationRegistry registry = invalidationRegistry;
+        if (registry == null) {
+            return;
+        }
+        if (queryCache != null || nearCache != null) {
+            registry.register(entity, cacheInvalidation);
+        } else {
+            registry.unregister(entity, cacheInvalidation);
+        }
+    }
+
+    /**
+     * Sets the executor running the asynchronous operations. The executor is shared by all the Crud services of the
+     * persistence unit, and sized to not exceed the number of connections of the unit's data source.
+     *
+     * @param executor the executor, {@code null} to run the asynchronous operations in the caller thread
+     */
+    public void setExecutor(ListeningExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the policy retrying the transactional blocks executed by
+     * {@link #executeTransactionalBlock(java.util.concurrent.Callable)} when they fail because of a transient
+     * conflict (optimistic lock failure, deadlock...).
+     *
+     * @param policy the policy, {@code null} to not retry the blocks
+     */
+    public void setRetryPolicy(RetryPolicy policy) {
+        this.retryPolicy = policy;
+    }
+
+    /**
+     * @return the policy retrying the transactional blocks, {@code null} if the blocks are not retried
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Enables the caching of the results of {@link #findAll()}, {@link #count()}, and of
+     * {@link #findAll(EntityFilter)} and {@link #count(EntityFilter)} when used with a {@link CriteriaFilter}.
+     * Results are keyed by the normalized query and its parameters, and are all invalidated when a transaction
+     * saving or deleting entities through this Crud service, or through any Crud service of the unit if an
+     * {@link InvalidationRegistry} is set, commits. Modifications made directly with the entity manager are not
+     * detected, they are only visible once the entries have expired.
+     * <p>
+     * The cache is not used within transactions, so transactions always see their own modifications. The cached
+     * instances are shared between callers and must not be modified.
+     *
+     * @param maximumSize the maximum number of cached queries, must be strictly positive
+     * @param ttl         the time-to-live of the cached results, 0 to keep them until invalidation
+     * @param unit        the unit of the time-to-live
+     */
+    public void enableQueryCache(long maximumSize, long ttl, TimeUnit unit) {
+        queryCache = new QueryResultCache(maximumSize, ttl, unit);
+        updateInvalidationRegistration();
+    }
+
+    /**
+     * Disables the query result cache, and drops the cached results.
+     */
+    public void disableQueryCache() {
+        queryCache = null;
+        updateInvalidationRegistration();
+    }
+
+    /**
+     * Gets the query result cache, giving access to its hit, miss and eviction counters.
+     *
+     * @return the cache, {@code null} if not enabled.
+     */
+    public QueryResultCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Enables the caching of the entities retrieved by {@link #findOne(java.io.Serializable)}, typically for small
+     * reference entities read far more often than written. The cache stores detached copies, and each caller
+     * receives its own copy. All the entries are invalidated when a transaction saving or deleting entities through
+     * this Crud service, or through any Crud service of the unit if an {@link InvalidationRegistry} is set, commits.
+     * As for the query cache, modifications made directly with the entity manager are not detected, and the cache is
+     * not used within transactions.
+     * <p>
+     * Only entities made of basic attributes are supported.
+     *
+     * @param maximumSize the maximum number of cached entities, must be strictly positive
+     * @throws IllegalArgumentException if the entity cannot be copied
+     */
+    public void enableNearCache(int maximumSize) {
+        enableNearCache(maximumSize, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Enables the caching of the entities retrieved by {@link #findOne(java.io.Serializable)}, with entries
+     * expiring a fixed time after they have been loaded. The expiration bounds the staleness of the entities
+     * modified without going through a Crud service. See {@link #enableNearCache(int)}.
+     *
+     * @param maximumSize the maximum number of cached entities, must be strictly positive
+     * @param ttl         the time-to-live of the cached entities, 0 to keep them until invalidation
+     * @param unit        the unit of the time-to-live
+     * @throws IllegalArgumentException if the entity cannot be copied
+     */
+    public void enableNearCache(int maximumSize, long ttl, TimeUnit unit) {
+        copier = new EntityCopier<>(entityManager.getMetamodel().entity(entity));
+        nearCache = new NearCache<>(maximumSize, ttl, unit);
+        updateInvalidationRegistration();
+    }
+
+    /**
+     * Disables the near cache, and drops the cached entities.
+     */
+    public void disableNearCache() {
+        nearCache = null;
+        updateInvalidationRegistration();
+    }
+
+    /**
+     * Gets the near cache, giving access to its hit, miss and eviction counters.
+     *
+     * @return the cache, {@code null} if not enabled.
+     */
+    public NearCache<Object, T> getNearCache() {
+        return nearCache;
     }
 
     /**
@@ -158,7 +463,7 @@ public abstract class AbstractJTACrud<T, I extends Serializable> implements Crud
      */
     @Override
     public void executeTransactionalBlock(final Runnable runnable) throws HasBeenRollBackException {
-        inTransaction(new Callable<Void>() {
+        executeTransactionalBlock(new Callable<Void>() {
             /**
              * The block to execute within a transaction.
              * @return {@code null}
@@ -187,7 +492,96 @@ public abstract class AbstractJTACrud<T, I extends Serializable> implements Crud
      */
     @Override
     public <A> A executeTransactionalBlock(Callable<A> callable) throws HasBeenRollBackException {
-        return inTransaction(callable);
+        RetryPolicy policy = retryPolicy;
+        if (policy == null || policy.getMaxAttempts() == 1 || isTransactionActive()) {
+            // Retrying within the caller's transaction would not help, its state is already compromised.
+            return inTransaction(callable);
+        }
+        return inTransactionWithRetries(callable, policy);
+    }
+
+    /**
+     * Runs the given block in a new transaction, and retries it in another transaction if it fails with a
+     * retryable exception.
+     * <p>
+     * The Crud operations called by the block do not propagate their failures: they mark the transaction as rollback
+     * only and return {@code null}, so the commit fails without telling why. These failures are recorded while the
+     * block runs (see {@link #recordNestedFailure(Exception)}): the attempt is retried if the failure of the block
+     * or of the commit, or one of the recorded failures, is retryable.
+     *
+     * @param callable the block
+     * @param policy   the retry policy
+     * @param <A>      the return type
+     * @return the result of the block, {@code null} if the block failed
+     */
+    private <A> A inTransactionWithRetries(Callable<A> callable, RetryPolicy policy) {
+        for (int attempt = 1; ; attempt++) {
+            List<Exception> nested = new ArrayList<>();
+            NESTED_FAILURES.set(nested);
+            try {
+                A result = callInTransaction(callable);
+                if (attempt > 1) {
+                    policy.onRecovered();
+                }
+                return result;
+            } catch (Exception e) {
+                for (Exception failure : nested) {
+                    if (failure != e) {
+                        e.addSuppressed(failure);
+                    }
+                }
+                if (!isRetryable(policy, e, nested)) {
+                    LOGGER.error("[Unit : {}, Entity: {}] - the transactional block has failed", pu,
+                            entity.getName(), e);
+                    return null;
+                }
+                if (attempt >= policy.getMaxAttempts()) {
+                    policy.onExhausted();
+                    LOGGER.error("[Unit : {}, Entity: {}] - the transactional block has failed after {} attempts", pu,
+                            entity.getName(), attempt, e);
+                    return null;
+                }
+                long delay = policy.getDelay(attempt);
+                LOGGER.debug("[Unit : {}, Entity: {}] - attempt {} of the transactional block has failed, retrying " +
+                        "in {} ms", pu, entity.getName(), attempt, delay, e);
+                policy.onRetry();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(delay);
+                } catch (InterruptedException interrupted) { //NOSONAR
+                    Thread.currentThread().interrupt();
+                    LOGGER.error("[Unit : {}, Entity: {}] - interrupted while waiting to retry the transactional " +
+                            "block", pu, entity.getName(), e);
+                    return null;
+                }
+            } finally {
+                NESTED_FAILURES.remove();
+            }
+        }
+    }
+
+    private static boolean isRetryable(RetryPolicy policy, Exception failure, List<Exception> nested) {
+        if (policy.isRetryable(failure)) {
+            return true;
+        }
+        for (Exception e : nested) {
+            if (policy.isRetryable(e)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records a failure swallowed by {@link #inTransaction(Callable)}, so a retried block running on the current
+     * thread can decide whether its failure is retryable. Does nothing if no retried block runs.
+     *
+     * @param failure the failure
+     */
+    protected static void recordNestedFailure(Exception failure) {
+        List<Exception> failures = NESTED_FAILURES.get();
+        if (failures != null) {
+            failures.add(failure);
+        }
     }
 
     /**
@@ -198,14 +592,119 @@ public abstract class AbstractJTACrud<T, I extends Serializable> implements Crud
      */
     @Override
     public T findOne(final I id) {
-        return inTransaction(new Callable<T>() {
+        Callable<T> find = new Callable<T>() {
             @Override
             public T call() throws Exception {
                 return entityManager.find(entity, id);
             }
+        };
+        NearCache<Object, T> cache = nearCache;
+        if (cache == null || isTransactionActive()) {
+            return inReadOnlyTransaction(find);
+        }
+        EntityCopier<T> entityCopier = copier;
+        T cached = cache.get(id);
+        if (cached != null) {
+            return entityCopier.copy(cached);
+        }
+        long generation = cache.generation();
+        T result = inReadOnlyTransaction(find);
+        if (entityCopier.supports(result)) {
+            cache.put(id, entityCopier.copy(result), generation);
+        }
+        return result;
+    }
+
+
+    /**
+     * Retrieves an entity by its id, loading the given relations in the same query using fetch joins. It avoids
+     * the additional queries triggered when accessing lazy relations, or when the provider loads eager relations
+     * with separate selects.
+     *
+     * @param id    the id, must not be null. It is converted to the type of the identifier attribute (see
+     *              {@link #toIdentifier(Object)}).
+     * @param fetch the relations to load, dot notation is supported to load nested relations (e.g.
+     *              {@code items.product})
+     * @return the entity instance, {@literal null} if there are no entities matching the given id.
+     * @throws IllegalArgumentException if the id cannot be converted to the type of the identifier attribute
+     */
+    public T findOne(final I id, final String... fetch) {
+        if (fetch.length == 0) {
+            return findOne(id);
+        }
+        final Object key = toIdentifier(id);
+        return inReadOnlyTransaction(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+                CriteriaQuery<T> cq = builder.createQuery(entity);
+                Root<T> root = cq.from(entity);
+                fetch(root, fetch);
+                cq.select(root).distinct(true).where(builder.equal(root.get(getIdAttribute()), key));
+                List<T> list = entityManager.createQuery(cq).getResultList();
+                return list.isEmpty() ? null : list.get(0);
+            }
+        });
+    }
+
+    /**
+     * Returns all instances of the entity, loading the given relations in the same query using fetch joins.
+     * Fetching several collections at once produces the cartesian product of the collections, and is not
+     * supported by all providers.
+     *
+     * @param fetch the relations to load, dot notation is supported to load nested relations
+     * @return the instances, empty if none.
+     */
+    public List<T> findAll(final String... fetch) {
+        return findAll(null, fetch);
+    }
+
+    /**
+     * Retrieves the entities matching the given filter, loading the given relations in the same query using fetch
+     * joins.
+     *
+     * @param filter the filter, {@code null} to retrieve all instances
+     * @param fetch  the relations to load, dot notation is supported to load nested relations
+     * @return the matching instances, empty if none.
+     */
+    public List<T> findAll(final CriteriaFilter<T> filter, final String... fetch) {
+        return inReadOnlyTransaction(new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws Exception {
+                CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+                CriteriaQuery<T> cq = builder.createQuery(entity);
+                Root<T> root = cq.from(entity);
+                fetch(root, fetch);
+                cq.select(root).distinct(fetch.length > 0);
+                if (filter != null) {
+                    cq.where(filter.toPredicate(builder, root));
+                }
+                return entityManager.createQuery(cq).getResultList();
+            }
         });
     }
 
+    /**
+     * Adds (left outer) fetch joins on the given relations. Common prefixes share the same join.
+     *
+     * @param root       the root
+     * @param attributes the relations, dot notation is supported
+     */
+    private static void fetch(Root<?> root, String... attributes) {
+        for (String attribute : attributes) {
+            FetchParent<?, ?> parent = root;
+            for (String name : attribute.split("\\.")) {
+                FetchParent<?, ?> existing = null;
+                for (Fetch<?, ?> candidate : parent.getFetches()) {
+                    if (candidate.getAttribute().getName().equals(name)) {
+                        existing = candidate;
+                        break;
+                    }
+                }
+                parent = existing != null ? existing : parent.fetch(name, JoinType.LEFT);
+            }
+        }
+    }
 
     /**
      * Returns all instances of the entity.
@@ -214,25 +713,32 @@ public abstract class AbstractJTACrud<T, I extends Serializable> implements Crud
      */
     @Override
     public Iterable<T> findAll() {
-        return inTransaction(new Callable<Iterable<T>>() {
+        return cachedList(Arrays.<Object>asList("findAll"), new Callable<List<T>>() {
             @Override
-            public Iterable<T> call() throws Exception {
-                CriteriaQuery<T> cq = entityManager.getCriteriaBuilder().createQuery(entity);
-                Root<T> pet = cq.from(entity);
-                cq.select(pet);
-                return entityManager.createQuery(cq).getResultList();
+            public List<T> call() throws Exception {
+                return entityManager.createQuery(getQueryTemplates().findAll(), entity).getResultList();
             }
         });
     }
 
     /**
      * Retrieves the entity matching the given filter. If several entities matches, the first is returned.
+     * If the filter is a {@link CriteriaFilter}, the filter is evaluated by the database.
      *
      * @param filter the filter
      * @return the first matching instance, {@literal null} if none
      */
     @Override
-    public T findOne(EntityFilter<T> filter) {
+    public T findOne(final EntityFilter<T> filter) {
+        if (filter instanceof CriteriaFilter) {
+            return inReadOnlyTransaction(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    List<T> list = createFilteredQuery((CriteriaFilter<T>) filter).setMaxResults(1).getResultList();
+                    return list.isEmpty() ? null : list.get(0);
+                }
+            });
+        }
         for (T object : findAll()) {
             if (filter.accept(object)) {
                 return object;
@@ -242,32 +748,162 @@ public abstract class AbstractJTACrud<T, I extends Serializable> implements Crud
     }
 
     /**
-     * Returns all instances of the type with the given IDs.
+     * Returns all instances of the type with the given IDs. The instances already loaded in the persistence context,
+     * or held by the second-level cache, are returned without a query. The others are retrieved using
+     * {@code WHERE id IN (...)} queries, the ids being split in chunks respecting the parameter limit of the
+     * database. The ids are converted to the type of the identifier attribute (see {@link #toIdentifier(Object)}),
+     * so the key type of the Crud service does not have to match the mapped one. Everything runs in a single
+     * transaction.
      *
      * @param ids the ids.
-     * @return the instances, empty if none.
+     * @return the instances in the order of the given ids, empty if none.
      */
     @Override
-    public Iterable<T> findAll(Iterable<I> ids) {
-        List<T> results = new ArrayList<>();
-        for (I id : ids) {
-            T t = findOne(id);
-            if (t != null) {
-                results.add(t);
+    public Iterable<T> findAll(final Iterable<I> ids) {
+        return inReadOnlyTransaction(new Callable<Iterable<T>>() {
+            @Override
+            public Iterable<T> call() throws Exception {
+                PersistenceUnitUtil util = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+                Cache cache = entityManager.getEntityManagerFactory().getCache();
+                List<Object> keys = new ArrayList<>();
+                Map<Object, T> found = new HashMap<>();
+                Map<Object, T> references = new HashMap<>();
+                List<Object> missing = new ArrayList<>();
+                for (I id : ids) {
+                    Object key = toIdentifier(id);
+                    keys.add(key);
+                    if (key == null || found.containsKey(key) || references.containsKey(key)) {
+                        continue;
+                    }
+                    if (cache != null && cache.contains(entity, key)) {
+                        // Served by the second-level cache, without a query.
+                        T cached = entityManager.find(entity, key);
+                        if (cached != null) {
+                            found.put(key, cached);
+                            continue;
+                        }
+                    }
+                    T reference = getReference(key);
+                    if (reference != null && util.isLoaded(reference)) {
+                        found.put(key, reference);
+                    } else {
+                        references.put(key, reference);
+                        missing.add(key);
+                    }
+                }
+
+                TypedQuery<T> query = entityManager.createQuery(getQueryTemplates().findAllById(), entity);
+                for (List<Object> chunk : Lists.partition(missing, getInClauseChunkSize())) {
+                    for (T t : query.setParameter(QueryTemplates.IDS_PARAMETER, chunk).getResultList()) {
+                        found.put(util.getIdentifier(t), t);
+                    }
+                }
+
+                List<T> results = new ArrayList<>();
+                for (Object key : keys) {
+                    T t = found.get(key);
+                    if (t != null) {
+                        results.add(t);
+                    } else if (references.get(key) != null) {
+                        // Do not leave the reference of a non-existing entity in the persistence context.
+                        entityManager.detach(references.get(key));
+                        references.remove(key);
+                    }
+                }
+                return results;
             }
+        });
+    }
+
+    /**
+     * Gets a reference on the entity with the given id, without loading it. The instance is the managed one if the
+     * entity is already in the persistence context.
+     *
+     * @param key the id, converted to the type of the identifier attribute
+     * @return the reference, {@code null} if the provider cannot create it.
+     */
+    private T getReference(Object key) {
+        try {
+            return entityManager.getReference(entity, key);
+        } catch (EntityNotFoundException e) { //NOSONAR
+            return null;
+        }
+    }
+
+    /**
+     * Gets the number of ids used in a single {@code IN} clause.
+     *
+     * @return the chunk size, depends on the database dialect.
+     */
+    protected int getInClauseChunkSize() {
+        return Math.min(DEFAULT_IN_CLAUSE_CHUNK_SIZE, dialect.getMaxParameters());
+    }
+
+    /**
+     * Converts the given id to the type of the identifier attribute. The key type of a Crud service may differ from
+     * the mapped one (for instance {@code String} ids coming from a route), while JPA providers only accept the
+     * mapped type as query parameter. Numbers are converted to the other numeric types, other values are parsed
+     * from their string representation using the {@code valueOf(String)} or {@code fromString(String)} factory, or
+     * the {@code String} constructor of the identifier type.
+     *
+     * @param id the id, may be {@code null}
+     * @return the converted id, {@code null} if the given id is {@code null}
+     * @throws IllegalArgumentException if the id cannot be converted
+     */
+    protected Object toIdentifier(Object id) {
+        if (id == null) {
+            return null;
+        }
+        Class<?> type = Primitives.wrap(getIdAttribute().getJavaType());
+        if (type.isInstance(id)) {
+            return id;
+        }
+        String value = id.toString();
+        if (type == String.class) {
+            return value;
+        }
+        if (type == Character.class && value.length() == 1) {
+            return value.charAt(0);
+        }
+        try {
+            for (String factory : new String[]{"valueOf", "fromString"}) {
+                try {
+                    Method method = type.getMethod(factory, String.class);
+                    if (Modifier.isStatic(method.getModifiers()) && type.isAssignableFrom(method.getReturnType())) {
+                        return method.invoke(null, value);
+                    }
+                } catch (NoSuchMethodException e) { //NOSONAR
+                    // Try the next one.
+                }
+            }
+            return type.getConstructor(String.class).newInstance(value);
+        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot convert the id " + id + " to " + type.getName(), e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalArgumentException("Cannot convert the id " + id + " to " + type.getName(),
+                    e.getTargetException());
         }
-        return results;
     }
 
     /**
      * Retrieves the entities matching the given filter.
-     * Be aware that the implementation may load all stored entities in memory to retrieve the right set of entities.
+     * If the filter is a {@link CriteriaFilter}, the filter is translated to a {@code WHERE} clause and evaluated by
+     * the database. Otherwise, be aware that the implementation loads all stored entities in memory to retrieve the
+     * right set of entities.
      *
      * @param filter the filter
      * @return the matching instances, empty if none.
      */
     @Override
-    public Iterable<T> findAll(EntityFilter<T> filter) {
+    public Iterable<T> findAll(final EntityFilter<T> filter) {
+        if (filter instanceof CriteriaFilter) {
+            return cachedList(getQueryKey("findAll", (CriteriaFilter<T>) filter), new Callable<List<T>>() {
+                @Override
+                public List<T> call() throws Exception {
+                    return createFilteredQuery((CriteriaFilter<T>) filter).getResultList();
+                }
+            });
+        }
         List<T> results = new ArrayList<>();
         for (T object : findAll()) {
             if (filter.accept(object)) {
@@ -289,6 +925,7 @@ public abstract class AbstractJTACrud<T, I extends Serializable> implements Crud
                 new Callable<T>() {
                     @Override
                     public T call() throws Exception {
+                        invalidateCachesOnCommit();
                         T attached = getAttached(t);
                         if (attached != null) {
                             entityManager.remove(attached);
@@ -311,6 +948,7 @@ public abstract class AbstractJTACrud<T, I extends Serializable> implements Crud
                     new Callable<Void>() {
                         @Override
                         public Void call() throws Exception {
+                            invalidateCachesOnCommit();
                             final T entity = findOne(id);
                             T attached = getAttached(entity);
                             if (attached != null) {
@@ -351,6 +989,7 @@ public abstract class AbstractJTACrud<T, I extends Serializable> implements Crud
         return inTransaction(new Callable<Iterable<T>>() {
             @Override
             public Iterable<T> call() throws Exception {
+                invalidateCachesOnCommit();
                 for (T object : entities) {
                     T attached = getAttached(object);
                     if (attached != null) {
@@ -366,51 +1005,161 @@ public abstract class AbstractJTACrud<T, I extends Serializable> implements Crud
      * Saves a given entity. Use the returned instance for further operations as the operation might have
      * changed the entity instance completely.
      * <p>
-     * This method is used to save a new entity or to update it.
+     * This method is used to save a new entity or to update it. New entities are detected without querying the
+     * database (see {@link #isNew(Object)}): they are persisted, while the others are merged.
      *
      * @param t the instance to save
-     * @return the saved entity
+     * @return the saved entity, it may be a different instance if the given entity was detached
      */
     @Override
     public T save(final T t) {
         return inTransaction(new Callable<T>() {
             @Override
             public T call() throws Exception {
-                T attached = getAttached(t);
-                if (attached != null) {
-                    // Update
-                    entityManager.merge(t);
-                } else {
-                    // New object
+                invalidateCachesOnCommit();
+                if (entityManager.contains(t)) {
+                    // Already managed, changes are flushed on commit.
+                    return t;
+                }
+                if (isNew(t)) {
                     entityManager.persist(t);
+                    return t;
                 }
-                return t;
+                // Detached instance
+                return entityManager.merge(t);
             }
         });
     }
 
     /**
-     * Checks whether an entity instance with the given id exists, i.e. has been saved and is persisted.
+     * Checks whether the given (not managed) instance is a new entity, i.e. has never been persisted. The decision
+     * relies on the metamodel and does not query the database:
+     * <ol>
+     * <li>if the entity has a {@code @Version} attribute of a non-primitive type, the entity is new if the version
+     * is {@code null}</li>
+     * <li>otherwise, the entity is new if its identifier is {@code null}, or {@code 0} for primitive numeric
+     * identifiers</li>
+     * </ol>
+     * Entities with assigned (non-generated) identifiers are therefore considered as detached, and merged.
      *
-     * @param id the id, must not be null
-     * @return {@literal true} if an entity with the given id exists, {@literal false} otherwise.
+     * @param t the instance
+     * @return {@literal true} if the instance is new, {@literal false} otherwise
      */
-    @Override
-    public boolean exists(I id) {
-        return findOne(id) != null;
+    protected boolean isNew(T t) {
+        EntityType<T> type = entityManager.getMetamodel().entity(entity);
+        SingularAttribute<? super T, ?> version = getVersionAttribute();
+        if (version != null && !version.getJavaType().isPrimitive()) {
+            return readAttribute(t, version) == null;
+        }
+
+        Object id;
+        Class<?> idType;
+        if (type.hasSingleIdAttribute()) {
+            SingularAttribute<? super T, ?> attribute = getIdAttribute();
+            id = readAttribute(t, attribute);
+            idType = attribute.getJavaType();
+        } else {
+            id = entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(t);
+            idType = Object.class;
+        }
+        if (id == null) {
+            return true;
+        }
+        return idType.isPrimitive() && id instanceof Number && ((Number) id).longValue() == 0L;
     }
 
     /**
-     * Gets the number of stored instances.
+     * Reads the value of the given attribute from the given instance using the member exposed by the metamodel.
      *
-     * @return the number of stored instances, 0 if none.
+     * @param object    the instance
+     * @param attribute the attribute
+     * @return the value
      */
-    @Override
-    public long count() {
-        return Iterables.size(findAll());
-    }
-
-    /**
+    static Object readAttribute(Object object, Attribute<?, ?> attribute) {
+        Member member = attribute.getJavaMember();
+        try {
+            if (member instanceof Field) {
+                Field field = (Field) member;
+                if (!field.isAccessible()) {
+                    field.setAccessible(true);
+                }
+                return field.get(object);
+            } else if (member instanceof Method) {
+                Method method = (Method) member;
+                if (!method.isAccessible()) {
+                    method.setAccessible(true);
+                }
+                return method.invoke(object);
+            }
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Cannot read the attribute " + attribute.getName() + " of " + object, e);
+        }
+        // Unknown member, use reflection on the attribute name.
+        return CriteriaFilter.getValue(object, attribute.getName());
+    }
+
+    /**
+     * Checks whether an entity instance with the given id exists, i.e. has been saved and is persisted. The id is
+     * converted to the type of the identifier attribute (see {@link #toIdentifier(Object)}).
+     *
+     * @param id the id, must not be null
+     * @return {@literal true} if an entity with the given id exists, {@literal false} otherwise.
+     */
+    @Override
+    public boolean exists(final I id) {
+        Boolean exists = inReadOnlyTransaction(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                // Only select the key, the entity is not loaded.
+                return !entityManager.createQuery(getQueryTemplates().exists())
+                        .setParameter(QueryTemplates.ID_PARAMETER, toIdentifier(id))
+                        .setMaxResults(1).getResultList().isEmpty();
+            }
+        });
+        return exists != null && exists;
+    }
+
+    /**
+     * Gets the number of stored instances. The count is computed by the database.
+     *
+     * @return the number of stored instances, 0 if none.
+     */
+    @Override
+    public long count() {
+        Long count = cached(Arrays.<Object>asList("count"), new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return entityManager.createQuery(getQueryTemplates().count(), Long.class).getSingleResult();
+            }
+        });
+        return count == null ? 0L : count;
+    }
+
+    /**
+     * Gets the number of stored instances matching the given filter. If the filter is a {@link CriteriaFilter},
+     * the count is computed by the database, otherwise all the instances are loaded and filtered in memory.
+     *
+     * @param filter the filter
+     * @return the number of matching instances, 0 if none.
+     */
+    public long count(final EntityFilter<T> filter) {
+        if (filter instanceof CriteriaFilter) {
+            Long count = cached(getQueryKey("count", (CriteriaFilter<T>) filter), new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+                    CriteriaQuery<Long> cq = builder.createQuery(Long.class);
+                    Root<T> root = cq.from(entity);
+                    cq.select(builder.count(root)).where(((CriteriaFilter<T>) filter).toPredicate(builder, root));
+                    return entityManager.createQuery(cq).getSingleResult();
+                }
+            });
+            return count == null ? 0L : count;
+        }
+        return Iterables.size(findAll(filter));
+    }
+
+    /**
      * Saves all given entities. Use the returned instances for further operations as the operation might have
      * changed the entity instances completely.
      *
@@ -422,6 +1171,7 @@ public abstract class AbstractJTACrud<T, I extends Serializable> implements Crud
         return inTransaction(new Callable<Iterable<T>>() {
             @Override
             public Iterable<T> call() throws Exception {
+                invalidateCachesOnCommit();
                 for (T object : entities) {
                     entityManager.persist(object);
                 }
@@ -430,6 +1180,1076 @@ public abstract class AbstractJTACrud<T, I extends Serializable> implements Crud
         });
     }
 
+    /**
+     * Inserts the given entity, or updates the stored entity having the same id, using a single atomic statement
+     * native to the database ({@code MERGE} on H2, HSQL and Derby, {@code INSERT ... ON CONFLICT} on PostgreSQL,
+     * {@code INSERT ... ON DUPLICATE KEY UPDATE} on MySQL, {@code INSERT OR REPLACE} on SQLite). It avoids the
+     * lookup done by {@link #save(Object)} for entities with assigned ids. On other databases, it falls back to
+     * {@link #save(Object)}.
+     *
+     * @param t the instance
+     * @return the given instance
+     * @see #upsertAll(Iterable)
+     */
+    public T upsert(T t) {
+        Iterable<T> result = upsertAll(Collections.singletonList(t));
+        return result == null ? null : t;
+    }
+
+    /**
+     * Inserts or updates the given entities using native upsert statements, one per entity, in a single
+     * transaction. Only entities stored in a single table, made of basic attributes and without
+     * {@code @Version} are supported. New entities (see {@link #isNew(Object)}) are persisted as usual, so their
+     * identifier can be generated, and flushed before the upsert statements, so the statements run in the order of
+     * the operations. The upserted entities are evicted from the second-level cache, and the instances having the
+     * same id already managed by the persistence context are refreshed.
+     * <p>
+     * The table and column names are read from the {@code @Table} and {@code @Column} annotations, and default to
+     * the entity and attribute names. The first call checks them against the database, so an upsert fails with an
+     * {@link IllegalArgumentException} if the provider uses another naming strategy.
+     *
+     * @param entities the entities, must not contains {@literal null} values
+     * @return the given entities
+     */
+    public Iterable<T> upsertAll(final Iterable<T> entities) {
+        return inTransaction(new Callable<Iterable<T>>() {
+            @Override
+            public Iterable<T> call() throws Exception {
+                invalidateCachesOnCommit();
+                TableMapping<T> mapping = getTableMapping();
+                String sql = dialect.getUpsertStatement(mapping.getTable(), mapping.getColumns(), mapping.getKey());
+                if (sql == null) {
+                    for (T object : entities) {
+                        save(object);
+                    }
+                    return entities;
+                }
+                verifyTableMapping(mapping);
+                List<T> upserted = new ArrayList<>();
+                for (T object : entities) {
+                    if (entityManager.contains(object)) {
+                        // Already managed, changes are flushed below.
+                        continue;
+                    }
+                    if (isNew(object)) {
+                        entityManager.persist(object);
+                    } else {
+                        upserted.add(object);
+                    }
+                }
+                // Send the pending changes, including the new entities, before the native statements.
+                entityManager.flush();
+
+                int[] parameters = dialect.getUpsertParameters(mapping.getColumns().size(), mapping.getKey());
+                Cache cache = entityManager.getEntityManagerFactory().getCache();
+                for (T object : upserted) {
+                    Object[] values = mapping.getValues(object);
+                    Query query = entityManager.createNativeQuery(sql);
+                    for (int i = 0; i < parameters.length; i++) {
+                        query.setParameter(i + 1, values[parameters[i]]);
+                    }
+                    query.executeUpdate();
+                    if (cache != null) {
+                        cache.evict(entity, values[mapping.getKey()]);
+                    }
+                    refreshManaged(values[mapping.getKey()]);
+                }
+                return entities;
+            }
+        });
+    }
+
+    /**
+     * Gets the mapping of the entity to its table.
+     *
+     * @return the mapping
+     * @throws IllegalArgumentException if the entity cannot be mapped to a single table
+     */
+    private TableMapping<T> getTableMapping() {
+        TableMapping<T> mapping = tableMapping;
+        if (mapping == null) {
+            mapping = new TableMapping<>(entityManager.getMetamodel().entity(entity));
+            tableMapping = mapping;
+        }
+        return mapping;
+    }
+
+    /**
+     * Checks, once, that the table and columns of the given mapping exist, by selecting them without reading any
+     * row. The names are computed from the mapping annotations, while the provider may apply a naming strategy.
+     *
+     * @param mapping the mapping
+     * @throws IllegalArgumentException if the table or a column does not exist
+     */
+    private void verifyTableMapping(TableMapping<T> mapping) {
+        if (mapping.isVerified()) {
+            return;
+        }
+        try {
+            entityManager.createNativeQuery(mapping.getProbeStatement()).getResultList();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("The table " + mapping.getTable() + " or the columns " +
+                    mapping.getColumns() + " computed for the entity " + entity.getName() + " do not exist, " +
+                    "use @Table and @Column to declare the names produced by the naming strategy", e);
+        }
+        mapping.setVerified();
+    }
+
+    /**
+     * Refreshes the instance with the given id if it is managed by the persistence context, after a native
+     * statement has modified its row. The reference used to look the instance up is detached if the instance was
+     * not loaded, so no hollow instance is left in the context.
+     *
+     * @param id the id
+     */
+    private void refreshManaged(Object id) {
+        T managed;
+        try {
+            managed = entityManager.getReference(entity, id);
+        } catch (EntityNotFoundException e) { //NOSONAR
+            return;
+        }
+        if (entityManager.getEntityManagerFactory().getPersistenceUnitUtil().isLoaded(managed)) {
+            entityManager.refresh(managed);
+        } else {
+            entityManager.detach(managed);
+        }
+    }
+
+    /**
+     * Deletes the entities with the given ids using bulk {@code DELETE} statements. Entities are not loaded, the ids
+     * are split in chunks respecting the parameter limit of the database, and converted to the type of the
+     * identifier attribute. The matching instances are evicted from the second-level cache. Instances already
+     * managed by the current persistence context are not affected.
+     * <p>
+     * As any JPA bulk operation, cascades and lifecycle callbacks are not applied.
+     *
+     * @param ids the ids of the entities to delete
+     * @return the number of deleted entities
+     */
+    public int deleteAllById(final Iterable<I> ids) {
+        Integer deleted = inTransaction(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                invalidateCachesOnCommit();
+                String jpql = getQueryTemplates().deleteAllById();
+                Cache cache = entityManager.getEntityManagerFactory().getCache();
+                int count = 0;
+                for (List<I> chunk : Iterables.partition(ids, getInClauseChunkSize())) {
+                    List<Object> keys = new ArrayList<>(chunk.size());
+                    for (I id : chunk) {
+                        keys.add(toIdentifier(id));
+                    }
+                    count += entityManager.createQuery(jpql).setParameter(QueryTemplates.IDS_PARAMETER, keys)
+                            .executeUpdate();
+                    if (cache != null) {
+                        for (Object key : keys) {
+                            cache.evict(entity, key);
+                        }
+                    }
+                }
+                return count;
+            }
+        });
+        return deleted == null ? 0 : deleted;
+    }
+
+    /**
+     * Deletes the entities matching the given filter. If the filter is a {@link CriteriaFilter}, a single bulk
+     * {@code DELETE} statement is executed and the entity is evicted from the second-level cache. Instances already
+     * managed by the current persistence context are not affected, as for any JPA bulk operation. Otherwise, the
+     * matching entities are retrieved and deleted using {@link #deleteAllById(Iterable)}.
+     *
+     * @param filter the filter
+     * @return the number of deleted entities
+     */
+    @SuppressWarnings("unchecked")
+    public int deleteWhere(final EntityFilter<T> filter) {
+        if (!(filter instanceof CriteriaFilter)) {
+            PersistenceUnitUtil util = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+            List<I> ids = new ArrayList<>();
+            for (T t : findAll(filter)) {
+                ids.add((I) util.getIdentifier(t));
+            }
+            return deleteAllById(ids);
+        }
+        Integer deleted = inTransaction(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                invalidateCachesOnCommit();
+                Map<String, Object> parameters = new HashMap<>();
+                String where = ((CriteriaFilter<T>) filter).toJpql("e", parameters);
+                Query query = entityManager.createQuery("DELETE FROM " + getEntityName() + " e"
+                        + (where.isEmpty() ? "" : " WHERE " + where));
+                for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+                    query.setParameter(entry.getKey(), entry.getValue());
+                }
+                int count = query.executeUpdate();
+                Cache cache = entityManager.getEntityManagerFactory().getCache();
+                if (cache != null && count > 0) {
+                    cache.evict(entity);
+                }
+                return count;
+            }
+        });
+        return deleted == null ? 0 : deleted;
+    }
+
+    /**
+     * Updates the given attributes of the entity with the given id using a single bulk {@code UPDATE} statement,
+     * without loading the entity. If the entity has a {@code @Version} attribute, the version is incremented.
+     * <p>
+     * As any JPA bulk operation, lifecycle callbacks are not invoked. The entity is evicted from the second-level
+     * cache, but an instance already managed by the current persistence context is not refreshed.
+     *
+     * @param id      the id of the entity
+     * @param changes the new values of the attributes (attribute name -&gt; value). Only basic attributes can be
+     *                updated, the identifier and the version cannot.
+     * @return the number of updated entities, 0 if there are no entities with the given id
+     */
+    public int update(I id, Map<String, ?> changes) {
+        return update(id, null, changes);
+    }
+
+    /**
+     * Updates the given attributes of the entity with the given id if its version is the expected one. It is the
+     * bulk counterpart of the optimistic locking: the {@code UPDATE} statement checks the version and increments
+     * it, so a concurrent modification is detected without loading the entity.
+     *
+     * @param id              the id of the entity
+     * @param expectedVersion the expected version, {@code null} to not check the version
+     * @param changes         the new values of the attributes (attribute name -&gt; value)
+     * @return the number of updated entities, 0 if there are no entities with the given id, or if the version does
+     * not match
+     * @see #update(Serializable, Map)
+     */
+    public int update(final I id, final Object expectedVersion, final Map<String, ?> changes) {
+        checkChanges(changes);
+        Integer updated = inTransaction(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                invalidateCachesOnCommit();
+                Map<String, Object> parameters = new HashMap<>();
+                Object key = toIdentifier(id);
+                String where = "e." + getIdAttribute().getName() + " = :id";
+                parameters.put("id", key);
+                if (expectedVersion != null) {
+                    SingularAttribute<? super T, ?> version = getVersionAttribute();
+                    if (version == null) {
+                        throw new IllegalArgumentException("The entity " + entity.getName() + " does not have a " +
+                                "version attribute");
+                    }
+                    where += " AND e." + version.getName() + " = :version";
+                    parameters.put("version", expectedVersion);
+                }
+                int count = executeUpdate(changes, where, parameters);
+                Cache cache = entityManager.getEntityManagerFactory().getCache();
+                if (cache != null && count > 0) {
+                    cache.evict(entity, key);
+                }
+                return count;
+            }
+        });
+        return updated == null ? 0 : updated;
+    }
+
+    /**
+     * Updates the given attributes of the entities matching the given filter. If the filter is a
+     * {@link CriteriaFilter}, a single bulk {@code UPDATE} statement is executed. Otherwise, the matching entities
+     * are retrieved, and updated by chunks of ids. The version of the entities, if any, is incremented, and the
+     * entity is evicted from the second-level cache. Instances already managed by the current persistence context
+     * are not refreshed, as for any JPA bulk operation.
+     *
+     * @param filter  the filter
+     * @param changes the new values of the attributes (attribute name -&gt; value)
+     * @return the number of updated entities
+     * @see #update(Serializable, Map)
+     */
+    @SuppressWarnings("unchecked")
+    public int updateWhere(final EntityFilter<T> filter, final Map<String, ?> changes) {
+        checkChanges(changes);
+        final List<I> ids = new ArrayList<>();
+        if (!(filter instanceof CriteriaFilter)) {
+            PersistenceUnitUtil util = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+            for (T t : findAll(filter)) {
+                ids.add((I) util.getIdentifier(t));
+            }
+        }
+        Integer updated = inTransaction(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                invalidateCachesOnCommit();
+                int count = 0;
+                if (filter instanceof CriteriaFilter) {
+                    Map<String, Object> parameters = new HashMap<>();
+                    String where = ((CriteriaFilter<T>) filter).toJpql("e", parameters);
+                    count = executeUpdate(changes, where, parameters);
+                } else {
+                    String where = "e." + getIdAttribute().getName() + " IN :ids";
+                    for (List<I> chunk : Lists.partition(ids, getInClauseChunkSize())) {
+                        Map<String, Object> parameters = new HashMap<>();
+                        parameters.put("ids", chunk);
+                        count += executeUpdate(changes, where, parameters);
+                    }
+                }
+                Cache cache = entityManager.getEntityManagerFactory().getCache();
+                if (cache != null && count > 0) {
+                    cache.evict(entity);
+                }
+                return count;
+            }
+        });
+        return updated == null ? 0 : updated;
+    }
+
+    private static void checkChanges(Map<String, ?> changes) {
+        if (changes == null || changes.isEmpty()) {
+            throw new IllegalArgumentException("At least one attribute must be updated");
+        }
+    }
+
+    /**
+     * Builds and executes the bulk {@code UPDATE} statement. The attribute names are checked against the
+     * metamodel, so they cannot inject JPQL.
+     *
+     * @param changes    the new values of the attributes
+     * @param where      the where clause, empty to update all entities
+     * @param parameters the parameters of the where clause, the parameters of the changes are added to it
+     * @return the number of updated entities
+     */
+    private int executeUpdate(Map<String, ?> changes, String where, Map<String, Object> parameters) {
+        EntityType<T> type = entityManager.getMetamodel().entity(entity);
+        StringBuilder jpql = new StringBuilder("UPDATE ").append(getEntityName()).append(" e SET ");
+        int index = 0;
+        for (Map.Entry<String, ?> change : changes.entrySet()) {
+            // Throw an IllegalArgumentException if the attribute does not exist
+            SingularAttribute<? super T, ?> attribute = type.getSingularAttribute(change.getKey());
+            if (attribute.isId() || attribute.isVersion()) {
+                throw new IllegalArgumentException("Cannot update the identifier or the version attribute '"
+                        + change.getKey() + "'");
+            }
+            if (index > 0) {
+                jpql.append(", ");
+            }
+            jpql.append("e.").append(attribute.getName()).append(" = ");
+            if (change.getValue() == null) {
+                jpql.append("NULL");
+            } else {
+                String parameter = "u" + index;
+                jpql.append(':').append(parameter);
+                parameters.put(parameter, change.getValue());
+            }
+            index++;
+        }
+        SingularAttribute<? super T, ?> version = getVersionAttribute();
+        if (version != null) {
+            jpql.append(", e.").append(version.getName()).append(" = ");
+            if (Date.class.isAssignableFrom(version.getJavaType())) {
+                jpql.append("CURRENT_TIMESTAMP");
+            } else {
+                jpql.append("e.").append(version.getName()).append(" + 1");
+            }
+        }
+        if (!where.isEmpty()) {
+            jpql.append(" WHERE ").append(where);
+        }
+        Query query = entityManager.createQuery(jpql.toString());
+        for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+            query.setParameter(entry.getKey(), entry.getValue());
+        }
+        return query.executeUpdate();
+    }
+
+    /**
+     * Retrieves only the given attributes of the entities matching the filter, using a Criteria
+     * {@code multiselect}. The results are tuples whose elements are aliased with the attribute names. Unlike
+     * entities, they are not managed by the persistence context, so no dirty checking or snapshot is involved.
+     * Attributes should be basic (scalar) attributes, selecting a relation returns managed entities.
+     *
+     * @param filter     the filter, {@code null} to select all entities
+     * @param attributes the attributes to retrieve (dot notation is supported for nested attributes)
+     * @return the tuples, empty if none.
+     */
+    public List<Tuple> project(final CriteriaFilter<T> filter, final String... attributes) {
+        if (attributes.length == 0) {
+            throw new IllegalArgumentException("At least one attribute must be selected");
+        }
+        return inReadOnlyTransaction(new Callable<List<Tuple>>() {
+            @Override
+            public List<Tuple> call() throws Exception {
+                CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+                CriteriaQuery<Tuple> cq = builder.createTupleQuery();
+                Root<T> root = cq.from(entity);
+                List<Selection<?>> selections = new ArrayList<>();
+                for (String attribute : attributes) {
+                    selections.add(CriteriaFilter.getPath(root, attribute).alias(attribute));
+                }
+                cq.multiselect(selections);
+                if (filter != null) {
+                    cq.where(filter.toPredicate(builder, root));
+                }
+                return entityManager.createQuery(cq).getResultList();
+            }
+        });
+    }
+
+    /**
+     * Retrieves only the given attributes of the entities matching the filter and builds an instance of the given
+     * class for each row using a constructor expression. The class must have a public constructor whose parameters
+     * match the types of the attributes, in the same order. The created objects are not managed by the
+     * persistence context.
+     *
+     * @param dto        the class of the returned objects
+     * @param filter     the filter, {@code null} to select all entities
+     * @param attributes the attributes passed to the constructor (dot notation is supported for nested attributes)
+     * @param <D>        the type of the returned objects
+     * @return the created objects, empty if none.
+     */
+    public <D> List<D> project(final Class<D> dto, final CriteriaFilter<T> filter, final String... attributes) {
+        if (attributes.length == 0) {
+            throw new IllegalArgumentException("At least one attribute must be selected");
+        }
+        return inReadOnlyTransaction(new Callable<List<D>>() {
+            @Override
+            public List<D> call() throws Exception {
+                CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+                CriteriaQuery<D> cq = builder.createQuery(dto);
+                Root<T> root = cq.from(entity);
+                Selection<?>[] selections = new Selection<?>[attributes.length];
+                for (int i = 0; i < attributes.length; i++) {
+                    selections[i] = CriteriaFilter.getPath(root, attributes[i]);
+                }
+                cq.select(builder.construct(dto, selections));
+                if (filter != null) {
+                    cq.where(filter.toPredicate(builder, root));
+                }
+                return entityManager.createQuery(cq).getResultList();
+            }
+        });
+    }
+
+    /**
+     * Retrieves a page of entities using keyset (seek) pagination. Instead of skipping the rows of the previous
+     * pages, the query starts right after the last entity of the previous page, identified by the given key. So,
+     * with an index on the sort attribute, deep pages cost the same as the first one. The identifier is used as
+     * tie-breaker, so the sort attribute does not need to be unique, but must not be {@code null}.
+     *
+     * @param sort     the sort order
+     * @param limit    the maximum number of entities in the page, must be strictly positive
+     * @param afterKey the key of the previous page (see {@link Page#getNext()}), {@code null} for the first page
+     * @return the page
+     */
+    public Page<T> findPage(final Sort sort, final int limit, final Page.Key afterKey) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("The limit must be strictly positive");
+        }
+        return inReadOnlyTransaction(new Callable<Page<T>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Page<T> call() throws Exception {
+                CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+                CriteriaQuery<T> cq = builder.createQuery(entity);
+                Root<T> root = cq.from(entity);
+                cq.select(root);
+                Path<Comparable> id = root.get(getIdAttribute().getName());
+                Path<Comparable> attribute = root.get(sort.getAttribute());
+                boolean sortedById = isSortedById(sort);
+                if (afterKey != null) {
+                    Predicate afterId = sort.isAscending() ?
+                            builder.greaterThan(id, (Comparable) afterKey.getId()) :
+                            builder.lessThan(id, (Comparable) afterKey.getId());
+                    if (sortedById) {
+                        cq.where(afterId);
+                    } else {
+                        Comparable value = (Comparable) afterKey.getValue();
+                        Predicate afterValue = sort.isAscending() ?
+                                builder.greaterThan(attribute, value) :
+                                builder.lessThan(attribute, value);
+                        cq.where(builder.or(afterValue, builder.and(builder.equal(attribute, value), afterId)));
+                    }
+                }
+                cq.orderBy(getOrders(builder, sort, attribute, id));
+                return toPage(entityManager.createQuery(cq).setMaxResults(limit + 1).getResultList(), sort, limit);
+            }
+        });
+    }
+
+    /**
+     * Retrieves a page of entities using offset pagination. The database still reads and skips the first
+     * {@code offset} rows, so this method should be reserved to small tables. Prefer
+     * {@link #findPage(Sort, int, org.wisdom.framework.jpa.crud.Page.Key)} for large ones; the returned page
+     * contains the key to switch to keyset pagination.
+     *
+     * @param sort   the sort order
+     * @param limit  the maximum number of entities in the page, must be strictly positive
+     * @param offset the number of entities to skip
+     * @return the page
+     */
+    public Page<T> findPage(final Sort sort, final int limit, final int offset) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("The limit must be strictly positive");
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("The offset cannot be negative");
+        }
+        return inReadOnlyTransaction(new Callable<Page<T>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Page<T> call() throws Exception {
+                CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+                CriteriaQuery<T> cq = builder.createQuery(entity);
+                Root<T> root = cq.from(entity);
+                cq.select(root);
+                Path<Comparable> id = root.get(getIdAttribute().getName());
+                Path<Comparable> attribute = root.get(sort.getAttribute());
+                cq.orderBy(getOrders(builder, sort, attribute, id));
+                return toPage(entityManager.createQuery(cq).setFirstResult(offset).setMaxResults(limit + 1)
+                        .getResultList(), sort, limit);
+            }
+        });
+    }
+
+    private boolean isSortedById(Sort sort) {
+        return sort.getAttribute().equals(getIdAttribute().getName());
+    }
+
+    private List<Order> getOrders(CriteriaBuilder builder, Sort sort, Path<?> attribute, Path<?> id) {
+        List<Order> orders = new ArrayList<>();
+        orders.add(sort.isAscending() ? builder.asc(attribute) : builder.desc(attribute));
+        if (!isSortedById(sort)) {
+            orders.add(sort.isAscending() ? builder.asc(id) : builder.desc(id));
+        }
+        return orders;
+    }
+
+    private Page<T> toPage(List<T> results, Sort sort, int limit) {
+        if (results.size() <= limit) {
+            return new Page<>(results, null);
+        }
+        List<T> content = new ArrayList<>(results.subList(0, limit));
+        T last = content.get(limit - 1);
+        Object id = entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(last);
+        Object value = isSortedById(sort) ? id : CriteriaFilter.getValue(last, sort.getAttribute());
+        return new Page<>(content, Page.Key.of(value, id));
+    }
+
+    /**
+     * Iterates over all the instances of the entity, {@code batchSize} at a time, so the memory consumption does
+     * not depend on the size of the table. The iteration runs within a single transaction.
+     *
+     * @param batchSize the number of entities loaded per query, must be strictly positive
+     * @param consumer  the consumer receiving the entities
+     * @return the number of consumed entities
+     * @see #forEach(EntityFilter, int, EntityConsumer)
+     */
+    public long forEach(int batchSize, EntityConsumer<T> consumer) {
+        return forEach(null, batchSize, consumer);
+    }
+
+    /**
+     * Iterates over the instances of the entity matching the given filter. If the filter is a
+     * {@link CriteriaFilter}, it is evaluated by the database, otherwise the filter is applied on each entity while
+     * iterating. The entities are loaded by pages of {@code batchSize} entities in the order of their identifier,
+     * each page starting after the last identifier of the previous one, so the memory consumption does not depend
+     * on the size of the table whatever the provider. The iteration runs within a single transaction.
+     * <p>
+     * The consumer may modify the entities: the changes are flushed after each page, and committed with the
+     * transaction. Be aware that the persistence context is cleared between two pages, which detaches
+     * <strong>all</strong> managed entities, including the ones loaded before by the caller in the same
+     * transaction.
+     *
+     * @param filter    the filter, {@code null} to consume all instances
+     * @param batchSize the number of entities loaded per query, must be strictly positive
+     * @param consumer  the consumer receiving the entities
+     * @return the number of consumed entities
+     */
+    public long forEach(final EntityFilter<T> filter, final int batchSize, final EntityConsumer<T> consumer) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be strictly positive");
+        }
+        Long count = inTransaction(new Callable<Long>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Long call() throws Exception {
+                invalidateCachesOnCommit();
+                CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+                PersistenceUnitUtil util = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+                long count = 0;
+                Comparable last = null;
+                while (true) {
+                    CriteriaQuery<T> cq = builder.createQuery(entity);
+                    Root<T> root = cq.from(entity);
+                    Path<Comparable> id = root.get(getIdAttribute().getName());
+                    List<Predicate> predicates = new ArrayList<>();
+                    if (filter instanceof CriteriaFilter) {
+                        predicates.add(((CriteriaFilter<T>) filter).toPredicate(builder, root));
+                    }
+                    if (last != null) {
+                        predicates.add(builder.greaterThan(id, last));
+                    }
+                    cq.select(root).where(predicates.toArray(new Predicate[predicates.size()]))
+                            .orderBy(builder.asc(id));
+                    TypedQuery<T> query = entityManager.createQuery(cq).setMaxResults(batchSize);
+                    setStreamingHints(query, batchSize);
+                    List<T> page = query.getResultList();
+                    for (T object : page) {
+                        if (filter == null || filter instanceof CriteriaFilter || filter.accept(object)) {
+                            consumer.accept(object);
+                            count++;
+                        }
+                    }
+                    if (page.size() < batchSize) {
+                        return count;
+                    }
+                    last = (Comparable) util.getIdentifier(page.get(page.size() - 1));
+                    // Write the changes made by the consumer, and release the page.
+                    entityManager.flush();
+                    entityManager.clear();
+                }
+            }
+        });
+        return count == null ? 0L : count;
+    }
+
+    /**
+     * Configures the given query to read the results using a cursor with a driver-appropriate fetch size. Hints are
+     * provider specific, and ignored by the other providers. The driver-specific fetch size (see
+     * {@link Dialect#getStreamingFetchSize(int)}) is only given to the hint passed as is to the JDBC statement, the
+     * others receive the batch size, as providers validate it or use it to size their own buffers.
+     * <p>
+     * The query is not marked read-only: the consumer may modify the entities.
+     *
+     * @param query     the query
+     * @param batchSize the number of rows to fetch per round trip
+     */
+    protected void setStreamingHints(Query query, int batchSize) {
+        // With a fetch batch size, OpenJPA returns a lazy list reading the (forward-only) result set on demand.
+        query.setHint("openjpa.FetchPlan.FetchBatchSize", batchSize);
+        query.setHint("eclipselink.jdbc.fetch-size", batchSize);
+        query.setHint("org.hibernate.fetchSize", dialect.getStreamingFetchSize(batchSize));
+    }
+
+    /**
+     * Saves a large number of new entities. Unlike {@link #save(Iterable)}, the persistence context is flushed and
+     * cleared every {@code batchSize} entities, so the memory consumption does not depend on the number of
+     * entities. The statements are sent using JDBC batches when the provider supports it (see
+     * {@link org.wisdom.framework.jpa.PersistenceUnitComponent}).
+     * <p>
+     * Be aware that clearing the persistence context detaches <strong>all</strong> managed entities, including the
+     * ones loaded before by the caller in the same transaction.
+     *
+     * @param entities        the entities to save, must not contains {@literal null} values
+     * @param batchSize       the number of entities persisted between two flushes, must be strictly positive
+     * @param commitEachBatch whether or not each batch is committed in its own transaction. It is ignored if a
+     *                        transaction is already active, as the batches join the active transaction.
+     * @param listener        the listener notified after each batch, may be {@code null}
+     * @return the number of saved entities
+     */
+    public long saveInBatches(final Iterable<T> entities, final int batchSize, boolean commitEachBatch,
+                              final ProgressListener listener) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be strictly positive");
+        }
+        if (commitEachBatch) {
+            long count = 0;
+            for (final List<T> batch : Iterables.partition(entities, batchSize)) {
+                Boolean done = inTransaction(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        invalidateCachesOnCommit();
+                        for (T object : batch) {
+                            entityManager.persist(object);
+                        }
+                        entityManager.flush();
+                        entityManager.clear();
+                        return true;
+                    }
+                });
+                if (done == null) {
+                    // The batch has been rolled back, stop here.
+                    return count;
+                }
+                count += batch.size();
+                if (listener != null) {
+                    listener.onProgress(count);
+                }
+            }
+            return count;
+        }
+
+        Long count = inTransaction(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                invalidateCachesOnCommit();
+                long count = 0;
+                for (T object : entities) {
+                    entityManager.persist(object);
+                    count++;
+                    if (count % batchSize == 0) {
+                        entityManager.flush();
+                        entityManager.clear();
+                        if (listener != null) {
+                            listener.onProgress(count);
+                        }
+                    }
+                }
+                if (count % batchSize != 0) {
+                    entityManager.flush();
+                    entityManager.clear();
+                    if (listener != null) {
+                        listener.onProgress(count);
+                    }
+                }
+                return count;
+            }
+        });
+        return count == null ? 0L : count;
+    }
+
+    /**
+     * Runs the given block on the executor of the persistence unit. The block does not join the transaction of
+     * the caller thread, Crud operations called by the block run in their own transaction. If the executor is
+     * saturated, the returned future fails with a {@link RejectedExecutionException}.
+     *
+     * @param task the block
+     * @param <R>  the type of result
+     * @return the future receiving the result of the block
+     */
+    public <R> ListenableFuture<R> async(Callable<R> task) {
+        ListeningExecutorService service = executor;
+        try {
+            return (service == null ? DIRECT_EXECUTOR : service).submit(task);
+        } catch (RejectedExecutionException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #findOne(Serializable)}.
+     *
+     * @param id the id, must not be null
+     * @return the future receiving the entity instance, {@literal null} if there are no entities matching the id
+     */
+    public ListenableFuture<T> findOneAsync(final I id) {
+        return async(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return findOne(id);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #findOne(EntityFilter)}.
+     *
+     * @param filter the filter
+     * @return the future receiving the first matching instance, {@literal null} if none
+     */
+    public ListenableFuture<T> findOneAsync(final EntityFilter<T> filter) {
+        return async(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return findOne(filter);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #findAll()}.
+     *
+     * @return the future receiving the instances, empty if none
+     */
+    public ListenableFuture<Iterable<T>> findAllAsync() {
+        return async(new Callable<Iterable<T>>() {
+            @Override
+            public Iterable<T> call() throws Exception {
+                return findAll();
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #findAll(Iterable)}.
+     *
+     * @param ids the ids
+     * @return the future receiving the instances, empty if none
+     */
+    public ListenableFuture<Iterable<T>> findAllAsync(final Iterable<I> ids) {
+        return async(new Callable<Iterable<T>>() {
+            @Override
+            public Iterable<T> call() throws Exception {
+                return findAll(ids);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #findAll(EntityFilter)}.
+     *
+     * @param filter the filter
+     * @return the future receiving the matching instances, empty if none
+     */
+    public ListenableFuture<Iterable<T>> findAllAsync(final EntityFilter<T> filter) {
+        return async(new Callable<Iterable<T>>() {
+            @Override
+            public Iterable<T> call() throws Exception {
+                return findAll(filter);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #exists(Serializable)}.
+     *
+     * @param id the id, must not be null
+     * @return the future receiving {@literal true} if an entity with the given id exists
+     */
+    public ListenableFuture<Boolean> existsAsync(final I id) {
+        return async(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return exists(id);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #count()}.
+     *
+     * @return the future receiving the number of stored instances
+     */
+    public ListenableFuture<Long> countAsync() {
+        return async(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return count();
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #count(EntityFilter)}.
+     *
+     * @param filter the filter
+     * @return the future receiving the number of matching instances
+     */
+    public ListenableFuture<Long> countAsync(final EntityFilter<T> filter) {
+        return async(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return count(filter);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #save(Object)}.
+     *
+     * @param t the instance to save
+     * @return the future receiving the saved entity
+     */
+    public ListenableFuture<T> saveAsync(final T t) {
+        return async(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return save(t);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #save(Iterable)}.
+     *
+     * @param entities the entities to save, must not contains {@literal null} values
+     * @return the future receiving the saved entities
+     */
+    public ListenableFuture<Iterable<T>> saveAsync(final Iterable<T> entities) {
+        return async(new Callable<Iterable<T>>() {
+            @Override
+            public Iterable<T> call() throws Exception {
+                return save(entities);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #delete(Object)}.
+     *
+     * @param t the instance
+     * @return the future receiving the deleted entity
+     */
+    public ListenableFuture<T> deleteAsync(final T t) {
+        return async(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return delete(t);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #delete(Serializable)}.
+     *
+     * @param id the id
+     * @return the future completed once the entity is deleted
+     */
+    public ListenableFuture<Void> deleteByIdAsync(final I id) {
+        return async(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                delete(id);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Creates the query selecting the entities matching the given filter.
+     *
+     * @param filter the filter
+     * @return the query
+     */
+    protected TypedQuery<T> createFilteredQuery(CriteriaFilter<T> filter) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<T> cq = builder.createQuery(entity);
+        Root<T> root = cq.from(entity);
+        cq.select(root).where(filter.toPredicate(builder, root));
+        return entityManager.createQuery(cq);
+    }
+
+    /**
+     * Executes the given query, or returns its cached result if the query result cache is enabled and no
+     * transaction is active.
+     *
+     * @param key   the normalized query and its parameters
+     * @param query the query
+     * @param <X>   the type of result, must be immutable
+     * @return the result
+     */
+    @SuppressWarnings("unchecked")
+    private <X> X cached(List<Object> key, Callable<X> query) {
+        QueryResultCache cache = queryCache;
+        if (cache == null || isTransactionActive()) {
+            return inReadOnlyTransaction(query);
+        }
+        Object result = cache.get(key);
+        if (result == null) {
+            long generation = cache.generation();
+            result = inReadOnlyTransaction(query);
+            cache.put(key, result, generation);
+        }
+        return (X) result;
+    }
+
+    /**
+     * Same as {@link #cached(List, Callable)} for queries returning entities. The cached lists are immutable copies,
+     * each caller receives its own list.
+     *
+     * @param key   the normalized query and its parameters
+     * @param query the query
+     * @return the list of entities
+     */
+    private List<T> cachedList(List<Object> key, final Callable<List<T>> query) {
+        if (queryCache == null) {
+            return inReadOnlyTransaction(query);
+        }
+        List<T> result = cached(key, new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws Exception {
+                return Collections.unmodifiableList(new ArrayList<>(query.call()));
+            }
+        });
+        return result == null ? null : new ArrayList<>(result);
+    }
+
+    /**
+     * Computes the key identifying the given query in the query result cache.
+     *
+     * @param operation the operation
+     * @param filter    the filter
+     * @return the key
+     */
+    private List<Object> getQueryKey(String operation, CriteriaFilter<T> filter) {
+        Map<String, Object> parameters = new TreeMap<>();
+        String where = filter.toJpql("e", parameters);
+        return Arrays.<Object>asList(operation, where, parameters);
+    }
+
+    /**
+     * Invalidates the caches maintained by this Crud service, and the caches of the unit watching the entity (see
+     * {@link InvalidationRegistry}), once the current transaction commits. Every operation modifying entities must
+     * call this method from its transactional block.
+     */
+    protected void invalidateCachesOnCommit() {
+        InvalidationRegistry registry = invalidationRegistry;
+        if (registry != null ? registry.isWatched(entity) : queryCache != null || nearCache != null) {
+            afterCommit(commitInvalidation);
+        }
+    }
+
+    /**
+     * Gets the identifier attribute of the entity from the metamodel.
+     *
+     * @return the identifier attribute
+     * @throws IllegalStateException if the entity does not have a single identifier attribute
+     */
+    protected SingularAttribute<? super T, ?> getIdAttribute() {
+        SingularAttribute<? super T, ?> attribute = idAttribute;
+        if (attribute == null) {
+            EntityType<T> type = entityManager.getMetamodel().entity(entity);
+            for (SingularAttribute<? super T, ?> candidate : type.getSingularAttributes()) {
+                if (candidate.isId()) {
+                    attribute = candidate;
+                    break;
+                }
+            }
+            if (attribute == null) {
+                throw new IllegalStateException("The entity " + entity.getName() + " does not have a single " +
+                        "identifier attribute");
+            }
+            idAttribute = attribute;
+        }
+        return attribute;
+    }
+
+    /**
+     * Gets the version attribute of the entity from the metamodel.
+     *
+     * @return the version attribute, {@code null} if the entity is not versioned
+     */
+    protected SingularAttribute<? super T, ?> getVersionAttribute() {
+        for (SingularAttribute<? super T, ?> attribute :
+                entityManager.getMetamodel().entity(entity).getSingularAttributes()) {
+            if (attribute.isVersion()) {
+                return attribute;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the name of the entity used in JPQL statements.
+     *
+     * @return the entity name
+     */
+    protected String getEntityName() {
+        return entityManager.getMetamodel().entity(entity).getName();
+    }
+
+    /**
+     * Gets the standard queries of the entity, computed on first use.
+     *
+     * @return the query templates
+     */
+    private QueryTemplates getQueryTemplates() {
+        QueryTemplates templates = queryTemplates;
+        if (templates == null) {
+            templates = new QueryTemplates(getEntityName(), getIdAttribute().getName());
+            queryTemplates = templates;
+        }
+        return templates;
+    }
+
     /**
      * Runs the given block in a transaction.
      *
@@ -439,4 +2259,41 @@ public abstract class AbstractJTACrud<T, I extends Serializable> implements Crud
      */
     protected abstract <X> X inTransaction(Callable<X> task);
 
+    /**
+     * Runs the given block in a transaction, and propagates its failures.
+     *
+     * @param task the block
+     * @param <X>  the return type, can be {@code Void}
+     * @return the result of the operation.
+     * @throws Exception the exception thrown by the block or by the transaction management
+     */
+    protected abstract <X> X callInTransaction(Callable<X> task) throws Exception;
+
+    /**
+     * Runs the given read-only block. By default, the block runs in a transaction, but implementations can provide
+     * a lighter path when no transaction is active.
+     *
+     * @param task the block
+     * @param <X>  the return type
+     * @return the result of the operation.
+     */
+    protected <X> X inReadOnlyTransaction(Callable<X> task) {
+        return inTransaction(task);
+    }
+
+    /**
+     * Checks whether a transaction is active on the current thread.
+     *
+     * @return {@literal true} if a transaction is active, {@literal false} otherwise.
+     */
+    protected abstract boolean isTransactionActive();
+
+    /**
+     * Registers a callback executed once the current transaction has been committed. The callback is not called if
+     * the transaction is rolled back. If no transaction is active, the callback is executed immediately.
+     *
+     * @param callback the callback
+     */
+    protected abstract void afterCommit(Runnable callback);
+
 }
@@ -0,0 +1,459 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import org.wisdom.api.model.EntityFilter;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A declarative {@link org.wisdom.api.model.EntityFilter} built from a conjunction of field / operator / value terms.
+ * Unlike arbitrary filters, the JPA Crud services translate this filter to a JPA Criteria {@code WHERE} clause, so
+ * the filtering is done by the database and only the matching rows are loaded.
+ * <p>
+ * Fields are attribute names of the entity. Nested attributes are supported using the dot notation (for instance
+ * {@code owner.name}). Each segment must be a Java identifier, other field names are rejected when the term is
+ * created.
+ * <p>
+ * The {@link #accept(Object)} method evaluates the terms in memory, so this filter can also be used with Crud
+ * services not supporting the push-down.
+ *
+ * @param <T> the type of the entity
+ */
+public class CriteriaFilter<T> implements EntityFilter<T> {
+
+    /**
+     * The set of supported operators.
+     */
+    public enum Operator {
+        EQUALS,
+        NOT_EQUALS,
+        LESS_THAN,
+        LESS_THAN_OR_EQUALS,
+        GREATER_THAN,
+        GREATER_THAN_OR_EQUALS,
+        /**
+         * SQL like pattern matching, {@code %} matches any sequence of characters, {@code _} a single character.
+         */
+        LIKE,
+        /**
+         * The value must be a {@link java.util.Collection}.
+         */
+        IN,
+        /**
+         * The value is ignored.
+         */
+        IS_NULL,
+        /**
+         * The value is ignored.
+         */
+        IS_NOT_NULL
+    }
+
+    /**
+     * A term of the filter.
+     */
+    public static final class Term {
+        private final String field;
+        private final Operator operator;
+        private final Object value;
+
+        private Term(String field, Operator operator, Object value) {
+            if (field == null || field.isEmpty()) {
+                throw new IllegalArgumentException("The field name cannot be null or empty");
+            }
+            if (!isPath(field)) {
+                // The field is written as is in the JPQL of the bulk statements and of the query cache keys.
+                throw new IllegalArgumentException("The field name '" + field + "' is not a valid attribute path");
+            }
+            if (operator == null) {
+                throw new IllegalArgumentException("The operator cannot be null");
+            }
+            if (operator == Operator.IN && !(value instanceof Collection)) {
+                throw new IllegalArgumentException("The IN operator requires a collection as value");
+            }
+            if (operator == Operator.LIKE && !(value instanceof String)) {
+                throw new IllegalArgumentException("The LIKE operator requires a String as value");
+            }
+            this.field = field;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        public Operator getOperator() {
+            return operator;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return field + " " + operator + " " + value;
+        }
+    }
+
+    private final List<Term> terms = new ArrayList<>();
+
+    private CriteriaFilter() {
+        // Use the static factory.
+    }
+
+    /**
+     * Creates a new filter with a first term.
+     *
+     * @param field    the field
+     * @param operator the operator
+     * @param value    the value
+     * @param <T>      the type of entity
+     * @return the new filter
+     */
+    public static <T> CriteriaFilter<T> where(String field, Operator operator, Object value) {
+        return new CriteriaFilter<T>().and(field, operator, value);
+    }
+
+    /**
+     * Creates a new filter with a first {@link Operator#EQUALS} term.
+     *
+     * @param field the field
+     * @param value the value
+     * @param <T>   the type of entity
+     * @return the new filter
+     */
+    public static <T> CriteriaFilter<T> where(String field, Object value) {
+        return where(field, Operator.EQUALS, value);
+    }
+
+    /**
+     * Adds a term to the current filter.
+     *
+     * @param field    the field
+     * @param operator the operator
+     * @param value    the value
+     * @return the current filter
+     */
+    public CriteriaFilter<T> and(String field, Operator operator, Object value) {
+        terms.add(new Term(field, operator, value));
+        return this;
+    }
+
+    /**
+     * Adds a {@link Operator#EQUALS} term to the current filter.
+     *
+     * @param field the field
+     * @param value the value
+     * @return the current filter
+     */
+    public CriteriaFilter<T> and(String field, Object value) {
+        return and(field, Operator.EQUALS, value);
+    }
+
+    /**
+     * @return the terms of the filter, unmodifiable.
+     */
+    public List<Term> getTerms() {
+        return Collections.unmodifiableList(terms);
+    }
+
+    /**
+     * Builds the JPA predicate corresponding to this filter.
+     *
+     * @param builder the criteria builder
+     * @param root    the query root
+     * @return the predicate
+     */
+    @SuppressWarnings("unchecked")
+    public Predicate toPredicate(CriteriaBuilder builder, Root<T> root) {
+        List<Predicate> predicates = new ArrayList<>();
+        for (Term term : terms) {
+            Path path = getPath(root, term.field);
+            switch (term.operator) {
+                case EQUALS:
+                    predicates.add(term.value == null ? builder.isNull(path) : builder.equal(path, term.value));
+                    break;
+                case NOT_EQUALS:
+                    predicates.add(term.value == null ? builder.isNotNull(path) : builder.notEqual(path, term.value));
+                    break;
+                case LESS_THAN:
+                    predicates.add(builder.lessThan(path, (Comparable) term.value));
+                    break;
+                case LESS_THAN_OR_EQUALS:
+                    predicates.add(builder.lessThanOrEqualTo(path, (Comparable) term.value));
+                    break;
+                case GREATER_THAN:
+                    predicates.add(builder.greaterThan(path, (Comparable) term.value));
+                    break;
+                case GREATER_THAN_OR_EQUALS:
+                    predicates.add(builder.greaterThanOrEqualTo(path, (Comparable) term.value));
+                    break;
+                case LIKE:
+                    predicates.add(builder.like(path, (String) term.value));
+                    break;
+                case IN:
+                    Collection<?> values = (Collection<?>) term.value;
+                    if (values.isEmpty()) {
+                        // Nothing can match an empty IN clause.
+                        predicates.add(builder.disjunction());
+                    } else {
+                        predicates.add(path.in(values));
+                    }
+                    break;
+                case IS_NULL:
+                    predicates.add(builder.isNull(path));
+                    break;
+                case IS_NOT_NULL:
+                    predicates.add(builder.isNotNull(path));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported operator " + term.operator);
+            }
+        }
+        return builder.and(predicates.toArray(new Predicate[predicates.size()]));
+    }
+
+    /**
+     * Builds the JPQL conditional expression corresponding to this filter. It is used to build bulk statements, as
+     * the criteria API does not support them.
+     *
+     * @param alias      the identification variable of the entity
+     * @param parameters the map in which the named parameters are added
+     * @return the JPQL expression (without the {@code WHERE} keyword)
+     */
+    public String toJpql(String alias, Map<String, Object> parameters) {
+        StringBuilder jpql = new StringBuilder();
+        for (Term term : terms) {
+            if (jpql.length() > 0) {
+                jpql.append(" AND ");
+            }
+            String path = alias + "." + term.field;
+            String parameter = "p" + parameters.size();
+            switch (term.operator) {
+                case EQUALS:
+                    if (term.value == null) {
+                        jpql.append(path).append(" IS NULL");
+                        continue;
+                    }
+                    jpql.append(path).append(" = :").append(parameter);
+                    break;
+                case NOT_EQUALS:
+                    if (term.value == null) {
+                        jpql.append(path).append(" IS NOT NULL");
+                        continue;
+                    }
+                    jpql.append(path).append(" <> :").append(parameter);
+                    break;
+                case LESS_THAN:
+                    jpql.append(path).append(" < :").append(parameter);
+                    break;
+                case LESS_THAN_OR_EQUALS:
+                    jpql.append(path).append(" <= :").append(parameter);
+                    break;
+                case GREATER_THAN:
+                    jpql.append(path).append(" > :").append(parameter);
+                    break;
+                case GREATER_THAN_OR_EQUALS:
+                    jpql.append(path).append(" >= :").append(parameter);
+                    break;
+                case LIKE:
+                    jpql.append(path).append(" LIKE :").append(parameter);
+                    break;
+                case IN:
+                    if (((Collection<?>) term.value).isEmpty()) {
+                        jpql.append("1 = 0");
+                        continue;
+                    }
+                    jpql.append(path).append(" IN :").append(parameter);
+                    break;
+                case IS_NULL:
+                    jpql.append(path).append(" IS NULL");
+                    continue;
+                case IS_NOT_NULL:
+                    jpql.append(path).append(" IS NOT NULL");
+                    continue;
+                default:
+                    throw new IllegalArgumentException("Unsupported operator " + term.operator);
+            }
+            parameters.put(parameter, term.value);
+        }
+        return jpql.toString();
+    }
+
+    /**
+     * Evaluates the filter in memory.
+     *
+     * @param entity the entity
+     * @return {@literal true} if all terms match the given entity, {@literal false} otherwise.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean accept(T entity) {
+        for (Term term : terms) {
+            Object actual = getValue(entity, term.field);
+            boolean match;
+            switch (term.operator) {
+                case EQUALS:
+                    match = actual == null ? term.value == null : actual.equals(term.value);
+                    break;
+                case NOT_EQUALS:
+                    match = actual == null ? term.value != null : !actual.equals(term.value);
+                    break;
+                case LESS_THAN:
+                    match = actual != null && ((Comparable) actual).compareTo(term.value) < 0;
+                    break;
+                case LESS_THAN_OR_EQUALS:
+                    match = actual != null && ((Comparable) actual).compareTo(term.value) <= 0;
+                    break;
+                case GREATER_THAN:
+                    match = actual != null && ((Comparable) actual).compareTo(term.value) > 0;
+                    break;
+                case GREATER_THAN_OR_EQUALS:
+                    match = actual != null && ((Comparable) actual).compareTo(term.value) >= 0;
+                    break;
+                case LIKE:
+                    match = actual != null && toRegex((String) term.value).matcher(actual.toString()).matches();
+                    break;
+                case IN:
+                    match = ((Collection<?>) term.value).contains(actual);
+                    break;
+                case IS_NULL:
+                    match = actual == null;
+                    break;
+                case IS_NOT_NULL:
+                    match = actual != null;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported operator " + term.operator);
+            }
+            if (!match) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "CriteriaFilter" + terms;
+    }
+
+    /**
+     * Checks whether the given field is a valid attribute path: Java identifiers separated by dots.
+     *
+     * @param field the field
+     * @return {@literal true} if the field is a valid path, {@literal false} otherwise.
+     */
+    static boolean isPath(String field) {
+        boolean segmentStart = true;
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (segmentStart) {
+                if (!Character.isJavaIdentifierStart(c)) {
+                    return false;
+                }
+                segmentStart = false;
+            } else if (c == '.') {
+                segmentStart = true;
+            } else if (!Character.isJavaIdentifierPart(c)) {
+                return false;
+            }
+        }
+        return !segmentStart;
+    }
+
+    /**
+     * Gets the path of the given field (supporting the dot notation) from the given root.
+     *
+     * @param root  the query root
+     * @param field the field
+     * @return the path
+     */
+    static Path getPath(Root<?> root, String field) {
+        Path path = root;
+        for (String segment : field.split("\\.")) {
+            path = path.get(segment);
+        }
+        return path;
+    }
+
+    /**
+     * Reads the value of the given field (supporting the dot notation) from the given entity.
+     *
+     * @param entity the entity
+     * @param field  the field
+     * @return the value, {@code null} if the value or one of the intermediary values is {@code null}.
+     */
+    static Object getValue(Object entity, String field) {
+        Object current = entity;
+        for (String segment : field.split("\\.")) {
+            if (current == null) {
+                return null;
+            }
+            current = readField(current, segment);
+        }
+        return current;
+    }
+
+    private static Object readField(Object object, String name) {
+        Class<?> clazz = object.getClass();
+        while (clazz != null) {
+            try {
+                Field field = clazz.getDeclaredField(name);
+                if (!field.isAccessible()) {
+                    field.setAccessible(true);
+                }
+                return field.get(object);
+            } catch (NoSuchFieldException e) { //NOSONAR
+                clazz = clazz.getSuperclass();
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Cannot read the field " + name + " from " + object, e);
+            }
+        }
+        throw new IllegalArgumentException("No field " + name + " in " + object.getClass().getName());
+    }
+
+    private static Pattern toRegex(String like) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : like.toCharArray()) {
+            if (c == '%') {
+                regex.append(".*");
+            } else if (c == '_') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
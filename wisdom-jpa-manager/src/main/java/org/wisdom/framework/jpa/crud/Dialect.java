@@ -0,0 +1,208 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The database dialects the Crud services know about. The dialect is used to adapt the generated statements to the
+ * limits and the syntax of the underlying database.
+ */
+public enum Dialect {
+
+    H2("H2", 32767),
+    POSTGRESQL("PostgreSQL", 32767),
+    MYSQL("MySQL", 65535),
+    /**
+     * SQLite limits the number of host parameters to 999 by default (SQLITE_MAX_VARIABLE_NUMBER).
+     */
+    SQLITE("SQLite", 999),
+    /**
+     * Derby does not define a hard limit, but large IN lists produce huge generated classes.
+     */
+    DERBY("Apache Derby", 1000),
+    HSQL("HSQL Database Engine", 32767),
+    UNKNOWN("", 1000);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Dialect.class);
+
+    private final String productName;
+    private final int maxParameters;
+
+    Dialect(String productName, int maxParameters) {
+        this.productName = productName;
+        this.maxParameters = maxParameters;
+    }
+
+    /**
+     * @return the maximum number of parameters a single statement can use.
+     */
+    public int getMaxParameters() {
+        return maxParameters;
+    }
+
+    /**
+     * Gets the JDBC fetch size to use to stream a large result set.
+     * MySQL only streams results with a fetch size of {@link Integer#MIN_VALUE}, other drivers use the given batch
+     * size (PostgreSQL requires the auto-commit to be disabled, which is the case within a transaction).
+     *
+     * @param batchSize the number of rows the caller wants to fetch per round trip
+     * @return the fetch size
+     */
+    public int getStreamingFetchSize(int batchSize) {
+        if (this == MYSQL) {
+            return Integer.MIN_VALUE;
+        }
+        return batchSize;
+    }
+
+    /**
+     * Gets the native statement inserting a row, or updating the existing row having the same key, atomically. The
+     * statement uses {@code ?} parameters, whose values are given by {@link #getUpsertParameters(int, int)}.
+     *
+     * @param table   the table
+     * @param columns the columns, including the key column
+     * @param key     the index of the key column in {@code columns}
+     * @return the statement, {@code null} if the dialect does not support upserts
+     */
+    public String getUpsertStatement(String table, List<String> columns, int key) {
+        String keyColumn = columns.get(key);
+        List<String> others = new ArrayList<>(columns);
+        others.remove(key);
+        String insert = "INSERT INTO " + table + " (" + join(columns, "%s") + ") VALUES (" + join(columns, "?") + ")";
+        switch (this) {
+            case H2:
+                return "MERGE INTO " + table + " (" + join(columns, "%s") + ") KEY (" + keyColumn + ") VALUES ("
+                        + join(columns, "?") + ")";
+            case POSTGRESQL:
+                return insert + " ON CONFLICT (" + keyColumn + ") DO "
+                        + (others.isEmpty() ? "NOTHING" : "UPDATE SET " + join(others, "%s = EXCLUDED.%s"));
+            case MYSQL:
+                return insert + " ON DUPLICATE KEY UPDATE "
+                        + (others.isEmpty() ? keyColumn + " = " + keyColumn : join(others, "%s = VALUES(%s)"));
+            case SQLITE:
+                return "INSERT OR REPLACE INTO " + table + " (" + join(columns, "%s") + ") VALUES ("
+                        + join(columns, "?") + ")";
+            case HSQL:
+                return "MERGE INTO " + table + " USING (VALUES(" + join(columns, "?") + ")) AS v ("
+                        + join(columns, "%s") + ") ON " + table + "." + keyColumn + " = v." + keyColumn
+                        + (others.isEmpty() ? "" : " WHEN MATCHED THEN UPDATE SET " + join(others, "%s = v.%s"))
+                        + " WHEN NOT MATCHED THEN INSERT (" + join(columns, "%s") + ") VALUES ("
+                        + join(columns, "v.%s") + ")";
+            case DERBY:
+                // Derby requires a source table, the values are given in the clauses.
+                return "MERGE INTO " + table + " USING SYSIBM.SYSDUMMY1 ON " + table + "." + keyColumn + " = ?"
+                        + (others.isEmpty() ? "" : " WHEN MATCHED THEN UPDATE SET " + join(others, "%s = ?"))
+                        + " WHEN NOT MATCHED THEN INSERT (" + join(columns, "%s") + ") VALUES ("
+                        + join(columns, "?") + ")";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Gets the values of the parameters of the statement returned by {@link #getUpsertStatement(String, List, int)},
+     * as indexes in the list of columns.
+     *
+     * @param columns the number of columns
+     * @param key     the index of the key column
+     * @return the indexes of the columns whose values are bound to the parameters, in order
+     */
+    public int[] getUpsertParameters(int columns, int key) {
+        List<Integer> indexes = new ArrayList<>();
+        if (this == DERBY) {
+            indexes.add(key);
+            for (int i = 0; i < columns; i++) {
+                if (i != key) {
+                    indexes.add(i);
+                }
+            }
+        }
+        for (int i = 0; i < columns; i++) {
+            indexes.add(i);
+        }
+        int[] result = new int[indexes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = indexes.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Joins the given columns, each column being formatted with the given pattern.
+     *
+     * @param columns the columns
+     * @param pattern the pattern, {@code %s} is replaced by the column name
+     * @return the joined columns, separated by {@code ", "}
+     */
+    private static String join(List<String> columns, String pattern) {
+        StringBuilder builder = new StringBuilder();
+        for (String column : columns) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(pattern.replace("%s", column));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Gets the dialect matching the given database product name (as returned by
+     * {@link java.sql.DatabaseMetaData#getDatabaseProductName()}).
+     *
+     * @param productName the product name
+     * @return the dialect, {@link #UNKNOWN} if none match
+     */
+    public static Dialect fromProductName(String productName) {
+        if (productName != null) {
+            for (Dialect dialect : values()) {
+                if (dialect != UNKNOWN && productName.toLowerCase().startsWith(dialect.productName.toLowerCase())) {
+                    return dialect;
+                }
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Gets the dialect of the given data source. It opens a connection to read the database metadata.
+     *
+     * @param dataSource the data source, may be {@code null}
+     * @return the dialect, {@link #UNKNOWN} if it cannot be determined
+     */
+    public static Dialect fromDataSource(DataSource dataSource) {
+        if (dataSource == null) {
+            return UNKNOWN;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            return fromProductName(connection.getMetaData().getDatabaseProductName());
+        } catch (SQLException e) {
+            LOGGER.warn("Cannot determine the database dialect of {}", dataSource, e);
+            return UNKNOWN;
+        }
+    }
+}
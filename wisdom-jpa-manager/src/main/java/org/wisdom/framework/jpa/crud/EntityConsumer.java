@@ -0,0 +1,36 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+/**
+ * Receives the entities read by the streaming methods of the Crud services.
+ *
+ * @param <T> the type of the entity
+ */
+public interface EntityConsumer<T> {
+
+    /**
+     * Consumes an entity. The entity is detached from the persistence context once this method returns.
+     *
+     * @param entity the entity
+     * @throws Exception if the entity cannot be consumed, it stops the iteration and rolls back the transaction
+     */
+    void accept(T entity) throws Exception;
+}
@@ -0,0 +1,150 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Creates detached copies of entity instances, so cached instances cannot be modified by the callers. Only the
+ * persistent attributes are copied, mutable basic values (dates, calendars and arrays) are cloned. Entities with
+ * relations are not supported, as the related entities would be shared by the copies.
+ *
+ * @param <T> the type of the entity
+ */
+final class EntityCopier<T> {
+
+    private final Class<T> type;
+    private final Constructor<T> constructor;
+    private final List<SingularAttribute<? super T, ?>> attributes = new ArrayList<>();
+    private final List<Member> writers = new ArrayList<>();
+
+    /**
+     * Creates the copier of the given entity.
+     *
+     * @param entity the entity type
+     * @throws IllegalArgumentException if the entity cannot be copied
+     */
+    EntityCopier(EntityType<T> entity) {
+        this.type = entity.getJavaType();
+        if (!entity.getPluralAttributes().isEmpty()) {
+            throw new IllegalArgumentException("Cannot copy entities with collection attributes (" +
+                    entity.getName() + ")");
+        }
+        for (SingularAttribute<? super T, ?> attribute : entity.getSingularAttributes()) {
+            if (attribute.getPersistentAttributeType() != Attribute.PersistentAttributeType.BASIC) {
+                throw new IllegalArgumentException("Cannot copy entities with non-basic attributes, '"
+                        + attribute.getName() + "' is not supported (" + entity.getName() + ")");
+            }
+            attributes.add(attribute);
+            writers.add(getWriter(attribute));
+        }
+        try {
+            constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("The entity " + entity.getName() + " does not have a no-argument " +
+                    "constructor", e);
+        }
+    }
+
+    private static Member getWriter(Attribute<?, ?> attribute) {
+        Member member = attribute.getJavaMember();
+        if (member instanceof Field) {
+            ((Field) member).setAccessible(true);
+            return member;
+        }
+        if (member instanceof Method) {
+            String name = attribute.getName();
+            String setter = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            for (Class<?> clazz = member.getDeclaringClass(); clazz != null; clazz = clazz.getSuperclass()) {
+                try {
+                    Method method = clazz.getDeclaredMethod(setter, attribute.getJavaType());
+                    method.setAccessible(true);
+                    return method;
+                } catch (NoSuchMethodException e) { //NOSONAR
+                    // Try the parent class.
+                }
+            }
+        }
+        throw new IllegalArgumentException("Cannot find how to write the attribute " + attribute.getName());
+    }
+
+    /**
+     * Checks whether the given instance can be copied. Instances of sub-entities cannot, as their own attributes
+     * would be lost.
+     *
+     * @param instance the instance
+     * @return {@code true} if the instance can be copied
+     */
+    boolean supports(Object instance) {
+        return instance != null && instance.getClass() == type;
+    }
+
+    /**
+     * Copies an instance.
+     *
+     * @param instance the instance to copy
+     * @return the copy
+     */
+    T copy(T instance) {
+        try {
+            T copy = constructor.newInstance();
+            for (int i = 0; i < attributes.size(); i++) {
+                Object value = copyValue(AbstractJTACrud.readAttribute(instance, attributes.get(i)));
+                Member writer = writers.get(i);
+                if (writer instanceof Field) {
+                    ((Field) writer).set(copy, value);
+                } else {
+                    ((Method) writer).invoke(copy, value);
+                }
+            }
+            return copy;
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Cannot copy " + instance, e);
+        }
+    }
+
+    private static Object copyValue(Object value) {
+        if (value instanceof Date) {
+            return ((Date) value).clone();
+        }
+        if (value instanceof Calendar) {
+            return ((Calendar) value).clone();
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        if (value instanceof char[]) {
+            return ((char[]) value).clone();
+        }
+        return value;
+    }
+}
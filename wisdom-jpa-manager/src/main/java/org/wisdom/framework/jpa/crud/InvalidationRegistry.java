@@ -0,0 +1,174 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.PluralAttribute;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Dispatches the invalidations of the caches of the Crud services of a persistence unit. The Crud services having
+ * a cache register an invalidation for their entity type, and every Crud service of the unit notifies the registry
+ * when a transaction modifying entities commits. The invalidations of the modified type, and of the types related
+ * to it, are then run, whatever the Crud service instance used to modify the entities.
+ * <p>
+ * An entity type is related to the types it inherits from or that inherit from it, and to the types directly
+ * associated with one of them (in either direction), as cascaded operations and bulk deletions can modify them.
+ * Without metamodel, each type is only related to itself.
+ */
+public class InvalidationRegistry {
+
+    private final Metamodel metamodel;
+    private final ConcurrentMap<Class<?>, Set<Runnable>> invalidations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, Set<Class<?>>> relatedTypes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a registry.
+     *
+     * @param metamodel the metamodel of the unit, used to find the related types, may be {@code null}
+     */
+    public InvalidationRegistry(Metamodel metamodel) {
+        this.metamodel = metamodel;
+    }
+
+    /**
+     * Registers an invalidation, run when the entities of the given type, or of a related type, are modified.
+     *
+     * @param entity       the entity type
+     * @param invalidation the invalidation
+     */
+    public void register(Class<?> entity, Runnable invalidation) {
+        Set<Runnable> set = invalidations.get(entity);
+        if (set == null) {
+            Set<Runnable> created = new CopyOnWriteArraySet<>();
+            set = invalidations.putIfAbsent(entity, created);
+            if (set == null) {
+                set = created;
+            }
+        }
+        set.add(invalidation);
+    }
+
+    /**
+     * Unregisters an invalidation.
+     *
+     * @param entity       the entity type
+     * @param invalidation the invalidation
+     */
+    public void unregister(Class<?> entity, Runnable invalidation) {
+        Set<Runnable> set = invalidations.get(entity);
+        if (set != null) {
+            set.remove(invalidation);
+        }
+    }
+
+    /**
+     * Checks whether modifying the entities of the given type invalidates a cache, so the Crud services only
+     * register a callback on the transactions when needed.
+     *
+     * @param entity the modified entity type
+     * @return {@code true} if an invalidation is registered for the type or a related type
+     */
+    public boolean isWatched(Class<?> entity) {
+        for (Class<?> type : getRelatedTypes(entity)) {
+            Set<Runnable> set = invalidations.get(type);
+            if (set != null && !set.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the invalidations registered for the given type and its related types.
+     *
+     * @param entity the modified entity type
+     */
+    public void invalidate(Class<?> entity) {
+        for (Class<?> type : getRelatedTypes(entity)) {
+            Set<Runnable> set = invalidations.get(type);
+            if (set != null) {
+                for (Runnable invalidation : set) {
+                    invalidation.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the types whose caches are invalidated when the entities of the given type are modified.
+     *
+     * @param entity the entity type
+     * @return the related types, including the given type
+     */
+    Set<Class<?>> getRelatedTypes(Class<?> entity) {
+        Set<Class<?>> related = relatedTypes.get(entity);
+        if (related == null) {
+            related = computeRelatedTypes(entity);
+            relatedTypes.putIfAbsent(entity, related);
+        }
+        return related;
+    }
+
+    private Set<Class<?>> computeRelatedTypes(Class<?> entity) {
+        Set<Class<?>> related = new HashSet<>();
+        related.add(entity);
+        if (metamodel == null) {
+            return Collections.unmodifiableSet(related);
+        }
+        Set<Class<?>> hierarchy = new HashSet<>();
+        for (EntityType<?> type : metamodel.getEntities()) {
+            if (isInHierarchy(type.getJavaType(), entity)) {
+                hierarchy.add(type.getJavaType());
+            }
+        }
+        related.addAll(hierarchy);
+        for (EntityType<?> type : metamodel.getEntities()) {
+            for (Attribute<?, ?> attribute : type.getAttributes()) {
+                if (!attribute.isAssociation()) {
+                    continue;
+                }
+                Class<?> target = attribute instanceof PluralAttribute
+                        ? ((PluralAttribute<?, ?, ?>) attribute).getElementType().getJavaType()
+                        : attribute.getJavaType();
+                for (Class<?> member : hierarchy) {
+                    if (member.equals(type.getJavaType())) {
+                        related.add(target);
+                    }
+                    if (isInHierarchy(target, member)) {
+                        related.add(type.getJavaType());
+                    }
+                }
+            }
+        }
+        return Collections.unmodifiableSet(related);
+    }
+
+    private static boolean isInHierarchy(Class<?> a, Class<?> b) {
+        return a.isAssignableFrom(b) || b.isAssignableFrom(a);
+    }
+}
@@ -19,8 +19,13 @@
  */
 package org.wisdom.framework.jpa.crud;
 
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.wisdom.api.model.Crud;
 import org.wisdom.api.model.Repository;
 import org.wisdom.framework.jpa.model.Persistence;
@@ -31,64 +36,318 @@ import javax.persistence.EntityManagerFactory;
 import javax.persistence.metamodel.EntityType;
 import javax.transaction.TransactionManager;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An implementation of {@link org.wisdom.api.model.Repository} based on a JPA Entity Manager.
  */
 public class JPARepository implements Repository<EntityManager> {
 
+    /**
+     * The persistence unit property listing the entities (class names or simple names, comma-separated) whose Crud
+     * service caches the query results. {@code *} enables the cache for all entities.
+     */
+    public static final String QUERY_CACHE_ENTITIES_PROP = "wisdom.crud.queryCache.entities";
+
+    /**
+     * The persistence unit property configuring the maximum number of cached queries per entity.
+     */
+    public static final String QUERY_CACHE_SIZE_PROP = "wisdom.crud.queryCache.size";
+
+    /**
+     * The persistence unit property configuring the time-to-live of the cached query results, in seconds.
+     */
+    public static final String QUERY_CACHE_TTL_PROP = "wisdom.crud.queryCache.ttl";
+
+    /**
+     * The persistence unit property listing the entities (class names or simple names, comma-separated) whose Crud
+     * service caches the entities retrieved by id. {@code *} enables the cache for all entities.
+     */
+    public static final String NEAR_CACHE_ENTITIES_PROP = "wisdom.crud.nearCache.entities";
+
+    /**
+     * The persistence unit property configuring the maximum number of entities cached by id per entity.
+     */
+    public static final String NEAR_CACHE_SIZE_PROP = "wisdom.crud.nearCache.size";
+
+    /**
+     * The persistence unit property configuring the time-to-live of the entities cached by id, in seconds. The
+     * entities are kept until invalidation if not set.
+     */
+    public static final String NEAR_CACHE_TTL_PROP = "wisdom.crud.nearCache.ttl";
+
+    /**
+     * The persistence unit property configuring the maximum number of attempts of the transactional blocks of the
+     * Crud services, including the first one. The blocks are not retried if not set.
+     */
+    public static final String RETRY_ATTEMPTS_PROP = "wisdom.crud.retry.attempts";
+
+    /**
+     * The persistence unit property configuring the base delay between two attempts, in milliseconds.
+     */
+    public static final String RETRY_DELAY_PROP = "wisdom.crud.retry.delay";
+
+    /**
+     * The persistence unit property configuring the maximum delay between two attempts, in milliseconds.
+     */
+    public static final String RETRY_MAX_DELAY_PROP = "wisdom.crud.retry.maxDelay";
+
+    /**
+     * The persistence unit property listing the retryable exceptions (class names, comma-separated). Defaults to
+     * {@link RetryPolicy#DEFAULT_RETRYABLE_EXCEPTIONS}.
+     */
+    public static final String RETRY_EXCEPTIONS_PROP = "wisdom.crud.retry.exceptions";
+
+    /**
+     * The service property of the {@link RetryPolicy} service set to the name of the persistence unit.
+     */
+    public static final String UNIT_NAME_PROP = "persistent.unit.name";
+
+    private static final long DEFAULT_QUERY_CACHE_SIZE = 100;
+    private static final long DEFAULT_QUERY_CACHE_TTL = 60;
+    private static final long DEFAULT_NEAR_CACHE_SIZE = 1000;
+    private static final long DEFAULT_RETRY_DELAY = 50;
+    private static final long DEFAULT_RETRY_MAX_DELAY = 1000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JPARepository.class);
 
     private final EntityManager em;
-    List<AbstractJTACrud<?, ?>> cruds = new ArrayList<>();
+    private final Persistence.PersistenceUnit pu;
+    private final TransactionManager transactionManager;
+    private final Dialect dialect;
+    private final ListeningExecutorService executor;
+    private final RetryPolicy retryPolicy;
+    private final InvalidationRegistry invalidations;
+    List<CrudServiceFactory> factories = new ArrayList<>();
     String name;
 
-    List<ServiceRegistration<Crud>> registrations = new ArrayList<>();
+    List<ServiceRegistration<?>> registrations = new ArrayList<>();
+
+    /**
+     * Creates a new {@link org.wisdom.framework.jpa.crud.JPARepository} instance, for a database of unknown dialect
+     * and running the asynchronous operations in the caller thread.
+     *
+     * @param pu                 the persistent unit
+     * @param em                 the entity manager
+     * @param emf                the entity manager factory
+     * @param transactionManager the transaction manager (not used on non-JTA unit)
+     * @param context            the bundle context used to register the crud services.
+     * @deprecated use {@link #JPARepository(Persistence.PersistenceUnit, EntityManager, EntityManagerFactory,
+     * TransactionManager, BundleContext, Dialect, ListeningExecutorService)}
+     */
+    @Deprecated
+    public JPARepository(Persistence.PersistenceUnit pu, EntityManager em, EntityManagerFactory emf,
+                         TransactionManager transactionManager, BundleContext context) {
+        this(pu, em, emf, transactionManager, context, Dialect.UNKNOWN, null);
+    }
 
     /**
      * Creates a new {@link org.wisdom.framework.jpa.crud.JPARepository} instance.
-     * It infers the Crud service from the list of entities, and publish them as service.
+     * It infers the Crud service from the list of entities, and publish them as service. The Crud services are
+     * registered using service factories, so they are only created when a consumer gets them.
      *
      * @param pu                 the persistent unit
      * @param em                 the entity manager
      * @param emf                the entity manager factory
      * @param transactionManager the transaction manager (not used on non-JTA unit)
      * @param context            the bundle context used to register the crud services.
+     * @param dialect            the dialect of the database backing the unit
+     * @param executor           the executor running the asynchronous operations of the crud services, may be
+     *                           {@code null}
      */
     @SuppressWarnings("unchecked")
     public JPARepository(Persistence.PersistenceUnit pu, EntityManager em, EntityManagerFactory emf,
-                         TransactionManager transactionManager, BundleContext context) {
+                         TransactionManager transactionManager, BundleContext context, Dialect dialect,
+                         ListeningExecutorService executor) {
         this.name = pu.getName();
         this.em = em;
+        this.pu = pu;
+        this.transactionManager = transactionManager;
+        this.dialect = dialect;
+        this.executor = executor;
+        this.retryPolicy = createRetryPolicy(pu);
+        this.invalidations = new InvalidationRegistry(emf.getMetamodel());
+        if (retryPolicy != null) {
+            // Publishes the policy, so its retry counts can be monitored.
+            Dictionary<String, Object> properties = new Hashtable<>();
+            properties.put(UNIT_NAME_PROP, name);
+            properties.put(RETRY_ATTEMPTS_PROP, retryPolicy.getMaxAttempts());
+            registrations.add(context.registerService(RetryPolicy.class.getName(), retryPolicy, properties));
+        }
         for (EntityType t : emf.getMetamodel().getEntities()) {
             Class id = t.getIdType().getJavaType();
             Class entity = t.getJavaType();
-            AbstractJTACrud<?, ?> crud;
-            if (pu.getTransactionType() == PersistenceUnitTransactionType.RESOURCE_LOCAL) {
-                crud =
-                        new LocalEntityCrud(name, em,
-                                entity, id, this);
-            } else {
-                crud =
-                        new JTAEntityCrud(name, em, transactionManager,
-                                entity, id, this);
-            }
-            cruds.add(crud);
+            CrudServiceFactory factory = new CrudServiceFactory(entity, id);
+            factories.add(factory);
             Dictionary<String, Object> properties = new Hashtable<>();
             properties.put(Crud.ENTITY_CLASS_PROPERTY, entity);
             properties.put(Crud.ENTITY_CLASSNAME_PROPERTY, entity.getName());
-            registrations.add(context.registerService(Crud.class, crud, properties));
+            registrations.add(context.registerService(Crud.class.getName(), factory, properties));
+        }
+    }
+
+    /**
+     * Creates the Crud service for the given entity.
+     *
+     * @param entity the entity class
+     * @param id     the primary key class
+     * @return the Crud service
+     */
+    @SuppressWarnings("unchecked")
+    private AbstractJTACrud<?, ?> createCrud(Class entity, Class id) {
+        AbstractJTACrud<?, ?> crud;
+        if (pu.getTransactionType() == PersistenceUnitTransactionType.RESOURCE_LOCAL) {
+            crud =
+                    new LocalEntityCrud(name, em,
+                            entity, id, this, dialect);
+        } else {
+            crud =
+                    new JTAEntityCrud(name, em, transactionManager,
+                            entity, id, this, dialect);
+        }
+        crud.setExecutor(executor);
+        crud.setInvalidationRegistry(invalidations);
+        configureQueryCache(pu, crud);
+        configureNearCache(pu, crud);
+        crud.setRetryPolicy(retryPolicy);
+        LOGGER.debug("Crud service created for {} (unit {})", entity.getName(), name);
+        return crud;
+    }
+
+    /**
+     * Enables the query result cache of the given Crud service if its entity is listed in the
+     * {@link #QUERY_CACHE_ENTITIES_PROP} property of the unit.
+     *
+     * @param pu   the persistence unit
+     * @param crud the crud service
+     */
+    private static void configureQueryCache(Persistence.PersistenceUnit pu, AbstractJTACrud<?, ?> crud) {
+        Class<?> clazz = crud.getEntityClass();
+        if (isListed(pu, QUERY_CACHE_ENTITIES_PROP, clazz)) {
+            long size = getLongProperty(pu, QUERY_CACHE_SIZE_PROP, DEFAULT_QUERY_CACHE_SIZE);
+            long ttl = getLongProperty(pu, QUERY_CACHE_TTL_PROP, DEFAULT_QUERY_CACHE_TTL);
+            crud.enableQueryCache(size, ttl, TimeUnit.SECONDS);
+            LOGGER.info("Query result cache enabled for {} (size: {}, ttl: {}s)", clazz.getName(), size, ttl);
+        }
+    }
+
+    /**
+     * Enables the near cache of the given Crud service if its entity is listed in the
+     * {@link #NEAR_CACHE_ENTITIES_PROP} property of the unit.
+     *
+     * @param pu   the persistence unit
+     * @param crud the crud service
+     */
+    private static void configureNearCache(Persistence.PersistenceUnit pu, AbstractJTACrud<?, ?> crud) {
+        Class<?> clazz = crud.getEntityClass();
+        if (isListed(pu, NEAR_CACHE_ENTITIES_PROP, clazz)) {
+            long size = getLongProperty(pu, NEAR_CACHE_SIZE_PROP, DEFAULT_NEAR_CACHE_SIZE);
+            long ttl = getLongProperty(pu, NEAR_CACHE_TTL_PROP, 0);
+            try {
+                crud.enableNearCache((int) Math.min(size, Integer.MAX_VALUE), ttl, TimeUnit.SECONDS);
+                LOGGER.info("Near cache enabled for {} (size: {}, ttl: {}s)", clazz.getName(), size, ttl);
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Cannot enable the near cache for {}", clazz.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the given entity is listed in a property of the unit.
+     *
+     * @param pu     the persistence unit
+     * @param name   the property listing entities (class names or simple names, comma-separated, or {@code *})
+     * @param entity the entity class
+     * @return {@code true} if the entity is listed
+     */
+    private static boolean isListed(Persistence.PersistenceUnit pu, String name, Class<?> entity) {
+        String entities = getProperty(pu, name);
+        if (entities == null) {
+            return false;
+        }
+        for (String candidate : entities.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(entity.getName())
+                    || candidate.equals(entity.getSimpleName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the retry policy of a Crud service from the {@link #RETRY_ATTEMPTS_PROP}, {@link #RETRY_DELAY_PROP},
+     * {@link #RETRY_MAX_DELAY_PROP} and {@link #RETRY_EXCEPTIONS_PROP} properties of the unit. The policy is shared by
+     * all the Crud services of the unit, and published as a service with the {@link #UNIT_NAME_PROP} property, so
+     * the retries of the unit are counted even when a Crud service is released and created again.
+     *
+     * @param pu the persistence unit
+     * @return the policy, {@code null} if the blocks are not retried
+     */
+    static RetryPolicy createRetryPolicy(Persistence.PersistenceUnit pu) {
+        long attempts = getLongProperty(pu, RETRY_ATTEMPTS_PROP, 1);
+        if (attempts <= 1) {
+            return null;
+        }
+        long delay = getLongProperty(pu, RETRY_DELAY_PROP, DEFAULT_RETRY_DELAY);
+        long maxDelay = getLongProperty(pu, RETRY_MAX_DELAY_PROP, Math.max(delay, DEFAULT_RETRY_MAX_DELAY));
+        List<String> exceptions = RetryPolicy.DEFAULT_RETRYABLE_EXCEPTIONS;
+        String value = getProperty(pu, RETRY_EXCEPTIONS_PROP);
+        if (value != null) {
+            exceptions = new ArrayList<>();
+            for (String exception : value.split(",")) {
+                if (!exception.trim().isEmpty()) {
+                    exceptions.add(exception.trim());
+                }
+            }
+        }
+        try {
+            return new RetryPolicy((int) Math.min(attempts, Integer.MAX_VALUE), delay, maxDelay,
+                    TimeUnit.MILLISECONDS, exceptions);
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Invalid retry policy in unit {}, the transactional blocks are not retried", pu.getName(), e);
+            return null;
+        }
+    }
+
+    private static String getProperty(Persistence.PersistenceUnit pu, String name) {
+        if (pu.getProperties() == null) {
+            return null;
+        }
+        for (Persistence.PersistenceUnit.Properties.Property property : pu.getProperties().getProperty()) {
+            if (name.equals(property.getName())) {
+                return property.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static long getLongProperty(Persistence.PersistenceUnit pu, String name, long defaultValue) {
+        String value = getProperty(pu, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.error("Invalid value for {} in unit {} : {}", name, pu.getName(), value);
+            return defaultValue;
         }
     }
 
     /**
-     * Gets the list of Crud service managed by the current repository.
+     * Gets the list of Crud service managed by the current repository. The Crud services not created yet are created,
+     * and are then retained by the repository: they are not released when the last bundle ungets them, so the
+     * returned instances remain valid (with their caches and retry policy) until the repository is disposed.
      *
      * @return the list of crud services, empty if none
      */
     @Override
     public Collection<Crud<?, ?>> getCrudServices() {
         List<Crud<?, ?>> list = new ArrayList<>();
-        list.addAll(cruds);
+        for (CrudServiceFactory factory : factories) {
+            list.add(factory.retain());
+        }
         return list;
     }
 
@@ -141,8 +400,84 @@ public class JPARepository implements Repository<EntityManager> {
             registration.unregister();
         }
         registrations.clear();
-        for (AbstractJTACrud crud : cruds) {
-            crud.dispose();
+        for (CrudServiceFactory factory : factories) {
+            factory.dispose();
+        }
+    }
+
+    /**
+     * The service factory of a Crud service. The Crud service is created when a first bundle gets it, shared by
+     * all the bundles using it, and released when the last one ungets it, unless the repository has handed it out
+     * through {@link #getCrudServices()}.
+     */
+    class CrudServiceFactory implements ServiceFactory<Crud> {
+
+        private final Class entity;
+        private final Class id;
+
+        private AbstractJTACrud<?, ?> crud;
+        private int users;
+        private boolean retained;
+
+        CrudServiceFactory(Class entity, Class id) {
+            this.entity = entity;
+            this.id = id;
+        }
+
+        /**
+         * Gets the Crud service, and creates it if needed.
+         *
+         * @return the Crud service
+         */
+        synchronized AbstractJTACrud<?, ?> get() {
+            if (crud == null) {
+                crud = createCrud(entity, id);
+            }
+            return crud;
+        }
+
+        /**
+         * Gets the Crud service on behalf of the repository, and creates it if needed. The service is then kept
+         * until the repository is disposed.
+         *
+         * @return the Crud service
+         */
+        synchronized AbstractJTACrud<?, ?> retain() {
+            retained = true;
+            return get();
+        }
+
+        /**
+         * @return whether or not the Crud service has been created.
+         */
+        synchronized boolean isCreated() {
+            return crud != null;
+        }
+
+        @Override
+        public synchronized Crud getService(Bundle bundle, ServiceRegistration<Crud> registration) {
+            users++;
+            return get();
+        }
+
+        @Override
+        public synchronized void ungetService(Bundle bundle, ServiceRegistration<Crud> registration, Crud service) {
+            users--;
+            if (users <= 0) {
+                users = 0;
+                if (!retained) {
+                    dispose();
+                }
+            }
+        }
+
+        synchronized void dispose() {
+            retained = false;
+            if (crud != null) {
+                crud.dispose();
+                crud = null;
+                LOGGER.debug("Crud service of {} (unit {}) released", entity.getName(), name);
+            }
         }
     }
 }
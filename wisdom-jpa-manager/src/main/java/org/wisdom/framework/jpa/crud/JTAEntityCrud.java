@@ -56,7 +56,23 @@ public class JTAEntityCrud<T, I extends Serializable> extends AbstractJTACrud<T,
      */
     public JTAEntityCrud(String pu, EntityManager em, TransactionManager transaction,
                          Class<T> entity, Class<I> id, Repository repository) {
-        super(pu, em, entity, id, repository);
+        this(pu, em, transaction, entity, id, repository, Dialect.UNKNOWN);
+    }
+
+    /**
+     * Creates a new instance of {@link JTAEntityCrud}.
+     *
+     * @param pu          the persistent unit name
+     * @param em          the entity manager
+     * @param transaction the transaction manager
+     * @param entity      the class of the entity
+     * @param id          the primary key class
+     * @param repository  the repository
+     * @param dialect     the dialect of the database backing the unit
+     */
+    public JTAEntityCrud(String pu, EntityManager em, TransactionManager transaction,
+                         Class<T> entity, Class<I> id, Repository repository, Dialect dialect) {
+        super(pu, em, entity, id, repository, dialect);
         this.transaction = transaction;
     }
 
@@ -112,24 +128,47 @@ public class JTAEntityCrud<T, I extends Serializable> extends AbstractJTACrud<T,
 
     @Override
     protected <X> X inTransaction(Callable<X> task) {
+        try {
+            return callInTransaction(task);
+        } catch (Exception e) {
+            LOGGER.error("[Unit : {}, Entity: {}, " +
+                    "Id: {}] - Cannot execute JPA query", pu, entity.getName(), idClass.getName(), e);
+            recordNestedFailure(e);
+        }
+        return null;
+
+    }
+
+    /**
+     * Runs the given block in the active transaction, or in a new transaction if none is active. If the block
+     * throws an exception, the new transaction is rolled back, or the active one is marked as rollback only.
+     *
+     * @param task the block
+     * @param <X>  the return type
+     * @return the result of the block
+     * @throws Exception the exception thrown by the block, or by the transaction manager (including the failure
+     *                   of the commit)
+     */
+    @Override
+    protected <X> X callInTransaction(Callable<X> task) throws Exception {
         boolean transactionBegunLocally = false;
+        Transaction tx = getActiveTransaction();
+        if (tx == null) {
+            LOGGER.info("Starting JTA transaction locally");
+            transaction.begin();
+            transactionBegunLocally = true;
+        } else {
+            LOGGER.info("Reusing JTA transaction {}", transaction.getTransaction());
+        }
+        X result;
         try {
-            Transaction tx = getActiveTransaction();
-            if (tx == null) {
-                LOGGER.info("Starting JTA transaction locally");
-                transaction.begin();
-                transactionBegunLocally = true;
-            } else {
-                LOGGER.info("Reusing JTA transaction {}", transaction.getTransaction());
-            }
-            X result;
+            result = task.call();
+        } catch (Exception e) {
+            // Exception thrown by the block
+            LOGGER.debug("[Unit : {}, Entity: {}, " +
+                            "Id: {}] - the transactional block has thrown an exception, rollback the transaction",
+                    pu, entity.getName(), idClass.getName(), e);
             try {
-                result = task.call();
-            } catch (Exception e) {
-                // Exception thrown by the block
-                LOGGER.error("[Unit : {}, Entity: {}, " +
-                                "Id: {}] - the transactional block has thrown an exception, rollback the transaction",
-                        pu, entity.getName(), idClass.getName(), e);
                 if (transactionBegunLocally) {
                     LOGGER.error("Rolling back transaction");
                     transaction.rollback();
@@ -137,21 +176,88 @@ public class JTAEntityCrud<T, I extends Serializable> extends AbstractJTACrud<T,
                     LOGGER.error("Mark transaction to rollback only");
                     transaction.getTransaction().setRollbackOnly();
                 }
-                return null;
+            } catch (Exception rollback) {
+                LOGGER.error("Cannot rollback the transaction", rollback);
             }
-            if (transactionBegunLocally) {
-                LOGGER.info("Committing locally started transaction");
-                transaction.commit();
-            }
-            return result;
+            throw e;
+        }
+        if (transactionBegunLocally) {
+            LOGGER.info("Committing locally started transaction");
+            transaction.commit();
+        }
+        return result;
+    }
+
+    /**
+     * Runs the given read-only block. If a transaction is active, the block joins it, so it sees the changes made
+     * in the transaction. Otherwise, no JTA transaction is started: the block runs in a read-only scope of the
+     * entity manager (see {@link ReadOnlyScope}), using a non-transactional entity manager with a read-only
+     * connection.
+     *
+     * @param task the block
+     * @param <X>  the return type
+     * @return the result of the operation, {@code null} if the block has thrown an exception.
+     */
+    @Override
+    protected <X> X inReadOnlyTransaction(Callable<X> task) {
+        if (!(entityManager instanceof ReadOnlyScope) || isTransactionActive()) {
+            return inTransaction(task);
+        }
+        ReadOnlyScope scope = (ReadOnlyScope) entityManager;
+        scope.beginReadOnly();
+        try {
+            return task.call();
         } catch (Exception e) {
-            // The transaction management has thrown an exception
             LOGGER.error("[Unit : {}, Entity: {}, " +
-                    "Id: {}] - Cannot execute JPA query", pu, entity.getName(), idClass.getName(), e);
+                            "Id: {}] - the read-only block has thrown an exception",
+                    pu, entity.getName(), idClass.getName(), e);
+            return null;
+        } finally {
+            scope.endReadOnly();
         }
-        return null;
+    }
 
+    @Override
+    protected boolean isTransactionActive() {
+        try {
+            return getActiveTransaction() != null;
+        } catch (SystemException e) {
+            LOGGER.error("Cannot retrieve the status of the current transaction", e);
+            return true;
+        }
     }
 
+    /**
+     * Registers a synchronization calling the given callback when the current transaction has been committed.
+     *
+     * @param callback the callback
+     */
+    @Override
+    protected void afterCommit(final Runnable callback) {
+        try {
+            Transaction tx = getActiveTransaction();
+            if (tx == null) {
+                callback.run();
+                return;
+            }
+            tx.registerSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                    // Nothing to do.
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        callback.run();
+                    }
+                }
+            });
+        } catch (RollbackException | SystemException | IllegalStateException e) {
+            // The transaction cannot commit anymore, or its state is unknown, run the callback to be safe.
+            LOGGER.debug("Cannot register the synchronization on the current transaction", e);
+            callback.run();
+        }
+    }
 
 }
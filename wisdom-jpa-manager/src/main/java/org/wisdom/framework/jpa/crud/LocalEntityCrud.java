@@ -43,6 +43,11 @@ public class LocalEntityCrud<T, I extends Serializable> extends AbstractJTACrud<
         super(pu, em, entity, id, repository);
     }
 
+    public LocalEntityCrud(String pu, EntityManager em,
+                           Class<T> entity, Class<I> id, Repository repository, Dialect dialect) {
+        super(pu, em, entity, id, repository, dialect);
+    }
+
     @Override
     public org.wisdom.api.model.TransactionManager getTransactionManager() {
         return new org.wisdom.api.model.TransactionManager() {
@@ -70,37 +75,72 @@ public class LocalEntityCrud<T, I extends Serializable> extends AbstractJTACrud<
 
     protected <X> X inTransaction(Callable<X> task) {
         try {
-            boolean transactionBegunHere = false;
-            if (!entityManager.getTransaction().isActive()) {
-                entityManager.getTransaction().begin();
-                transactionBegunHere = true;
-            }
-            X result;
+            return callInTransaction(task);
+        } catch (Exception e) {
+            LOGGER.error("[Unit : {}, Entity: {}, " +
+                    "Id: {}] - Cannot execute query", pu, entity.getName(), idClass.getName(), e);
+            recordNestedFailure(e);
+        }
+        return null;
+    }
+
+    /**
+     * Runs the given block in the active transaction, or in a new transaction if none is active. If the block
+     * throws an exception, the new transaction is rolled back, or the active one is marked as rollback only.
+     *
+     * @param task the block
+     * @param <X>  the return type
+     * @return the result of the block
+     * @throws Exception the exception thrown by the block, or by the commit
+     */
+    @Override
+    protected <X> X callInTransaction(Callable<X> task) throws Exception {
+        boolean transactionBegunHere = false;
+        if (!entityManager.getTransaction().isActive()) {
+            entityManager.getTransaction().begin();
+            transactionBegunHere = true;
+        }
+        X result;
+        try {
+            result = task.call();
+        } catch (Exception e) {
+            // The task we execute has thrown an exception.
+            LOGGER.debug("[Unit : {}, Entity: {}, " +
+                            "Id: {}] - the transactional block has thrown an exception, rollback the transaction",
+                    pu, entity.getName(),
+                    idClass.getName(), e);
             try {
-                result = task.call();
-            } catch (Exception e) {
-                // The task we execute has thrown an exception.
-                LOGGER.error("[Unit : {}, Entity: {}, " +
-                                "Id: {}] - the transactional block has thrown an exception, rollback the transaction",
-                        pu, entity.getName(),
-                        idClass.getName(), e);
                 if (transactionBegunHere) {
                     entityManager.getTransaction().rollback();
                 } else {
                     entityManager.getTransaction().setRollbackOnly();
                 }
-                return null;
+            } catch (RuntimeException rollback) {
+                LOGGER.error("Cannot rollback the transaction", rollback);
             }
+            throw e;
+        }
 
-            if (transactionBegunHere) {
-                entityManager.getTransaction().commit();
-            }
-            return result;
-        } catch (Exception e) {
-            // The commit has thrown an exception
-            LOGGER.error("[Unit : {}, Entity: {}, " +
-                    "Id: {}] - Cannot execute query", pu, entity.getName(), idClass.getName(), e);
+        if (transactionBegunHere) {
+            entityManager.getTransaction().commit();
         }
-        return null;
+        return result;
+    }
+
+    @Override
+    protected boolean isTransactionActive() {
+        return entityManager.getTransaction().isActive();
+    }
+
+    /**
+     * Resource-local transactions do not support synchronizations, so the callback is executed immediately. As the
+     * entity manager (and so its transaction) is shared, the caches are not used until the transaction completes,
+     * and cannot be repopulated with uncommitted data.
+     *
+     * @param callback the callback
+     */
+    @Override
+    protected void afterCommit(Runnable callback) {
+        callback.run();
     }
 }
@@ -0,0 +1,484 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import com.google.common.base.Ticker;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache of entities keyed by id, placed in front of {@link AbstractJTACrud#findOne(java.io.Serializable)}.
+ * The eviction follows the W-TinyLFU policy: new entries go to a small LRU window (1% of the capacity), and
+ * entries leaving the window are only admitted in the main space if they are accessed more frequently than the
+ * entry they would evict. The main space is a segmented LRU: entries accessed again are promoted from the
+ * probation segment to the protected segment (80% of the main space). The access frequencies are estimated by a
+ * count-min sketch of 4-bit counters, halved periodically so the old accesses are forgotten.
+ * <p>
+ * Reads do not lock: values are looked up in a concurrent map, and the accesses are recorded in read buffers,
+ * striped by thread. The buffers are replayed on the eviction policy under a lock, when a buffer is full (if the
+ * lock is free) and before every write. A full buffer drops the accesses, so under heavy contention the policy
+ * sees a sample of the reads. Writes and invalidations are serialized by the lock.
+ * <p>
+ * Entries can also expire a fixed time after they have been stored. Expired entries are not returned, and are
+ * removed when their access is replayed.
+ * <p>
+ * As the {@link QueryResultCache}, the cache maintains a generation number, incremented on invalidation. Callers
+ * read the generation before loading an entity, and entities loaded during an older generation are not stored.
+ *
+ * @param <K> the type of key
+ * @param <V> the type of value
+ */
+public class NearCache<K, V> {
+
+    /**
+     * The number of accesses recorded by a read buffer before being replayed, a power of two.
+     */
+    private static final int READ_BUFFER_SIZE = 16;
+
+    private final int maximumSize;
+    private final int windowSize;
+    private final int protectedSize;
+    private final long expireAfterWrite;
+    private final Ticker ticker;
+
+    private final ConcurrentHashMap<K, Node<V>> data = new ConcurrentHashMap<>();
+    private final ReadBuffer[] readBuffers;
+
+    /**
+     * Guards the eviction policy: the segments, the sketch and the generation.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final LinkedHashMap<K, Node<V>> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node<V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node<V>> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+    private volatile long generation;
+    private volatile long evictions;
+    private volatile long invalidations;
+
+    /**
+     * Creates a new cache, whose entries do not expire.
+     *
+     * @param maximumSize the maximum number of entries, must be strictly positive
+     */
+    public NearCache(int maximumSize) {
+        this(maximumSize, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maximumSize      the maximum number of entries, must be strictly positive
+     * @param expireAfterWrite the time after which the entries expire, 0 or negative to keep them until they are
+     *                         evicted or invalidated
+     * @param unit             the unit of the expiration time
+     */
+    public NearCache(int maximumSize, long expireAfterWrite, TimeUnit unit) {
+        this(maximumSize, expireAfterWrite, unit, Ticker.systemTicker());
+    }
+
+    NearCache(int maximumSize, long expireAfterWrite, TimeUnit unit, Ticker ticker) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("The maximum size of the cache must be strictly positive");
+        }
+        this.maximumSize = maximumSize;
+        this.windowSize = Math.max(1, maximumSize / 100);
+        this.protectedSize = (maximumSize - windowSize) * 80 / 100;
+        this.sketch = new FrequencySketch(maximumSize);
+        this.expireAfterWrite = expireAfterWrite > 0 ? unit.toNanos(expireAfterWrite) : 0;
+        this.ticker = ticker;
+        int stripes = Integer.highestOneBit(Math.min(16, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        this.readBuffers = new ReadBuffer[stripes];
+        for (int i = 0; i < stripes; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+    }
+
+    /**
+     * Gets a cached value, and records the access. This method does not block.
+     *
+     * @param key the key
+     * @return the value, {@code null} if not cached or expired
+     */
+    public V get(K key) {
+        Node<V> node = data.get(key);
+        V value = node == null || isExpired(node) ? null : node.value;
+        ReadBuffer buffer = readBuffers[(int) Thread.currentThread().getId() & (readBuffers.length - 1)];
+        if (value == null) {
+            buffer.misses.incrementAndGet();
+        } else {
+            buffer.hits.incrementAndGet();
+        }
+        if (buffer.record(key) && lock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return the current generation, to read before loading a value to cache.
+     */
+    public long generation() {
+        return generation;
+    }
+
+    /**
+     * Stores a value, unless the cache has been invalidated since the given generation.
+     *
+     * @param key        the key
+     * @param value      the value, must not be {@code null}
+     * @param generation the generation read before loading the value
+     */
+    public void put(K key, V value, long generation) {
+        if (value == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            drainReadBuffers();
+            if (generation != this.generation) {
+                return;
+            }
+            Node<V> node = new Node<>(value, ticker.read());
+            if (window.containsKey(key)) {
+                window.put(key, node);
+            } else if (probation.containsKey(key)) {
+                probation.put(key, node);
+            } else if (protectedSegment.containsKey(key)) {
+                protectedSegment.put(key, node);
+            } else {
+                window.put(key, node);
+                if (window.size() > windowSize) {
+                    admit(removeEldest(window));
+                }
+            }
+            data.put(key, node);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isExpired(Node<V> node) {
+        return expireAfterWrite > 0 && ticker.read() - node.writeTime >= expireAfterWrite;
+    }
+
+    /**
+     * Replays the recorded reads on the eviction policy. Must be called with the lock held.
+     */
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+                @SuppressWarnings("unchecked")
+                K key = (K) buffer.keys.getAndSet(i, null);
+                if (key != null) {
+                    onAccess(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records an access in the eviction policy. Must be called with the lock held.
+     *
+     * @param key the accessed key
+     */
+    private void onAccess(K key) {
+        sketch.increment(key);
+        Node<V> node = data.get(key);
+        if (node == null) {
+            return;
+        }
+        if (isExpired(node)) {
+            remove(key);
+            return;
+        }
+        if (window.get(key) == null) {
+            Node<V> promoted = probation.remove(key);
+            if (promoted != null) {
+                // Accessed again, promote it.
+                protectedSegment.put(key, promoted);
+                if (protectedSegment.size() > protectedSize) {
+                    Map.Entry<K, Node<V>> demoted = removeEldest(protectedSegment);
+                    probation.put(demoted.getKey(), demoted.getValue());
+                }
+            } else {
+                protectedSegment.get(key);
+            }
+        }
+    }
+
+    /**
+     * Moves an entry evicted from the window to the main space, if it is accessed more frequently than the entry
+     * it would evict. Must be called with the lock held.
+     *
+     * @param candidate the entry evicted from the window
+     */
+    private void admit(Map.Entry<K, Node<V>> candidate) {
+        if (probation.size() + protectedSegment.size() < maximumSize - windowSize) {
+            probation.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+        LinkedHashMap<K, Node<V>> segment = probation.isEmpty() ? protectedSegment : probation;
+        evictions++;
+        if (segment.isEmpty()) {
+            // No main space.
+            data.remove(candidate.getKey());
+            return;
+        }
+        K victim = segment.keySet().iterator().next();
+        if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim)) {
+            segment.remove(victim);
+            data.remove(victim);
+            probation.put(candidate.getKey(), candidate.getValue());
+        } else {
+            data.remove(candidate.getKey());
+        }
+    }
+
+    private static <K, V> Map.Entry<K, V> removeEldest(LinkedHashMap<K, V> map) {
+        Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+        Map.Entry<K, V> eldest = iterator.next();
+        // Copy the entry, it becomes invalid once removed.
+        Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>(eldest);
+        iterator.remove();
+        return entry;
+    }
+
+    private void remove(K key) {
+        data.remove(key);
+        if (window.remove(key) == null && probation.remove(key) == null) {
+            protectedSegment.remove(key);
+        }
+    }
+
+    /**
+     * Removes a value.
+     *
+     * @param key the key
+     */
+    public void invalidate(K key) {
+        lock.lock();
+        try {
+            generation++;
+            invalidations++;
+            remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all the values. The access frequencies are kept.
+     */
+    public void invalidate() {
+        lock.lock();
+        try {
+            generation++;
+            invalidations++;
+            data.clear();
+            window.clear();
+            probation.clear();
+            protectedSegment.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of cached values, including the expired values not removed yet
+     */
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * @return the number of lookups served by the cache
+     */
+    public long getHitCount() {
+        long hits = 0;
+        for (ReadBuffer buffer : readBuffers) {
+            hits += buffer.hits.get();
+        }
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups not served by the cache
+     */
+    public long getMissCount() {
+        long misses = 0;
+        for (ReadBuffer buffer : readBuffers) {
+            misses += buffer.misses.get();
+        }
+        return misses;
+    }
+
+    /**
+     * @return the number of values evicted or not admitted because the cache was full
+     */
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of invalidations
+     */
+    public long getInvalidationCount() {
+        return invalidations;
+    }
+
+    @Override
+    public String toString() {
+        return "NearCache{size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + evictions + ", invalidations=" + invalidations + "}";
+    }
+
+    /**
+     * A cached value.
+     */
+    private static final class Node<V> {
+
+        private final V value;
+        private final long writeTime;
+
+        private Node(V value, long writeTime) {
+            this.value = value;
+            this.writeTime = writeTime;
+        }
+    }
+
+    /**
+     * A ring of the recently read keys, and the hit and miss counts, of the threads sharing a stripe. When the ring
+     * wraps around before being drained, the oldest accesses are overwritten.
+     */
+    private static final class ReadBuffer {
+
+        private final AtomicReferenceArray<Object> keys = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        private final AtomicLong writes = new AtomicLong();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        /**
+         * Records an access.
+         *
+         * @param key the key
+         * @return {@code true} if the buffer is full and should be drained
+         */
+        private boolean record(Object key) {
+            long index = writes.getAndIncrement();
+            keys.lazySet((int) index & (READ_BUFFER_SIZE - 1), key);
+            return (index & (READ_BUFFER_SIZE - 1)) == READ_BUFFER_SIZE - 1;
+        }
+    }
+
+    /**
+     * A count-min sketch estimating the access frequency of the keys, using four 4-bit counters per key. Once the
+     * number of recorded accesses reaches the sample size, all the counters are halved.
+     */
+    static final class FrequencySketch {
+
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            int size = Integer.highestOneBit(Math.max(16, Math.min(maximumSize, 1 << 24)) - 1) << 1;
+            this.table = new long[size];
+            this.sampleSize = 10 * size;
+        }
+
+        /**
+         * @param key the key
+         * @return the estimated number of accesses to the key, between 0 and 15
+         */
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int frequency = 15;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int offset = offset(hash, i);
+                frequency = Math.min(frequency, (int) ((table[index(hash, i)] >>> offset) & 0xFL));
+            }
+            return frequency;
+        }
+
+        /**
+         * Records an access to the given key.
+         *
+         * @param key the key
+         */
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = index(hash, i);
+                int offset = offset(hash, i);
+                long mask = 0xFL << offset;
+                if ((table[index] & mask) != mask) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions = additions / 2;
+        }
+
+        private int index(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & (table.length - 1);
+        }
+
+        private static int offset(int hash, int i) {
+            // 16 counters per long, each row uses a different counter.
+            return ((hash >>> (i << 3)) & 15) << 2;
+        }
+
+        private static int spread(int hash) {
+            int h = hash * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
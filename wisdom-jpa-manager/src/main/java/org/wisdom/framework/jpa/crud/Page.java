@@ -0,0 +1,114 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of entities returned by the paging methods of the Crud services.
+ *
+ * @param <T> the type of the entity
+ */
+public final class Page<T> {
+
+    /**
+     * The position of the last entity of a page, used to retrieve the next page using keyset (seek) pagination.
+     * It contains the value of the sort attribute and the identifier of the entity, the latter disambiguates
+     * entities sharing the same sort value.
+     */
+    public static final class Key implements Serializable {
+
+        private final Object value;
+        private final Object id;
+
+        private Key(Object value, Object id) {
+            this.value = value;
+            this.id = id;
+        }
+
+        /**
+         * Creates a key for a page sorted on another attribute than the identifier.
+         *
+         * @param value the value of the sort attribute of the last entity of the previous page
+         * @param id    the identifier of the last entity of the previous page
+         * @return the key
+         */
+        public static Key of(Object value, Object id) {
+            if (id == null) {
+                throw new IllegalArgumentException("The identifier cannot be null");
+            }
+            return new Key(value, id);
+        }
+
+        /**
+         * Creates a key for a page sorted on the identifier.
+         *
+         * @param id the identifier of the last entity of the previous page
+         * @return the key
+         */
+        public static Key of(Object id) {
+            return of(id, id);
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public Object getId() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return "Key[" + value + ", " + id + "]";
+        }
+    }
+
+    private final List<T> content;
+    private final Key next;
+
+    Page(List<T> content, Key next) {
+        this.content = Collections.unmodifiableList(content);
+        this.next = next;
+    }
+
+    /**
+     * @return the entities of the page, empty if none.
+     */
+    public List<T> getContent() {
+        return content;
+    }
+
+    /**
+     * @return the key to pass to retrieve the next page, {@code null} if this page is the last one.
+     */
+    public Key getNext() {
+        return next;
+    }
+
+    /**
+     * @return whether or not there is a next page.
+     */
+    public boolean hasNext() {
+        return next != null;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache storing the results of the queries executed by a Crud service. Entries are keyed by the
+ * normalized query and its parameters, expire after a configurable time-to-live, and are all invalidated when a
+ * transaction modifying the entity commits.
+ * <p>
+ * To avoid caching results computed before a concurrent invalidation, the cache maintains a generation number.
+ * Callers read the generation before executing the query, and results computed during an older generation are
+ * not stored.
+ */
+public class QueryResultCache {
+
+    private final Cache<List<Object>, Object> cache;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maximumSize the maximum number of cached queries, must be strictly positive
+     * @param ttl         the time-to-live of the entries, 0 or negative to disable the expiration
+     * @param unit        the unit of the time-to-live
+     */
+    public QueryResultCache(long maximumSize, long ttl, TimeUnit unit) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("The maximum size of the cache must be strictly positive");
+        }
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats();
+        if (ttl > 0) {
+            builder.expireAfterWrite(ttl, unit);
+        }
+        this.cache = builder.build();
+    }
+
+    /**
+     * Gets the cached result of the given query.
+     *
+     * @param key the normalized query and its parameters
+     * @return the cached result, {@code null} if not cached
+     */
+    public Object get(List<Object> key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * @return the current generation, to read before executing a query whose result will be cached.
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Stores the result of a query, unless the cache has been invalidated since the given generation.
+     *
+     * @param key        the normalized query and its parameters
+     * @param value      the result
+     * @param generation the generation read before executing the query
+     */
+    public void put(List<Object> key, Object value, long generation) {
+        if (value == null || generation != this.generation.get()) {
+            return;
+        }
+        cache.put(key, value);
+        if (generation != this.generation.get()) {
+            // Invalidated concurrently.
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Invalidates all the cached results.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return the number of cached queries.
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of lookups that returned a cached result.
+     */
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    /**
+     * @return the number of lookups that did not find a cached result.
+     */
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    /**
+     * @return the number of entries evicted because of the size bound or the expiration.
+     */
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    /**
+     * @return the number of invalidations triggered by committed modifications.
+     */
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryResultCache[size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + ", invalidations=" + getInvalidationCount() + "]";
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+/**
+ * The JPQL statements of the standard Crud queries, computed once per Crud service. Using the exact same query
+ * string on every call lets the provider reuse its parsed query and the generated SQL (OpenJPA query compilation
+ * and prepared SQL caches, Hibernate query plan cache), while criteria queries are rebuilt and compiled on each call.
+ */
+final class QueryTemplates {
+
+    /**
+     * The name of the parameter receiving the id.
+     */
+    static final String ID_PARAMETER = "id";
+
+    /**
+     * The name of the parameter receiving a list of ids.
+     */
+    static final String IDS_PARAMETER = "ids";
+
+    private final String findAll;
+    private final String findAllById;
+    private final String count;
+    private final String exists;
+    private final String deleteAllById;
+
+    /**
+     * Creates the templates.
+     *
+     * @param entity the entity name
+     * @param id     the name of the identifier attribute
+     */
+    QueryTemplates(String entity, String id) {
+        findAll = "SELECT e FROM " + entity + " e";
+        findAllById = findAll + " WHERE e." + id + " IN :" + IDS_PARAMETER;
+        count = "SELECT COUNT(e) FROM " + entity + " e";
+        exists = "SELECT e." + id + " FROM " + entity + " e WHERE e." + id + " = :" + ID_PARAMETER;
+        deleteAllById = "DELETE FROM " + entity + " e WHERE e." + id + " IN :" + IDS_PARAMETER;
+    }
+
+    /**
+     * @return the query selecting all the instances
+     */
+    String findAll() {
+        return findAll;
+    }
+
+    /**
+     * @return the query selecting the instances having their id in the {@link #IDS_PARAMETER} list
+     */
+    String findAllById() {
+        return findAllById;
+    }
+
+    /**
+     * @return the query counting the instances
+     */
+    String count() {
+        return count;
+    }
+
+    /**
+     * @return the query selecting the id of the instance having the id {@link #ID_PARAMETER}
+     */
+    String exists() {
+        return exists;
+    }
+
+    /**
+     * @return the statement deleting the instances having their id in the {@link #IDS_PARAMETER} list
+     */
+    String deleteAllById() {
+        return deleteAllById;
+    }
+}
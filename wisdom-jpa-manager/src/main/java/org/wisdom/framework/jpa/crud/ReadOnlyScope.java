@@ -0,0 +1,40 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+/**
+ * Implemented by entity managers able to serve reads outside of any transaction. Within a read-only scope, and as
+ * long as no transaction is active, the entity manager delegates to a non-transactional entity manager whose
+ * connection is marked read-only. This entity manager is closed when the scope ends, detaching the loaded entities.
+ * <p>
+ * Scopes are bound to the current thread and can be nested, only the outermost scope closes the entity manager.
+ */
+public interface ReadOnlyScope {
+
+    /**
+     * Opens a read-only scope on the current thread.
+     */
+    void beginReadOnly();
+
+    /**
+     * Closes the read-only scope opened on the current thread.
+     */
+    void endReadOnly();
+}
@@ -0,0 +1,197 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The policy retrying the transactional blocks failing because of a transient conflict, such as an optimistic lock
+ * failure or a deadlock. Each attempt runs in a new transaction. Between two attempts, the caller waits for a random
+ * delay (full jitter) bounded by an exponential backoff: {@code min(maxDelay, delay * 2^(attempt - 1))}.
+ * <p>
+ * An exception is retryable if it, or one of its causes, is an instance of one of the retryable exception classes
+ * (compared by name, so the classes do not have to be visible from this bundle), or a {@link SQLException} whose
+ * SQL state belongs to the transaction rollback class ({@code 40xxx}, e.g. deadlocks and serialization failures).
+ * <p>
+ * The policy also counts the retries. The repository shares one policy between the Crud services of a persistence
+ * unit, and publishes it as a service (see {@link JPARepository#createRetryPolicy}), so the counts are those of the
+ * unit.
+ */
+public class RetryPolicy {
+
+    /**
+     * The exceptions retried by default.
+     */
+    public static final List<String> DEFAULT_RETRYABLE_EXCEPTIONS = Collections.unmodifiableList(Arrays.asList(
+            "javax.persistence.OptimisticLockException",
+            "javax.persistence.PessimisticLockException",
+            "javax.persistence.LockTimeoutException",
+            "java.sql.SQLTransactionRollbackException"
+    ));
+
+    private final int maxAttempts;
+    private final long delay;
+    private final long maxDelay;
+    private final Set<String> retryable;
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong recovered = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    /**
+     * Creates a policy retrying the {@link #DEFAULT_RETRYABLE_EXCEPTIONS}.
+     *
+     * @param maxAttempts the maximum number of attempts, including the first one, must be strictly positive
+     * @param delay       the base delay between two attempts
+     * @param maxDelay    the maximum delay between two attempts
+     * @param unit        the unit of the delays
+     */
+    public RetryPolicy(int maxAttempts, long delay, long maxDelay, TimeUnit unit) {
+        this(maxAttempts, delay, maxDelay, unit, DEFAULT_RETRYABLE_EXCEPTIONS);
+    }
+
+    /**
+     * Creates a policy.
+     *
+     * @param maxAttempts the maximum number of attempts, including the first one, must be strictly positive
+     * @param delay       the base delay between two attempts
+     * @param maxDelay    the maximum delay between two attempts
+     * @param unit        the unit of the delays
+     * @param retryable   the names of the retryable exception classes
+     */
+    public RetryPolicy(int maxAttempts, long delay, long maxDelay, TimeUnit unit, Collection<String> retryable) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("The number of attempts must be strictly positive");
+        }
+        if (delay < 0 || maxDelay < delay) {
+            throw new IllegalArgumentException("The delays must be positive, and the maximum delay must be greater " +
+                    "than the base delay");
+        }
+        this.maxAttempts = maxAttempts;
+        this.delay = unit.toMillis(delay);
+        this.maxDelay = unit.toMillis(maxDelay);
+        this.retryable = new HashSet<>(retryable);
+    }
+
+    /**
+     * @return the maximum number of attempts, including the first one.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Checks whether the given failure can be retried.
+     *
+     * @param failure the failure
+     * @return {@code true} if the failure, or one of its causes, is retryable
+     */
+    public boolean isRetryable(Throwable failure) {
+        Set<Throwable> visited = new HashSet<>();
+        for (Throwable t = failure; t != null && visited.add(t); t = t.getCause()) {
+            if (t instanceof SQLException && ((SQLException) t).getSQLState() != null
+                    && ((SQLException) t).getSQLState().startsWith("40")) {
+                return true;
+            }
+            for (Class<?> clazz = t.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+                if (retryable.contains(clazz.getName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the time to wait before the next attempt.
+     *
+     * @param attempt the number of the failed attempt, starting at 1
+     * @return the delay in milliseconds
+     */
+    public long getDelay(int attempt) {
+        long bound = delay;
+        for (int i = 1; i < attempt && bound < maxDelay; i++) {
+            bound = bound * 2;
+        }
+        bound = Math.min(bound, maxDelay);
+        if (bound <= 0) {
+            return 0;
+        }
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    /**
+     * Records a retry.
+     */
+    void onRetry() {
+        retries.incrementAndGet();
+    }
+
+    /**
+     * Records a block succeeding after at least one retry.
+     */
+    void onRecovered() {
+        recovered.incrementAndGet();
+    }
+
+    /**
+     * Records a block still failing after the last attempt.
+     */
+    void onExhausted() {
+        exhausted.incrementAndGet();
+    }
+
+    /**
+     * @return the number of retries
+     */
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * @return the number of blocks that succeeded after at least one retry
+     */
+    public long getRecoveredCount() {
+        return recovered.get();
+    }
+
+    /**
+     * @return the number of blocks that still failed after the last attempt
+     */
+    public long getExhaustedCount() {
+        return exhausted.get();
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{maxAttempts=" + maxAttempts + ", delay=" + delay + "ms, maxDelay=" + maxDelay
+                + "ms, retries=" + retries.get() + ", recovered=" + recovered.get()
+                + ", exhausted=" + exhausted.get() + "}";
+    }
+}
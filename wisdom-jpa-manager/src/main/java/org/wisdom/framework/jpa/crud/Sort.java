@@ -0,0 +1,70 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+/**
+ * The sort order of a page of entities.
+ */
+public final class Sort {
+
+    private final String attribute;
+    private final boolean ascending;
+
+    private Sort(String attribute, boolean ascending) {
+        if (attribute == null || attribute.isEmpty()) {
+            throw new IllegalArgumentException("The sort attribute cannot be null or empty");
+        }
+        this.attribute = attribute;
+        this.ascending = ascending;
+    }
+
+    /**
+     * Creates an ascending sort order on the given attribute.
+     *
+     * @param attribute the attribute, should be indexed
+     * @return the sort order
+     */
+    public static Sort ascending(String attribute) {
+        return new Sort(attribute, true);
+    }
+
+    /**
+     * Creates a descending sort order on the given attribute.
+     *
+     * @param attribute the attribute, should be indexed
+     * @return the sort order
+     */
+    public static Sort descending(String attribute) {
+        return new Sort(attribute, false);
+    }
+
+    public String getAttribute() {
+        return attribute;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    @Override
+    public String toString() {
+        return attribute + (ascending ? " ASC" : " DESC");
+    }
+}
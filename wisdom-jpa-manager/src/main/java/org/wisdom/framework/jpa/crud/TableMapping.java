@@ -0,0 +1,204 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import javax.persistence.Column;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Member;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The mapping of an entity to its table, computed from the metamodel and the mapping annotations, and used to build
+ * native statements. Only entities stored in a single table, made of basic attributes and without version, are
+ * supported. Names without annotation default to the entity and attribute names, naming strategies of the provider
+ * are not applied: the mapping must be checked against the database with {@link #getProbeStatement()}.
+ *
+ * @param <T> the type of the entity
+ */
+final class TableMapping<T> {
+
+    private final String table;
+    private final List<String> columns = new ArrayList<>();
+    private final List<SingularAttribute<? super T, ?>> attributes = new ArrayList<>();
+    private final int key;
+    private volatile boolean verified;
+
+    /**
+     * Computes the mapping of the given entity.
+     *
+     * @param type the entity type
+     * @throws IllegalArgumentException if the entity cannot be mapped to a single table
+     */
+    TableMapping(EntityType<T> type) {
+        if (type.getSupertype() instanceof EntityType) {
+            throw new IllegalArgumentException("Native statements do not support entity inheritance (" +
+                    type.getName() + ")");
+        }
+        if (!type.getPluralAttributes().isEmpty()) {
+            throw new IllegalArgumentException("Native statements do not support collection attributes (" +
+                    type.getName() + ")");
+        }
+        Table annotation = type.getJavaType().getAnnotation(Table.class);
+        if (annotation != null && !annotation.name().isEmpty()) {
+            table = annotation.schema().isEmpty() ? annotation.name() : annotation.schema() + "." + annotation.name();
+        } else {
+            table = type.getName();
+        }
+
+        int index = -1;
+        for (SingularAttribute<? super T, ?> attribute : type.getSingularAttributes()) {
+            if (attribute.getPersistentAttributeType() != Attribute.PersistentAttributeType.BASIC
+                    || attribute.isVersion()) {
+                throw new IllegalArgumentException("Native statements only support basic attributes, '"
+                        + attribute.getName() + "' of " + type.getName() + " is not supported");
+            }
+            if (attribute.isId()) {
+                index = attributes.size();
+            }
+            attributes.add(attribute);
+            columns.add(getColumnName(attribute));
+        }
+        if (index == -1) {
+            throw new IllegalArgumentException("The entity " + type.getName() + " does not have a single " +
+                    "identifier attribute");
+        }
+        key = index;
+    }
+
+    /**
+     * @return the table name.
+     */
+    String getTable() {
+        return table;
+    }
+
+    /**
+     * @return the column names, in the order of the values returned by {@link #getValues(Object)}.
+     */
+    List<String> getColumns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * @return the index of the identifier column.
+     */
+    int getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the statement selecting all the columns of the table without reading any row. It fails if the table or
+     * one of the columns does not exist, for instance because the provider applies a naming strategy.
+     *
+     * @return the statement
+     */
+    String getProbeStatement() {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns.get(i));
+        }
+        return sql.append(" FROM ").append(table).append(" WHERE 1 = 0").toString();
+    }
+
+    /**
+     * @return whether the names of the table and columns have been checked against the database.
+     */
+    boolean isVerified() {
+        return verified;
+    }
+
+    /**
+     * Records that the names of the table and columns have been checked against the database.
+     */
+    void setVerified() {
+        verified = true;
+    }
+
+    /**
+     * Gets the column values of the given instance, converted to JDBC types according to the {@code @Enumerated}
+     * and {@code @Temporal} annotations.
+     *
+     * @param instance the instance
+     * @return the values, in the order of the columns
+     */
+    Object[] getValues(T instance) {
+        Object[] values = new Object[attributes.size()];
+        for (int i = 0; i < values.length; i++) {
+            SingularAttribute<? super T, ?> attribute = attributes.get(i);
+            values[i] = toJdbc(attribute, AbstractJTACrud.readAttribute(instance, attribute));
+        }
+        return values;
+    }
+
+    private static Object toJdbc(Attribute<?, ?> attribute, Object value) {
+        if (value instanceof Enum) {
+            Enumerated enumerated = getAnnotation(attribute, Enumerated.class);
+            return enumerated != null && enumerated.value() == EnumType.STRING ?
+                    ((Enum) value).name() : ((Enum) value).ordinal();
+        }
+        if (value instanceof Calendar) {
+            value = ((Calendar) value).getTime();
+        }
+        if (value instanceof Date && !(value instanceof java.sql.Date || value instanceof java.sql.Time
+                || value instanceof java.sql.Timestamp)) {
+            Temporal temporal = getAnnotation(attribute, Temporal.class);
+            long time = ((Date) value).getTime();
+            if (temporal != null && temporal.value() == TemporalType.DATE) {
+                return new java.sql.Date(time);
+            } else if (temporal != null && temporal.value() == TemporalType.TIME) {
+                return new java.sql.Time(time);
+            }
+            return new java.sql.Timestamp(time);
+        }
+        return value;
+    }
+
+    private static String getColumnName(Attribute<?, ?> attribute) {
+        Column column = getAnnotation(attribute, Column.class);
+        if (column != null && !column.name().isEmpty()) {
+            return column.name();
+        }
+        return attribute.getName();
+    }
+
+    private static <A extends Annotation> A getAnnotation(Attribute<?, ?> attribute, Class<A> annotation) {
+        Member member = attribute.getJavaMember();
+        if (member instanceof AnnotatedElement) {
+            return ((AnnotatedElement) member).getAnnotation(annotation);
+        }
+        return null;
+    }
+}
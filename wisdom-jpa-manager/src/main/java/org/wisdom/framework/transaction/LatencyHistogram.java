@@ -0,0 +1,151 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.transaction;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with power-of-two buckets. Recording a value costs a few atomic operations, so it
+ * can be used on the hot path of the transaction log. Percentiles are approximated by the upper bound of their
+ * bucket (so with an error below 100%), capped by the maximum recorded value.
+ * <p>
+ * Values are recorded in nanoseconds and reported in microseconds.
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration in nanoseconds, negative values are recorded as {@code 0}
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        buckets.incrementAndGet(Math.max(0, BUCKETS - 1 - Long.numberOfLeadingZeros(value)));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return the number of recorded durations
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the sum of the recorded durations, in microseconds
+     */
+    public long getTotal() {
+        return TimeUnit.NANOSECONDS.toMicros(total.get());
+    }
+
+    /**
+     * @return the mean of the recorded durations, in microseconds, {@code 0} if none
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : total.get() / 1000.0 / n;
+    }
+
+    /**
+     * @return the longest recorded duration, in microseconds
+     */
+    public long getMax() {
+        return TimeUnit.NANOSECONDS.toMicros(max.get());
+    }
+
+    /**
+     * @return the median, in microseconds
+     */
+    public long getP50() {
+        return getPercentile(50);
+    }
+
+    /**
+     * @return the 99th percentile, in microseconds
+     */
+    public long getP99() {
+        return getPercentile(99);
+    }
+
+    /**
+     * @return the 99.9th percentile, in microseconds
+     */
+    public long getP999() {
+        return getPercentile(99.9);
+    }
+
+    /**
+     * Computes an approximation of a percentile.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the approximated percentile, in microseconds, {@code 0} if no durations were recorded
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("The percentile must be between 0 and 100");
+        }
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                // Bucket i holds the values in [2^i, 2^(i+1)[ (and 0 for the first one).
+                long upper = i >= BUCKETS - 2 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+                return TimeUnit.NANOSECONDS.toMicros(Math.min(upper, max.get()));
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Clears the recorded durations.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.transaction;
+
+import javax.management.MXBean;
+
+/**
+ * A service exposing the statistics of the recoverable transaction log. It is published when the transaction
+ * manager is recoverable, and also registered as a JMX MXBean named {@link #OBJECT_NAME}.
+ * <p>
+ * Latencies are reported in microseconds. The prepare latency covers the append of the prepare record and the
+ * wait until it is durable, while the commit and rollback records are appended without waiting for a force.
+ */
+@MXBean
+public interface TransactionLogStatistics {
+
+    /**
+     * The name of the JMX MXBean.
+     */
+    String OBJECT_NAME = "org.wisdom.framework:type=TransactionLog";
+
+    /**
+     * @return the type of transaction log ({@code howl} or {@code journal})
+     */
+    String getLogType();
+
+    /**
+     * @return the latency of the prepare calls, until the prepare record is durable
+     */
+    LatencyHistogram getPrepareLatency();
+
+    /**
+     * @return the latency of the commit calls
+     */
+    LatencyHistogram getCommitLatency();
+
+    /**
+     * @return the latency of the rollback calls
+     */
+    LatencyHistogram getRollbackLatency();
+
+    /**
+     * @return the duration of the disk forces, empty if the log does not expose its forces
+     */
+    LatencyHistogram getForceLatency();
+
+    /**
+     * @return the time spent waiting for the log buffer before appending a record, empty if the log does not
+     * expose it
+     */
+    LatencyHistogram getBufferWaitLatency();
+
+    /**
+     * @return the number of forces
+     */
+    long getForceCount();
+
+    /**
+     * @return the average number of records made durable by a force
+     */
+    double getRecordsPerForce();
+
+    /**
+     * @return the average number of bytes made durable by a force
+     */
+    double getBytesPerForce();
+
+    /**
+     * Resets the statistics.
+     */
+    void reset();
+}
@@ -28,6 +28,7 @@ import org.objectweb.howl.log.xa.XALogRecord;
 import org.objectweb.howl.log.xa.XALogger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.wisdom.framework.transaction.TransactionLogStatistics;
 
 import javax.transaction.xa.Xid;
 import java.io.File;
@@ -36,14 +37,22 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * An implementation of the Geronimo Transaction Log based on OW2 Howl.
  * Configuration is documented in the <a href="http://howl.ow2.org/jdoc/public/index.html">Howl API</a>.
+ * <p>
+ * HOWL takes the records as arrays of byte arrays, and keeps the arrays of the prepare records to move them to a new
+ * log file. The chunks that do not depend on the transaction (record type, format id, resource names) are encoded
+ * once and shared by the records, they are never modified.
  */
 public class HowlLog implements TransactionLog {
     private static final byte COMMIT = 2;
     private static final byte ROLLBACK = 3;
+    private static final byte[] COMMIT_TYPE = new byte[]{COMMIT};
+    private static final byte[] ROLLBACK_TYPE = new byte[]{ROLLBACK};
 
     private static final Logger LOGGER = LoggerFactory.getLogger(HOWLLog.class);
 
@@ -56,6 +65,13 @@ public class HowlLog implements TransactionLog {
     private final Configuration configuration = new Configuration();
     private boolean started = false;
     private Map<Xid, Recovery.XidBranchesPair> recovered;
+    private final TransactionLogMetrics metrics = new TransactionLogMetrics(TransactionManagerService.HOWL_LOG, false);
+
+    /**
+     * The encoded resource names, and the last encoded format id (all the transactions generally use the same).
+     */
+    private final ConcurrentMap<String, byte[]> resourceNames = new ConcurrentHashMap<>();
+    private volatile EncodedFormatId formatId = new EncodedFormatId(0);
 
     /**
      * Creates the HowLog instance
@@ -177,16 +193,19 @@ public class HowlLog implements TransactionLog {
     public Object prepare(Xid xid, List<? extends TransactionBranchInfo> branches) throws LogException {
         int branchCount = branches.size();
         byte[][] data = new byte[3 + 2 * branchCount][];
-        data[0] = intToBytes(xid.getFormatId());
+        data[0] = encodeFormatId(xid.getFormatId());
         data[1] = xid.getGlobalTransactionId();
         data[2] = xid.getBranchQualifier();
         int i = 3;
         for (TransactionBranchInfo transactionBranchInfo : branches) {
             data[i++] = transactionBranchInfo.getBranchXid().getBranchQualifier();
-            data[i++] = transactionBranchInfo.getResourceName().getBytes();
+            data[i++] = encodeResourceName(transactionBranchInfo.getResourceName());
         }
         try {
-            return logger.putCommit(data);
+            long begin = System.nanoTime();
+            Object mark = logger.putCommit(data);
+            metrics.recordPrepare(System.nanoTime() - begin, size(data));
+            return mark;
         } catch (LogClosedException | LogRecordSizeException | InterruptedException | LogFileOverflowException e) {
             throw new IllegalStateException(e);
         } catch (IOException e) {
@@ -204,12 +223,14 @@ public class HowlLog implements TransactionLog {
         //the data is theoretically unnecessary but is included to help with debugging
         // and because HOWL currently requires it.
         byte[][] data = new byte[4][];
-        data[0] = new byte[]{COMMIT};
-        data[1] = intToBytes(xid.getFormatId());
+        data[0] = COMMIT_TYPE;
+        data[1] = encodeFormatId(xid.getFormatId());
         data[2] = xid.getGlobalTransactionId();
         data[3] = xid.getBranchQualifier();
         try {
+            long begin = System.nanoTime();
             logger.putDone(data, (XACommittingTx) logMark);
+            metrics.recordCommit(System.nanoTime() - begin, size(data));
         } catch (LogClosedException | LogRecordSizeException | InterruptedException | IOException | LogFileOverflowException e) {
             throw new IllegalStateException(e);
         }
@@ -225,12 +246,14 @@ public class HowlLog implements TransactionLog {
         //the data is theoretically unnecessary but is included to help
         // with debugging and because HOWL currently requires it.
         byte[][] data = new byte[4][];
-        data[0] = new byte[]{ROLLBACK};
-        data[1] = intToBytes(xid.getFormatId());
+        data[0] = ROLLBACK_TYPE;
+        data[1] = encodeFormatId(xid.getFormatId());
         data[2] = xid.getGlobalTransactionId();
         data[3] = xid.getBranchQualifier();
         try {
+            long begin = System.nanoTime();
             logger.putDone(data, (XACommittingTx) logMark);
+            metrics.recordRollback(System.nanoTime() - begin, size(data));
         } catch (LogClosedException | LogRecordSizeException | LogFileOverflowException | IOException | InterruptedException e) {
             throw new IllegalStateException(e);
         }
@@ -239,12 +262,21 @@ public class HowlLog implements TransactionLog {
     /**
      * Recovers the log, returning a map of (top level) xid to List of TransactionBranchInfo for the branches.
      * Uses the XidFactory to reconstruct the xids.
+     * <p>
+     * HOWL must replay its active transactions when the log is started, so the first recovery reuses the
+     * transactions replayed by {@link #start()} instead of replaying the log a second time.
      *
      * @param xidFactory Xid factory
      * @return Map of recovered xid to List of TransactionBranchInfo representing the branches.
      * @throws LogException on error
      */
     public Collection<Recovery.XidBranchesPair> recover(XidFactory xidFactory) throws LogException {
+        Map<Xid, Recovery.XidBranchesPair> replayed = this.recovered;
+        this.recovered = null;
+        if (replayed != null && xidFactory == this.xidFactory) {
+            LOGGER.debug("{} in doubt transaction(s) recovered when starting the log", replayed.size());
+            return replayed.values();
+        }
         LOGGER.debug("Initiating transaction manager recovery");
         Map<Xid, Recovery.XidBranchesPair> recovered = new HashMap<>();
         ReplayListener replayListener = new GeronimoReplayListener(xidFactory, recovered);
@@ -261,15 +293,63 @@ public class HowlLog implements TransactionLog {
         return logger.getStats();
     }
 
+    /**
+     * HOWL forces its buffers internally, so this is the average duration of a prepare, i.e. the time to append the
+     * record and wait for the force of its buffer.
+     *
+     * @return the average force time in milliseconds
+     */
     public int getAverageForceTime() {
-        return 0;
+        return metrics.getAverageForceTime();
     }
 
+    /**
+     * Only the prepare records wait for a force, so this is the number of bytes appended per prepare, a lower
+     * bound of the number of bytes per force.
+     *
+     * @return the average number of bytes per force
+     */
     public int getAverageBytesPerForce() {
-        return 0;
+        return (int) metrics.getBytesPerForce();
+    }
+
+    /**
+     * @return the statistics of the log
+     */
+    public TransactionLogStatistics getStatistics() {
+        return metrics;
+    }
+
+    private static long size(byte[][] data) {
+        long size = 0;
+        for (byte[] chunk : data) {
+            size += chunk.length;
+        }
+        return size;
+    }
+
+    private byte[] encodeFormatId(int id) {
+        EncodedFormatId encoded = formatId;
+        if (encoded.id != id) {
+            encoded = new EncodedFormatId(id);
+            formatId = encoded;
+        }
+        return encoded.bytes;
     }
 
-    private byte[] intToBytes(int formatId) {
+    private byte[] encodeResourceName(String name) {
+        byte[] encoded = resourceNames.get(name);
+        if (encoded == null) {
+            encoded = name.getBytes();
+            byte[] previous = resourceNames.putIfAbsent(name, encoded);
+            if (previous != null) {
+                encoded = previous;
+            }
+        }
+        return encoded;
+    }
+
+    private static byte[] intToBytes(int formatId) {
         byte[] buffer = new byte[4];
         buffer[0] = (byte) (formatId >> 24);
         buffer[1] = (byte) (formatId >> 16);
@@ -278,8 +358,22 @@ public class HowlLog implements TransactionLog {
         return buffer;
     }
 
-    private int bytesToInt(byte[] buffer) {
-        return ((int) buffer[0]) << 24 + ((int) buffer[1]) << 16 + ((int) buffer[2]) << 8 + ((int) buffer[3]);
+    static int bytesToInt(byte[] buffer) {
+        return ((buffer[0] & 0xFF) << 24) | ((buffer[1] & 0xFF) << 16) | ((buffer[2] & 0xFF) << 8)
+                | (buffer[3] & 0xFF);
+    }
+
+    /**
+     * A format id and its encoding.
+     */
+    private static final class EncodedFormatId {
+        private final int id;
+        private final byte[] bytes;
+
+        private EncodedFormatId(int id) {
+            this.id = id;
+            this.bytes = intToBytes(id);
+        }
     }
 
     private class GeronimoReplayListener implements ReplayListener {
@@ -306,7 +400,7 @@ public class HowlLog implements TransactionLog {
                 byte[][] data = tx.getRecord();
 
                 assert data[0].length == 4;
-                int formatId = bytesToInt(data[1]);
+                int formatId = bytesToInt(data[0]);
                 byte[] globalId = data[1];
                 byte[] branchId = data[2];
                 Xid masterXid = xidFactory.recover(formatId, globalId, branchId);
@@ -0,0 +1,140 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.transaction.impl;
+
+import javax.transaction.xa.Xid;
+import java.util.Arrays;
+
+/**
+ * The Xid created by {@link XidFactoryImpl}. The transaction manager keys its maps on the Xids, so the hash code is
+ * computed once, and the equality checks the hash codes before comparing the ids. The arrays are never modified, so
+ * a branch shares the global transaction id of its transaction, and the getters return copies.
+ * <p>
+ * Two Xids are equal if they have the same format id, global transaction id and branch qualifier, like the
+ * Geronimo {@link org.apache.geronimo.transaction.manager.XidImpl}.
+ */
+final class ImmutableXid implements Xid {
+
+    /**
+     * The format id of the Geronimo Xids ("GeRo").
+     */
+    static final int FORMAT_ID = 0x4765526f;
+
+    /**
+     * The branch qualifier of the global transaction ids.
+     */
+    private static final byte[] NO_BRANCH = new byte[Xid.MAXBQUALSIZE];
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final int formatId;
+    private final byte[] globalId;
+    private final byte[] branchId;
+    private final int globalHash;
+    private final int hash;
+
+    /**
+     * Creates a global transaction id.
+     *
+     * @param globalId the global transaction id, not copied
+     */
+    ImmutableXid(byte[] globalId) {
+        this(FORMAT_ID, globalId, NO_BRANCH);
+    }
+
+    /**
+     * Creates a Xid.
+     *
+     * @param formatId the format id
+     * @param globalId the global transaction id, not copied
+     * @param branchId the branch qualifier, not copied
+     */
+    ImmutableXid(int formatId, byte[] globalId, byte[] branchId) {
+        this(formatId, globalId, 31 * formatId + Arrays.hashCode(globalId), branchId);
+    }
+
+    /**
+     * Creates a branch of a global transaction.
+     *
+     * @param global   the global transaction id
+     * @param branchId the branch qualifier, not copied
+     */
+    ImmutableXid(ImmutableXid global, byte[] branchId) {
+        this(global.formatId, global.globalId, global.globalHash, branchId);
+    }
+
+    private ImmutableXid(int formatId, byte[] globalId, int globalHash, byte[] branchId) {
+        this.formatId = formatId;
+        this.globalId = globalId;
+        this.branchId = branchId;
+        this.globalHash = globalHash;
+        this.hash = 31 * globalHash + Arrays.hashCode(branchId);
+    }
+
+    @Override
+    public int getFormatId() {
+        return formatId;
+    }
+
+    @Override
+    public byte[] getGlobalTransactionId() {
+        return globalId.clone();
+    }
+
+    @Override
+    public byte[] getBranchQualifier() {
+        return branchId.clone();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ImmutableXid)) {
+            return false;
+        }
+        ImmutableXid other = (ImmutableXid) obj;
+        return hash == other.hash
+                && formatId == other.formatId
+                && Arrays.equals(globalId, other.globalId)
+                && Arrays.equals(branchId, other.branchId);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "[Xid:formatId=" + Integer.toHexString(formatId) + ", globalId=" + toHex(globalId)
+                + ", branchId=" + toHex(branchId) + "]";
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
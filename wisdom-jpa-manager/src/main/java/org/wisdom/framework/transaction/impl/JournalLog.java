@@ -0,0 +1,1030 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.transaction.impl;
+
+import org.apache.geronimo.transaction.manager.LogException;
+import org.apache.geronimo.transaction.manager.Recovery;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfo;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfoImpl;
+import org.apache.geronimo.transaction.manager.TransactionLog;
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wisdom.framework.transaction.TransactionLogStatistics;
+
+import javax.transaction.xa.Xid;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * An implementation of the Geronimo Transaction Log writing a journal in preallocated segment files using NIO
+ * file channels.
+ * <p>
+ * Only the prepare records need to be durable. They are forced to disk using group commit: a thread waiting for
+ * its record forces the channel on behalf of all the records appended so far, while the records appended in the
+ * meantime wait for the next force. So, under load, one force makes many transactions durable, without waiting for
+ * a timer as HOWL does. The commit and rollback records are appended without forcing, losing them only leads to
+ * the transaction being resolved again by the recovery.
+ * <p>
+ * The segments are used in turn. When the current segment is full, the journal moves to the next one and copies
+ * the prepare records of the transactions still in doubt into it, so the older segments are not needed anymore.
+ * The previous segment is not forced while moving: it is forced with the new one by the next group commit, and the
+ * checkpoint of the new segment is written once it is durable. Each record carries the generation of its segment
+ * and a CRC32 checksum, the recovery replays the segments by generation and stops at the first invalid record of
+ * each segment.
+ * <p>
+ * Checkpoints bound the recovery time: the journal periodically writes the transactions in doubt and the current
+ * position in a side file, and the recovery loads it and only replays the records appended after it. So the
+ * restart time depends on the number of transactions in flight, not on the size of the segments. The checkpoint is
+ * written every {@link #setCheckpointInterval(long)} records, when moving to a new segment and when the journal is
+ * stopped.
+ * <p>
+ * Records are framed in a buffer reused by all the appends. The resource names are numbered in a table: a resource
+ * record is written the first time a name is used and at the beginning of each segment, and the prepare records only
+ * carry the resource numbers.
+ */
+public class JournalLog implements TransactionLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JournalLog.class);
+
+    static final int MAGIC = 0x574a4e4c;
+    static final byte PREPARE = 1;
+    static final byte COMMIT = 2;
+    static final byte ROLLBACK = 3;
+    static final byte RESOURCE = 4;
+
+    /**
+     * magic (4), type (1), generation (8), id (8), payload length (4), checksum (4).
+     */
+    static final int RECORD_OVERHEAD = 4 + 1 + 8 + 8 + 4 + 4;
+    private static final int HEADER_SIZE = RECORD_OVERHEAD - 4;
+
+    /**
+     * The maximum size of the payload of a prepare record without branches: format id (4), global transaction id
+     * (2 + 64), branch qualifier (2 + 64), branch count (4).
+     */
+    private static final int MAX_XID_SIZE = 4 + 2 + Xid.MAXGTRIDSIZE + 2 + Xid.MAXBQUALSIZE + 4;
+
+    /**
+     * The maximum size of a branch in a prepare record: branch qualifier (2 + 64), resource number (4).
+     */
+    private static final int MAX_BRANCH_SIZE = 2 + Xid.MAXBQUALSIZE + 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int CHECKPOINT_MAGIC = 0x574a4350;
+
+    /**
+     * The default number of records between two checkpoints.
+     */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 10000;
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final int PREALLOCATION_CHUNK = 64 * 1024;
+
+    private final File directory;
+    private final String name;
+    private final int segmentSize;
+    private final int segmentCount;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition forceCompleted = lock.newCondition();
+    private final File checkpointFile;
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+
+    private RandomAccessFile[] files;
+    private FileChannel[] channels;
+    private int current;
+    private long generation;
+    private long position;
+    private long nextId;
+
+    /**
+     * The prepare records of the transactions in doubt, by id.
+     */
+    private final Map<Long, byte[]> active = new LinkedHashMap<>();
+
+    /**
+     * The resource names by number, and the numbers by name.
+     */
+    private final List<String> resources = new ArrayList<>();
+    private final Map<String, Integer> resourceIds = new HashMap<>();
+
+    /**
+     * The buffer in which the records are framed, and the checksum, reused by all the appends.
+     */
+    private ByteBuffer buffer = ByteBuffer.allocate(RECORD_OVERHEAD + MAX_XID_SIZE + 4 * MAX_BRANCH_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    // Group commit state.
+    private long appended;
+    private long forced;
+    private boolean forcing;
+
+    /**
+     * The segments left by a rotation, whose last records are not durable yet. Forced by the next group commit.
+     */
+    private final List<FileChannel> retired = new ArrayList<>();
+
+    /**
+     * The sequence number of the last record copied by the last rotation.
+     */
+    private long rotated;
+
+    /**
+     * The checkpoint of the beginning of the current segment, written once the copied records are durable.
+     */
+    private Checkpoint rotationCheckpoint;
+
+    // Checkpoint state.
+    private long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private long checkpointedRecords;
+    private Checkpoint lastCheckpoint;
+
+    // Statistics.
+    private long appendedBytes;
+    private long forcedBytes;
+    private final TransactionLogMetrics metrics =
+            new TransactionLogMetrics(TransactionManagerService.JOURNAL_LOG, true);
+
+    /**
+     * Creates the journal.
+     *
+     * @param directory    the directory containing the segments
+     * @param name         the name of the segment files
+     * @param segmentSize  the size of a segment in bytes
+     * @param segmentCount the number of segments, at least 2
+     */
+    public JournalLog(File directory, String name, int segmentSize, int segmentCount) {
+        if (segmentCount < 2) {
+            throw new IllegalArgumentException("The journal needs at least 2 segments");
+        }
+        if (segmentSize < 4 * 1024) {
+            throw new IllegalArgumentException("The segment size must be at least 4 KB");
+        }
+        this.directory = directory;
+        this.name = name;
+        this.segmentSize = segmentSize;
+        this.segmentCount = segmentCount;
+        this.checkpointFile = new File(directory, name + ".checkpoint");
+    }
+
+    /**
+     * Sets the number of records appended between two checkpoints.
+     *
+     * @param records the number of records, {@code 0} to only write checkpoints when moving to a new segment and
+     *                when stopping the journal
+     */
+    public void setCheckpointInterval(long records) {
+        if (records < 0) {
+            throw new IllegalArgumentException("The checkpoint interval cannot be negative");
+        }
+        lock.lock();
+        try {
+            this.checkpointInterval = records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Opens the segments, preallocating them if needed, and replays them. The journal then moves to a new segment.
+     *
+     * @throws IOException if the segments cannot be opened
+     */
+    public void start() throws IOException {
+        lock.lock();
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create the journal directory " + directory.getAbsolutePath());
+            }
+            files = new RandomAccessFile[segmentCount];
+            channels = new FileChannel[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                files[i] = new RandomAccessFile(new File(directory, name + "_" + i + ".journal"), "rw");
+                channels[i] = files[i].getChannel();
+                preallocate(channels[i]);
+            }
+            replay();
+            rotate();
+            forceAll();
+            writeCheckpoint(snapshotIfNeeded());
+            LOGGER.debug("Transaction journal started, {} transaction(s) in doubt", active.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces and closes the segments. A checkpoint is written, so the next start does not replay the segments.
+     *
+     * @throws IOException if the segments cannot be closed
+     */
+    public void stop() throws IOException {
+        lock.lock();
+        try {
+            if (channels == null) {
+                return;
+            }
+            forceAll();
+            rotationCheckpoint = null;
+            writeCheckpoint(snapshot());
+            for (RandomAccessFile file : files) {
+                file.close();
+            }
+            channels = null;
+            files = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes zeros up to the segment size, so the blocks are allocated once and forcing the data does not need to
+     * update the file metadata.
+     */
+    private void preallocate(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size >= segmentSize) {
+            return;
+        }
+        ByteBuffer zeros = ByteBuffer.allocate(PREALLOCATION_CHUNK);
+        while (size < segmentSize) {
+            zeros.clear();
+            zeros.limit((int) Math.min(PREALLOCATION_CHUNK, segmentSize - size));
+            size += channel.write(zeros, size);
+        }
+        channel.force(true);
+    }
+
+    /**
+     * Replays the segments by generation, rebuilding the set of transactions in doubt. If the checkpoint is still
+     * valid, i.e. its segment has not been reused since, the replay starts from it.
+     */
+    private void replay() throws IOException {
+        long[] generations = new long[segmentCount];
+        long newest = -1;
+        current = segmentCount - 1;
+        for (int i = 0; i < segmentCount; i++) {
+            generations[i] = readGeneration(channels[i]);
+            if (generations[i] > newest) {
+                newest = generations[i];
+                current = i;
+            }
+        }
+        Checkpoint checkpoint = Checkpoint.read(checkpointFile);
+        long from = 0;
+        if (checkpoint != null && checkpoint.segment >= 0 && checkpoint.segment < segmentCount
+                && checkpoint.position <= segmentSize
+                && generations[checkpoint.segment] == checkpoint.generation) {
+            active.putAll(checkpoint.active);
+            for (int i = 0; i < checkpoint.resources.size(); i++) {
+                if (checkpoint.resources.get(i) != null) {
+                    setResource(i, checkpoint.resources.get(i));
+                }
+            }
+            nextId = checkpoint.nextId;
+            from = checkpoint.generation;
+            LOGGER.debug("Replaying the transaction journal from the checkpoint of generation {}", from);
+        } else if (checkpoint != null) {
+            LOGGER.info("The transaction journal checkpoint is outdated, replaying all the segments");
+            checkpoint = null;
+        }
+        // Replay from the oldest to the newest segment, skipping the segments older than the checkpoint.
+        for (int done = 0; done < segmentCount; done++) {
+            int next = -1;
+            for (int i = 0; i < segmentCount; i++) {
+                if (generations[i] >= from && (next == -1 || generations[i] < generations[next])) {
+                    next = i;
+                }
+            }
+            if (next == -1) {
+                break;
+            }
+            long offset = checkpoint != null && next == checkpoint.segment ? checkpoint.position : 0;
+            replay(read(channels[next], offset), generations[next]);
+            generations[next] = -1;
+        }
+        generation = Math.max(newest, 0);
+    }
+
+    private static long readGeneration(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_OVERHEAD);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // Read the header of the first record.
+        }
+        header.flip();
+        if (header.remaining() < RECORD_OVERHEAD || header.getInt(0) != MAGIC) {
+            return -1;
+        }
+        return header.getLong(5);
+    }
+
+    private ByteBuffer read(FileChannel channel, long offset) throws IOException {
+        ByteBuffer content = ByteBuffer.allocate((int) (segmentSize - offset));
+        while (content.hasRemaining() && channel.read(content, offset + content.position()) > 0) {
+            // Read the end of the segment.
+        }
+        content.flip();
+        return content;
+    }
+
+    private void replay(ByteBuffer content, long segmentGeneration) {
+        int offset = 0;
+        while (content.limit() - offset >= RECORD_OVERHEAD) {
+            if (content.getInt(offset) != MAGIC || content.getLong(offset + 5) != segmentGeneration) {
+                break;
+            }
+            byte type = content.get(offset + 4);
+            long id = content.getLong(offset + 13);
+            int length = content.getInt(offset + 21);
+            if (length < 0 || length > content.limit() - offset - RECORD_OVERHEAD) {
+                break;
+            }
+            crc.reset();
+            crc.update(content.array(), offset, HEADER_SIZE + length);
+            if ((int) crc.getValue() != content.getInt(offset + HEADER_SIZE + length)) {
+                LOGGER.warn("Invalid record in the transaction journal (generation {}), ignoring the end of the " +
+                        "segment", segmentGeneration);
+                break;
+            }
+            if (type == RESOURCE) {
+                setResource((int) id, new String(content.array(), offset + HEADER_SIZE, length, UTF_8));
+                offset += RECORD_OVERHEAD + length;
+                continue;
+            }
+            if (type == PREPARE) {
+                int from = offset + HEADER_SIZE;
+                active.put(id, Arrays.copyOfRange(content.array(), from, from + length));
+            } else {
+                active.remove(id);
+            }
+            nextId = Math.max(nextId, id + 1);
+            offset += RECORD_OVERHEAD + length;
+        }
+    }
+
+    /**
+     * Moves to the next segment, and copies the resource names and the prepare records of the transactions in doubt
+     * into it. The segments are not forced: the previous segment is retired, and forced with the new one by the next
+     * group commit, which makes the checkpoint of the new segment writable. Must be called with the lock held.
+     */
+    private void rotate() throws IOException {
+        if (forced < rotated) {
+            // The copies of the last rotation are not durable, and the segment about to be reused may still be
+            // needed by the recovery. Rare, as the prepares of a whole segment have been forced in between.
+            forceAll();
+        }
+        if (appended > forced) {
+            retired.add(channels[current]);
+        }
+        current = (current + 1) % segmentCount;
+        generation++;
+        position = 0;
+        for (int i = 0; i < resources.size(); i++) {
+            if (resources.get(i) != null) {
+                write(RESOURCE, i, resources.get(i).getBytes(UTF_8));
+                appended++;
+            }
+        }
+        for (Map.Entry<Long, byte[]> entry : active.entrySet()) {
+            write(PREPARE, entry.getKey(), entry.getValue());
+            appended++;
+        }
+        rotated = appended;
+        rotationCheckpoint = snapshot();
+    }
+
+    /**
+     * Forces the retired segments and the current segment. Must be called with the lock held.
+     */
+    private void forceAll() throws IOException {
+        long begin = System.nanoTime();
+        for (FileChannel channel : retired) {
+            channel.force(false);
+        }
+        retired.clear();
+        channels[current].force(false);
+        recordForce(System.nanoTime() - begin);
+    }
+
+    /**
+     * Captures the current state of the journal, to be written as checkpoint once the records appended so far are
+     * durable. Must be called with the lock held.
+     */
+    private Checkpoint snapshot() {
+        checkpointedRecords = appended;
+        return new Checkpoint(generation, current, position, nextId, new LinkedHashMap<>(active),
+                new ArrayList<>(resources));
+    }
+
+    /**
+     * Gets the checkpoint of the last rotation if not written yet, or captures the current state of the journal if
+     * the checkpoint interval has elapsed. Must be called with the lock held.
+     *
+     * @return the state to checkpoint, {@code null} if not needed
+     */
+    private Checkpoint snapshotIfNeeded() {
+        if (rotationCheckpoint != null) {
+            Checkpoint checkpoint = rotationCheckpoint;
+            rotationCheckpoint = null;
+            return checkpoint;
+        }
+        if (checkpointInterval > 0 && appended - checkpointedRecords >= checkpointInterval) {
+            return snapshot();
+        }
+        return null;
+    }
+
+    /**
+     * Writes a checkpoint, unless a more recent one has already been written. The records covered by the
+     * checkpoint must be durable. Failing to write the checkpoint is not fatal, the recovery uses the previous
+     * one.
+     */
+    private void writeCheckpoint(Checkpoint checkpoint) {
+        if (checkpoint == null) {
+            return;
+        }
+        checkpointLock.lock();
+        try {
+            if (lastCheckpoint != null && checkpoint.isBefore(lastCheckpoint)) {
+                return;
+            }
+            checkpoint.write(checkpointFile);
+            lastCheckpoint = checkpoint;
+        } catch (IOException e) {
+            LOGGER.warn("Cannot write the transaction journal checkpoint", e);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    /**
+     * Appends a record to the current segment, moving to the next segment if needed. Must be called with the lock
+     * held.
+     *
+     * @return the sequence number of the record
+     */
+    private long append(byte type, long id, byte[] payload) throws LogException {
+        if (channels == null) {
+            throw new LogException("The transaction journal is not started");
+        }
+        try {
+            if (position + RECORD_OVERHEAD + payload.length > segmentSize) {
+                rotate();
+                if (position + RECORD_OVERHEAD + payload.length > segmentSize) {
+                    throw new LogException("The journal segments are too small to hold the transactions in doubt");
+                }
+            }
+            write(type, id, payload);
+            return ++appended;
+        } catch (IOException e) {
+            throw new LogException(e);
+        }
+    }
+
+    private void write(byte type, long id, byte[] payload) throws IOException {
+        ensureCapacity(RECORD_OVERHEAD + payload.length);
+        buffer.clear();
+        buffer.position(HEADER_SIZE);
+        buffer.put(payload);
+        frame(type, id);
+    }
+
+    /**
+     * Writes the header and the checksum of the record whose payload has been put in the buffer from
+     * {@link #HEADER_SIZE}, and writes the record to the current segment. Must be called with the lock held.
+     */
+    private void frame(byte type, long id) throws IOException {
+        int length = buffer.position() - HEADER_SIZE;
+        if (position + RECORD_OVERHEAD + length > segmentSize) {
+            throw new IOException("The journal segments are too small to hold the transactions in doubt");
+        }
+        buffer.putInt(0, MAGIC).put(4, type).putLong(5, generation).putLong(13, id).putInt(21, length);
+        crc.reset();
+        crc.update(buffer.array(), 0, HEADER_SIZE + length);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channels[current].write(buffer, position);
+        }
+        appendedBytes += buffer.limit();
+    }
+
+    /**
+     * Waits until the record with the given sequence number is durable. If no force is in progress, the calling
+     * thread forces the channel, and the segments retired since the last force, for all the records appended so
+     * far, otherwise it waits for the running force and checks again.
+     *
+     * @param sequence the sequence number of the record
+     */
+    private void awaitForce(long sequence) throws LogException {
+        lock.lock();
+        try {
+            while (forced < sequence) {
+                if (forcing) {
+                    forceCompleted.await();
+                    continue;
+                }
+                forcing = true;
+                long target = appended;
+                long bytes = appendedBytes;
+                FileChannel channel = channels[current];
+                List<FileChannel> previous = null;
+                if (!retired.isEmpty()) {
+                    previous = new ArrayList<>(retired);
+                    retired.clear();
+                }
+                IOException failure = null;
+                long begin = System.nanoTime();
+                lock.unlock();
+                try {
+                    if (previous != null) {
+                        for (FileChannel segment : previous) {
+                            segment.force(false);
+                        }
+                    }
+                    channel.force(false);
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    lock.lock();
+                }
+                forcing = false;
+                forceCompleted.signalAll();
+                if (failure != null) {
+                    if (previous != null) {
+                        // Not durable, the next force must retry them.
+                        retired.addAll(previous);
+                    }
+                    throw new LogException(failure);
+                }
+                if (target > forced) {
+                    metrics.recordForce(System.nanoTime() - begin, target - forced, bytes - forcedBytes);
+                    forced = target;
+                    forcedBytes = bytes;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LogException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a force made while holding the lock. Must be called with the lock held.
+     */
+    private void recordForce(long duration) {
+        metrics.recordForce(duration, appended - forced, appendedBytes - forcedBytes);
+        forced = appended;
+        forcedBytes = appendedBytes;
+        forceCompleted.signalAll();
+    }
+
+    /**
+     * Begins a transaction.
+     *
+     * @param xid the id
+     */
+    @Override
+    public void begin(Xid xid) {
+        // Do nothing.
+    }
+
+    /**
+     * Prepares a transaction. The method returns once the prepare record is durable.
+     *
+     * @param xid      the id
+     * @param branches the branches
+     * @return the log mark to use in commit/rollback calls.
+     * @throws LogException on error
+     */
+    @Override
+    public Object prepare(Xid xid, List<? extends TransactionBranchInfo> branches) throws LogException {
+        long begin = System.nanoTime();
+        byte[] payload;
+        long sequence;
+        long id;
+        Checkpoint checkpoint;
+        lockAndRecordWait();
+        try {
+            for (TransactionBranchInfo branch : branches) {
+                registerResource(branch.getResourceName());
+            }
+            payload = encode(xid, branches);
+            id = nextId++;
+            sequence = append(PREPARE, id, payload);
+            active.put(id, payload);
+            checkpoint = snapshotIfNeeded();
+        } finally {
+            lock.unlock();
+        }
+        awaitForce(sequence);
+        metrics.recordPrepare(System.nanoTime() - begin, RECORD_OVERHEAD + payload.length);
+        if (checkpoint != null) {
+            writeCheckpoint(checkpoint);
+        }
+        return id;
+    }
+
+    /**
+     * Commits a transaction.
+     *
+     * @param xid     the id
+     * @param logMark the mark returned by {@link #prepare(Xid, List)}
+     * @throws LogException on error
+     */
+    @Override
+    public void commit(Xid xid, Object logMark) throws LogException {
+        done(COMMIT, logMark);
+    }
+
+    /**
+     * Rollbacks a transaction.
+     *
+     * @param xid     the id
+     * @param logMark the mark returned by {@link #prepare(Xid, List)}
+     * @throws LogException on error
+     */
+    @Override
+    public void rollback(Xid xid, Object logMark) throws LogException {
+        done(ROLLBACK, logMark);
+    }
+
+    private void done(byte type, Object logMark) throws LogException {
+        if (!(logMark instanceof Long)) {
+            return;
+        }
+        long begin = System.nanoTime();
+        long sequence;
+        Checkpoint checkpoint;
+        lockAndRecordWait();
+        try {
+            if (active.remove(logMark) == null) {
+                return;
+            }
+            sequence = append(type, (Long) logMark, EMPTY);
+            checkpoint = snapshotIfNeeded();
+        } finally {
+            lock.unlock();
+        }
+        if (type == COMMIT) {
+            metrics.recordCommit(System.nanoTime() - begin, RECORD_OVERHEAD);
+        } else {
+            metrics.recordRollback(System.nanoTime() - begin, RECORD_OVERHEAD);
+        }
+        if (checkpoint != null) {
+            // The commit and rollback records are not forced, but the checkpoint must only cover durable records.
+            awaitForce(sequence);
+            writeCheckpoint(checkpoint);
+        }
+    }
+
+    /**
+     * Acquires the lock protecting the current segment, recording the time spent waiting for it.
+     */
+    private void lockAndRecordWait() {
+        if (lock.tryLock()) {
+            metrics.recordBufferWait(0);
+            return;
+        }
+        long begin = System.nanoTime();
+        lock.lock();
+        metrics.recordBufferWait(System.nanoTime() - begin);
+    }
+
+    /**
+     * Gets the transactions in doubt, i.e. prepared but neither committed nor rolled back.
+     *
+     * @param xidFactory Xid factory
+     * @return the recovered xids with their branches
+     * @throws LogException on error
+     */
+    @Override
+    public Collection<Recovery.XidBranchesPair> recover(XidFactory xidFactory) throws LogException {
+        List<Recovery.XidBranchesPair> recovered = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Map.Entry<Long, byte[]> entry : active.entrySet()) {
+                recovered.add(decode(xidFactory, entry.getKey(), entry.getValue(), resources));
+            }
+        } catch (IOException e) {
+            throw new LogException(e);
+        } finally {
+            lock.unlock();
+        }
+        LOGGER.debug("{} transaction(s) in doubt recovered from the journal", recovered.size());
+        return recovered;
+    }
+
+    /**
+     * Numbers the given resource if not done yet, appending a resource record. The number is only assigned once
+     * the record has been appended, so a failed append does not leave a number without record. Must be called with
+     * the lock held.
+     */
+    private void registerResource(String resource) throws LogException {
+        if (!resourceIds.containsKey(resource)) {
+            int id = resources.size();
+            append(RESOURCE, id, resource.getBytes(UTF_8));
+            setResource(id, resource);
+        }
+    }
+
+    private void setResource(int id, String resource) {
+        while (resources.size() <= id) {
+            resources.add(null);
+        }
+        resources.set(id, resource);
+        resourceIds.put(resource, id);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocate(capacity);
+        }
+    }
+
+    /**
+     * Encodes the payload of a prepare record in the buffer. The resources of the branches must have been
+     * registered. Must be called with the lock held.
+     *
+     * @return a copy of the payload, kept while the transaction is in doubt
+     */
+    private byte[] encode(Xid xid, List<? extends TransactionBranchInfo> branches) {
+        ensureCapacity(RECORD_OVERHEAD + MAX_XID_SIZE + branches.size() * MAX_BRANCH_SIZE);
+        buffer.clear();
+        buffer.position(HEADER_SIZE);
+        buffer.putInt(xid.getFormatId());
+        putBytes(buffer, xid.getGlobalTransactionId());
+        putBytes(buffer, xid.getBranchQualifier());
+        buffer.putInt(branches.size());
+        for (TransactionBranchInfo branch : branches) {
+            putBytes(buffer, branch.getBranchXid().getBranchQualifier());
+            buffer.putInt(resourceIds.get(branch.getResourceName()));
+        }
+        return Arrays.copyOfRange(buffer.array(), HEADER_SIZE, buffer.position());
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] value) {
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+    }
+
+    static Recovery.XidBranchesPair decode(XidFactory xidFactory, long id, byte[] payload, List<String> resources)
+            throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        try {
+            int formatId = in.getInt();
+            byte[] globalId = getBytes(in);
+            byte[] branchId = getBytes(in);
+            Recovery.XidBranchesPair pair = new Recovery.XidBranchesPair(xidFactory.recover(formatId, globalId,
+                    branchId), id);
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                byte[] branchQualifier = getBytes(in);
+                int resource = in.getInt();
+                if (resource < 0 || resource >= resources.size() || resources.get(resource) == null) {
+                    throw new IOException("Unknown resource number " + resource + " in the transaction journal");
+                }
+                pair.addBranch(new TransactionBranchInfoImpl(xidFactory.recover(formatId, globalId,
+                        branchQualifier), resources.get(resource)));
+            }
+            return pair;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated prepare record in the transaction journal", e);
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer in) {
+        byte[] value = new byte[in.getShort() & 0xFFFF];
+        in.get(value);
+        return value;
+    }
+
+    /**
+     * @return the number of forces
+     */
+    public long getForceCount() {
+        return metrics.getForceCount();
+    }
+
+    /**
+     * @return the statistics of the journal
+     */
+    public TransactionLogStatistics getStatistics() {
+        return metrics;
+    }
+
+    /**
+     * @return the number of transactions in doubt
+     */
+    public int getActiveCount() {
+        lock.lock();
+        try {
+            return active.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves statistics
+     *
+     * @return the statistics as XML.
+     */
+    @Override
+    public String getXMLStats() {
+        lock.lock();
+        try {
+            return "<journal-log>"
+                    + "<segments>" + segmentCount + "</segments>"
+                    + "<generation>" + generation + "</generation>"
+                    + "<active>" + active.size() + "</active>"
+                    + "<records>" + appended + "</records>"
+                    + "<forces>" + metrics.getForceCount() + "</forces>"
+                    + "<average-force-time>" + getAverageForceTime() + "</average-force-time>"
+                    + "<average-bytes-per-force>" + getAverageBytesPerForce() + "</average-bytes-per-force>"
+                    + "</journal-log>";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the average duration of a force, in milliseconds
+     */
+    @Override
+    public int getAverageForceTime() {
+        return metrics.getAverageForceTime();
+    }
+
+    /**
+     * @return the average number of bytes made durable by a force
+     */
+    @Override
+    public int getAverageBytesPerForce() {
+        return (int) metrics.getBytesPerForce();
+    }
+
+    /**
+     * The state of the journal at a given position: the transactions in doubt and the next id. The checkpoint file
+     * is written to a temporary file, forced, and then renamed, and the directory is forced, so a crash leaves either
+     * the previous or the new checkpoint. It ends with a CRC32 checksum.
+     */
+    private static final class Checkpoint {
+        private final long generation;
+        private final int segment;
+        private final long position;
+        private final long nextId;
+        private final Map<Long, byte[]> active;
+        private final List<String> resources;
+
+        private Checkpoint(long generation, int segment, long position, long nextId, Map<Long, byte[]> active,
+                           List<String> resources) {
+            this.generation = generation;
+            this.segment = segment;
+            this.position = position;
+            this.nextId = nextId;
+            this.active = active;
+            this.resources = resources;
+        }
+
+        private boolean isBefore(Checkpoint other) {
+            return generation < other.generation || (generation == other.generation && position < other.position);
+        }
+
+        private void write(File file) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + active.size() * 128);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(CHECKPOINT_MAGIC);
+                out.writeLong(generation);
+                out.writeInt(segment);
+                out.writeLong(position);
+                out.writeLong(nextId);
+                out.writeInt(resources.size());
+                for (String resource : resources) {
+                    // The numbers read from the segments may have gaps.
+                    out.writeBoolean(resource != null);
+                    if (resource != null) {
+                        out.writeUTF(resource);
+                    }
+                }
+                out.writeInt(active.size());
+                for (Map.Entry<Long, byte[]> entry : active.entrySet()) {
+                    out.writeLong(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    out.write(entry.getValue());
+                }
+                CRC32 crc = new CRC32();
+                crc.update(bytes.toByteArray());
+                out.writeInt((int) crc.getValue());
+            }
+            File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+            try (FileOutputStream stream = new FileOutputStream(tmp)) {
+                stream.write(bytes.toByteArray());
+                stream.getChannel().force(true);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            // Make the rename durable.
+            try (FileChannel directory = FileChannel.open(file.getAbsoluteFile().getParentFile().toPath(),
+                    StandardOpenOption.READ)) {
+                directory.force(true);
+            } catch (IOException e) { //NOSONAR
+                // Directories cannot be opened or forced on some platforms (Windows).
+                LOGGER.trace("Cannot force the directory of {}", file.getAbsolutePath(), e);
+            }
+        }
+
+        /**
+         * Reads a checkpoint file.
+         *
+         * @param file the file
+         * @return the checkpoint, {@code null} if the file does not exist or is invalid
+         */
+        private static Checkpoint read(File file) {
+            if (!file.isFile()) {
+                return null;
+            }
+            try {
+                byte[] content = Files.readAllBytes(file.toPath());
+                if (content.length < 4) {
+                    throw new IOException("Truncated checkpoint");
+                }
+                CRC32 crc = new CRC32();
+                crc.update(content, 0, content.length - 4);
+                if ((int) crc.getValue() != ByteBuffer.wrap(content, content.length - 4, 4).getInt()) {
+                    throw new IOException("Invalid checkpoint checksum");
+                }
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, 0, content.length - 4));
+                if (in.readInt() != CHECKPOINT_MAGIC) {
+                    throw new IOException("Not a checkpoint file");
+                }
+                long generation = in.readLong();
+                int segment = in.readInt();
+                long position = in.readLong();
+                long nextId = in.readLong();
+                List<String> resources = new ArrayList<>();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    resources.add(in.readBoolean() ? in.readUTF() : null);
+                }
+                count = in.readInt();
+                Map<Long, byte[]> active = new LinkedHashMap<>();
+                for (int i = 0; i < count; i++) {
+                    long id = in.readLong();
+                    byte[] payload = new byte[in.readInt()];
+                    in.readFully(payload);
+                    active.put(id, payload);
+                }
+                return new Checkpoint(generation, segment, position, nextId, active, resources);
+            } catch (IOException e) {
+                LOGGER.warn("Cannot read the transaction journal checkpoint {}, replaying all the segments",
+                        file.getAbsolutePath(), e);
+                return null;
+            }
+        }
+    }
+}
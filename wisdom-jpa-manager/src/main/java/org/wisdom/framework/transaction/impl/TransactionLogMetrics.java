@@ -0,0 +1,171 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.transaction.impl;
+
+import org.wisdom.framework.transaction.LatencyHistogram;
+import org.wisdom.framework.transaction.TransactionLogStatistics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the statistics of a transaction log. The logs call the {@code record} methods on their hot path, so
+ * they only update histograms and atomic counters.
+ * <p>
+ * When the log does not report its forces (HOWL forces its buffers internally), each prepare is counted as a force,
+ * as only the prepare records wait for one. The force count is then an upper bound, and the records and bytes per
+ * force lower bounds.
+ */
+class TransactionLogMetrics implements TransactionLogStatistics {
+
+    private final String type;
+    private final boolean reportsForces;
+
+    private final LatencyHistogram prepare = new LatencyHistogram();
+    private final LatencyHistogram commit = new LatencyHistogram();
+    private final LatencyHistogram rollback = new LatencyHistogram();
+    private final LatencyHistogram force = new LatencyHistogram();
+    private final LatencyHistogram bufferWait = new LatencyHistogram();
+
+    private final AtomicLong appendedRecords = new AtomicLong();
+    private final AtomicLong appendedBytes = new AtomicLong();
+    private final AtomicLong forcedRecords = new AtomicLong();
+    private final AtomicLong forcedBytes = new AtomicLong();
+
+    /**
+     * @param type          the type of log
+     * @param reportsForces whether the log calls {@link #recordForce(long, long, long)}
+     */
+    TransactionLogMetrics(String type, boolean reportsForces) {
+        this.type = type;
+        this.reportsForces = reportsForces;
+    }
+
+    void recordPrepare(long nanos, long bytes) {
+        prepare.record(nanos);
+        recordAppend(bytes);
+    }
+
+    void recordCommit(long nanos, long bytes) {
+        commit.record(nanos);
+        recordAppend(bytes);
+    }
+
+    void recordRollback(long nanos, long bytes) {
+        rollback.record(nanos);
+        recordAppend(bytes);
+    }
+
+    private void recordAppend(long bytes) {
+        appendedRecords.incrementAndGet();
+        appendedBytes.addAndGet(bytes);
+    }
+
+    void recordBufferWait(long nanos) {
+        bufferWait.record(nanos);
+    }
+
+    /**
+     * Records a force.
+     *
+     * @param nanos   the duration of the force
+     * @param records the number of records made durable by the force
+     * @param bytes   the number of bytes made durable by the force
+     */
+    void recordForce(long nanos, long records, long bytes) {
+        force.record(nanos);
+        forcedRecords.addAndGet(records);
+        forcedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * @return the average duration of a force in milliseconds, or of a prepare if the log does not report its forces
+     */
+    int getAverageForceTime() {
+        double mean = reportsForces ? force.getMean() : prepare.getMean();
+        return (int) TimeUnit.MICROSECONDS.toMillis(Math.round(mean));
+    }
+
+    @Override
+    public String getLogType() {
+        return type;
+    }
+
+    @Override
+    public LatencyHistogram getPrepareLatency() {
+        return prepare;
+    }
+
+    @Override
+    public LatencyHistogram getCommitLatency() {
+        return commit;
+    }
+
+    @Override
+    public LatencyHistogram getRollbackLatency() {
+        return rollback;
+    }
+
+    @Override
+    public LatencyHistogram getForceLatency() {
+        return force;
+    }
+
+    @Override
+    public LatencyHistogram getBufferWaitLatency() {
+        return bufferWait;
+    }
+
+    @Override
+    public long getForceCount() {
+        return reportsForces ? force.getCount() : prepare.getCount();
+    }
+
+    @Override
+    public double getRecordsPerForce() {
+        long forces = getForceCount();
+        if (forces == 0) {
+            return 0;
+        }
+        return (double) (reportsForces ? forcedRecords.get() : appendedRecords.get()) / forces;
+    }
+
+    @Override
+    public double getBytesPerForce() {
+        long forces = getForceCount();
+        if (forces == 0) {
+            return 0;
+        }
+        return (double) (reportsForces ? forcedBytes.get() : appendedBytes.get()) / forces;
+    }
+
+    @Override
+    public void reset() {
+        prepare.reset();
+        commit.reset();
+        rollback.reset();
+        force.reset();
+        bufferWait.reset();
+        appendedRecords.set(0);
+        appendedBytes.set(0);
+        forcedRecords.set(0);
+        forcedBytes.set(0);
+    }
+}
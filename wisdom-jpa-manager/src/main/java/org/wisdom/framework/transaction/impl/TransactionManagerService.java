@@ -24,13 +24,23 @@ import org.apache.geronimo.transaction.log.UnrecoverableLog;
 import org.apache.geronimo.transaction.manager.*;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.wisdom.api.configuration.ApplicationConfiguration;
+import org.wisdom.framework.transaction.TransactionLogStatistics;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.transaction.TransactionManager;
 import javax.transaction.TransactionSynchronizationRegistry;
 import javax.transaction.UserTransaction;
 import javax.transaction.xa.XAException;
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Dictionary;
+import java.util.Hashtable;
 
 @SuppressWarnings("UnusedDeclaration")
 @Component(immediate = true)
@@ -54,9 +64,33 @@ public class TransactionManagerService {
     public static final String HOWL_THREADS_WAITING_FORCE_THRESHOLD = "wisdom.transaction.howl.threadsWaitingForceThreshold";
     public static final String HOWL_LOG_FILE_DIR = "wisdom.transaction.howl.logFileDir";
     public static final String HOWL_FLUSH_PARTIAL_BUFFERS = "wisdom.transaction.flushPartialBuffers";
+    public static final String TRANSACTION_LOG = "wisdom.transaction.log";
+    public static final String JOURNAL_DIR = "wisdom.transaction.journal.dir";
+    public static final String JOURNAL_SEGMENT_SIZE = "wisdom.transaction.journal.segmentSize";
+    public static final String JOURNAL_SEGMENTS = "wisdom.transaction.journal.segments";
+    public static final String JOURNAL_CHECKPOINT_INTERVAL = "wisdom.transaction.journal.checkpointInterval";
+
+    /**
+     * The transaction log based on HOWL, used by default.
+     */
+    public static final String HOWL_LOG = "howl";
+
+    /**
+     * The transaction log based on the NIO journal, see {@link JournalLog}.
+     */
+    public static final String JOURNAL_LOG = "journal";
+
+    /**
+     * The service property of the {@link TransactionLogStatistics} service holding the type of log.
+     */
+    public static final String LOG_TYPE_PROP = "transaction.log.type";
 
     public static final int DEFAULT_TRANSACTION_TIMEOUT = 600; // 600 seconds -> 10 minutes
     public static final boolean DEFAULT_RECOVERABLE = false;   // not recoverable by default
+    public static final int DEFAULT_JOURNAL_SEGMENT_SIZE = 4096; // in KB
+    public static final int DEFAULT_JOURNAL_SEGMENTS = 2;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransactionManagerService.class);
 
     public static TransactionManager transactionManager;
 
@@ -67,6 +101,8 @@ public class TransactionManagerService {
 
     private final BundleContext bundleContext;
     private ServiceRegistration<?> registration;
+    private ServiceRegistration<TransactionLogStatistics> statisticsRegistration;
+    private ObjectName statisticsName;
 
     public static TransactionManager get() {
         return transactionManager;
@@ -84,7 +120,28 @@ public class TransactionManagerService {
         // the max length of the factory should be 64
         XidFactory xidFactory = new XidFactoryImpl(tmid.substring(0, Math.min(tmid.length(), 64)).getBytes());
         // Transaction log
-        if (configuration.getBooleanWithDefault(RECOVERABLE, DEFAULT_RECOVERABLE)) {
+        boolean recoverable = configuration.getBooleanWithDefault(RECOVERABLE, DEFAULT_RECOVERABLE);
+        String log = configuration.getWithDefault(TRANSACTION_LOG, HOWL_LOG);
+        if (recoverable && JOURNAL_LOG.equals(log)) {
+            int segmentSizeKBytes = configuration.getIntegerWithDefault(JOURNAL_SEGMENT_SIZE,
+                    DEFAULT_JOURNAL_SEGMENT_SIZE);
+            int segments = configuration.getIntegerWithDefault(JOURNAL_SEGMENTS, DEFAULT_JOURNAL_SEGMENTS);
+            final File dir = new File(configuration.getBaseDir(),
+                    configuration.getWithDefault(JOURNAL_DIR, ".journal"));
+            try {
+                JournalLog journal = new JournalLog(dir, "transaction", segmentSizeKBytes * 1024, segments);
+                journal.setCheckpointInterval(configuration.getLongWithDefault(JOURNAL_CHECKPOINT_INTERVAL,
+                        JournalLog.DEFAULT_CHECKPOINT_INTERVAL));
+                journal.start();
+                transactionLog = journal;
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot instantiate the transaction journal", e);
+            }
+        } else if (recoverable) {
+            if (!HOWL_LOG.equals(log)) {
+                throw new IllegalArgumentException("Unknown transaction log '" + log + "', supported logs are " +
+                        HOWL_LOG + " and " + JOURNAL_LOG);
+            }
             String bufferClassName = configuration.getWithDefault(HOWL_BUFFER_CLASS_NAME, "org.objectweb.howl.log.BlockLogBuffer");
             int bufferSizeKBytes = configuration.getIntegerWithDefault(HOWL_BUFFER_SIZE, 4);
             if (bufferSizeKBytes < 1 || bufferSizeKBytes > 32) {
@@ -156,6 +213,36 @@ public class TransactionManagerService {
                 MonitorableTransactionManager.class.getName(),
                 RecoverableTransactionManager.class.getName()
         }, transactionManager, null);
+        registerStatistics();
+    }
+
+    /**
+     * Publishes the statistics of the recoverable transaction logs as a service and as a JMX MXBean.
+     */
+    private void registerStatistics() {
+        TransactionLogStatistics statistics = null;
+        if (transactionLog instanceof HowlLog) {
+            statistics = ((HowlLog) transactionLog).getStatistics();
+        } else if (transactionLog instanceof JournalLog) {
+            statistics = ((JournalLog) transactionLog).getStatistics();
+        }
+        if (statistics == null) {
+            return;
+        }
+        Dictionary<String, Object> properties = new Hashtable<>();
+        properties.put(LOG_TYPE_PROP, statistics.getLogType());
+        statisticsRegistration = bundleContext.registerService(TransactionLogStatistics.class, statistics,
+                properties);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(TransactionLogStatistics.OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(statistics, name);
+                statisticsName = name;
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Cannot register the transaction log statistics in JMX", e);
+        }
     }
 
     @Invalidate
@@ -164,9 +251,23 @@ public class TransactionManagerService {
             registration.unregister();
             registration = null;
         }
+        if (statisticsRegistration != null) {
+            statisticsRegistration.unregister();
+            statisticsRegistration = null;
+        }
+        if (statisticsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(statisticsName);
+            } catch (JMException e) {
+                LOGGER.warn("Cannot unregister the transaction log statistics from JMX", e);
+            }
+            statisticsName = null;
+        }
 
         if (transactionLog instanceof HowlLog) {
             ((HowlLog) transactionLog).stop();
+        } else if (transactionLog instanceof JournalLog) {
+            ((JournalLog) transactionLog).stop();
         }
     }
 
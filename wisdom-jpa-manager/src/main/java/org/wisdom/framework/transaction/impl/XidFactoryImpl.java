@@ -20,9 +20,9 @@
 package org.wisdom.framework.transaction.impl;
 
 import org.apache.geronimo.transaction.manager.XidFactory;
-import org.apache.geronimo.transaction.manager.XidImpl;
 
 import javax.transaction.xa.Xid;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Factory for transaction ids that are ever increasing allowing determination of new transactions.
@@ -33,11 +33,14 @@ import javax.transaction.xa.Xid;
  * <ol>
  * We can't easily extend geronimo XidFactoryImpl because count is private. This class is very close to the Aries
  * implementation from org.apache.aries.transaction.manager-1.0.1.
+ * <p>
+ * The ids are allocated from an atomic counter, so creating Xids does not contend on a lock, and the created Xids
+ * are {@link ImmutableXid}s, whose hash code is computed once.
  */
 public class XidFactoryImpl implements XidFactory {
     private final byte[] baseId = new byte[Xid.MAXGTRIDSIZE];
     private final long start = System.currentTimeMillis();
-    private long count = start;
+    private final AtomicLong count = new AtomicLong(start);
 
     /**
      * Creates an instance of the factory
@@ -53,12 +56,8 @@ public class XidFactoryImpl implements XidFactory {
      */
     public Xid createXid() {
         byte[] globalId = baseId.clone();
-        long id;
-        synchronized (this) {
-            id = count++;
-        }
-        insertLong(id, globalId, 0);
-        return new XidImpl(globalId);
+        insertLong(count.getAndIncrement(), globalId, 0);
+        return new ImmutableXid(globalId);
     }
 
     /**
@@ -74,7 +73,10 @@ public class XidFactoryImpl implements XidFactory {
         branchId[2] = (byte) (branch >>> 16);
         branchId[3] = (byte) (branch >>> 24);
         insertLong(start, branchId, 4);
-        return new XidImpl(globalId, branchId);
+        if (globalId instanceof ImmutableXid) {
+            return new ImmutableXid((ImmutableXid) globalId, branchId);
+        }
+        return new ImmutableXid(globalId.getFormatId(), globalId.getGlobalTransactionId(), branchId);
     }
 
     /**
@@ -120,7 +122,7 @@ public class XidFactoryImpl implements XidFactory {
     }
 
     public Xid recover(int formatId, byte[] globalTransactionId, byte[] branchQualifier) {
-        return new XidImpl(formatId, globalTransactionId, branchQualifier);
+        return new ImmutableXid(formatId, globalTransactionId, branchQualifier);
     }
 
     static void insertLong(long value, byte[] bytes, int offset) {
@@ -20,7 +20,10 @@
 package org.wisdom.framework.it;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -33,6 +36,12 @@ import org.wisdom.framework.entities.ClassRoom;
 import org.wisdom.framework.entities.Student;
 import org.wisdom.framework.entities.vehicules.Car;
 import org.wisdom.framework.entities.vehicules.Driver;
+import org.wisdom.framework.jpa.crud.AbstractJTACrud;
+import org.wisdom.framework.jpa.crud.CriteriaFilter;
+import org.wisdom.framework.jpa.crud.EntityConsumer;
+import org.wisdom.framework.jpa.crud.Page;
+import org.wisdom.framework.jpa.crud.Sort;
+import org.wisdom.framework.jpa.crud.ProgressListener;
 import org.wisdom.framework.transaction.impl.TransactionManagerService;
 import org.wisdom.test.parents.Filter;
 import org.wisdom.test.parents.WisdomTest;
@@ -40,13 +49,19 @@ import org.wisdom.test.parents.WisdomTest;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 import javax.transaction.*;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -282,12 +297,37 @@ public class JPAManagerIT extends WisdomTest {
                 return student.getName().equalsIgnoreCase("A");
             }
         })).isNotNull();
-        
+
+        // Same using criteria filters (evaluated by the database)
+        assertThat(students.findAll(CriteriaFilter.<Student>where("name", CriteriaFilter.Operator.NOT_EQUALS, "A")))
+                .hasSize(2);
+        assertThat(students.findOne(CriteriaFilter.<Student>where("name", "A"))).isNotNull();
+        assertThat(students.findOne(CriteriaFilter.<Student>where("name", "Z"))).isNull();
+        assertThat(students.findAll(CriteriaFilter.<Student>where("name", CriteriaFilter.Operator.IN,
+                ImmutableList.of("A", "C")))).hasSize(2);
+        AbstractJTACrud<Student, Integer> crud = (AbstractJTACrud<Student, Integer>) students;
+        assertThat(crud.count(CriteriaFilter.<Student>where("name", CriteriaFilter.Operator.LIKE, "%"))).isEqualTo(3);
+        assertThat(crud.count(CriteriaFilter.<Student>where("name", "B"))).isEqualTo(1);
+        assertThat(crud.count(new EntityFilter<Student>() {
+            @Override
+            public boolean accept(Student student) {
+                return student.getName().equalsIgnoreCase("C");
+            }
+        })).isEqualTo(1);
+
         assertThat(students.findOne(student1.getId())).isNotNull();
         assertThat(students.findOne(-1)).isNull();
+        assertThat(students.findAll(ImmutableList.of(student3.getId(), -1, student1.getId())))
+                .containsExactly(students.findOne(student3.getId()), students.findOne(student1.getId()));
+        // Ids are converted to the mapped type
+        Crud<Student, String> byName = (Crud) students;
+        assertThat(byName.findAll(ImmutableList.of(String.valueOf(student1.getId()))))
+                .containsExactly(students.findOne(student1.getId()));
 
         assertThat(students.exists(student1.getId())).isTrue();
         assertThat(students.exists(-1)).isFalse();
+        assertThat(byName.exists(String.valueOf(student1.getId()))).isTrue();
+        assertThat(byName.exists("-1")).isFalse();
 
         assertThat(students.getEntityClass()).isEqualTo(Student.class);
         assertThat(students.getIdClass()).isEqualTo(Integer.TYPE);
@@ -323,10 +363,51 @@ public class JPAManagerIT extends WisdomTest {
         assertThat(students.count()).isEqualTo(1);
         students.delete(ImmutableList.of(student3, student1));
         assertThat(students.count()).isEqualTo(0);
+
+        // Bulk deletions
+        List<Student> list = new ArrayList<>();
+        for (String name : ImmutableList.of("E", "F", "G", "H")) {
+            Student student = new Student();
+            student.setName(name);
+            list.add(student);
+        }
+        students.save(list);
+        assertThat(crud.deleteAllById(ImmutableList.of(list.get(0).getId(), list.get(1).getId(), -1)))
+                .isEqualTo(2);
+        assertThat(students.findOne(list.get(0).getId())).isNull();
+        assertThat(students.count()).isEqualTo(2);
+        assertThat(crud.deleteWhere(CriteriaFilter.<Student>where("name", "G"))).isEqualTo(1);
+        assertThat(crud.deleteWhere(new EntityFilter<Student>() {
+            @Override
+            public boolean accept(Student student) {
+                return student.getName().equals("H");
+            }
+        })).isEqualTo(1);
+        assertThat(students.count()).isEqualTo(0);
     }
 
     @Test
-    public void testCarCrudService() throws HasBeenRollBackException {
+    public void testAsynchronousOperationsOfTheLocalUnit() throws InterruptedException, ExecutionException {
+        // Students belong to the resource-local unit, whose crud services share a single entity manager. Operations
+        // submitted back to back must not run concurrently on it.
+        AbstractJTACrud<Student, Integer> crud = (AbstractJTACrud<Student, Integer>) students;
+        List<ListenableFuture<Student>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Student student = new Student();
+            student.setName("async-" + i);
+            futures.add(crud.saveAsync(student));
+        }
+        ListenableFuture<Long> count = crud.countAsync();
+        for (ListenableFuture<Student> future : futures) {
+            assertThat(future.get()).isNotNull();
+        }
+        assertThat(count.get()).isEqualTo(20);
+        assertThat(crud.deleteWhere(CriteriaFilter.<Student>where("name", CriteriaFilter.Operator.LIKE, "async-%")))
+                .isEqualTo(20);
+    }
+
+    @Test
+    public void testCarCrudService() throws HasBeenRollBackException, InterruptedException, ExecutionException {
         Car car1 = new Car();
         car1.setName("A");
         cars.save(car1);
@@ -355,9 +436,25 @@ public class JPAManagerIT extends WisdomTest {
         assertThat(cars.findOne(car1.getId())).isNotNull();
         assertThat(cars.findOne(-1l)).isNull();
 
+        // Update of a detached instance
+        car1.setName("A2");
+        Car saved = cars.save(car1);
+        assertThat(saved.getId()).isEqualTo(car1.getId());
+        assertThat(cars.findOne(car1.getId()).getName()).isEqualTo("A2");
+        assertThat(cars.count()).isEqualTo(3);
+        car1.setName("A");
+        cars.save(car1);
+
         assertThat(cars.exists(car1.id)).isTrue();
         assertThat(cars.exists(-1l)).isFalse();
 
+        // Fetch joins
+        AbstractJTACrud<Car, Long> fetching = (AbstractJTACrud<Car, Long>) cars;
+        assertThat(fetching.findOne(car1.getId(), "drivers").getName()).isEqualTo("A");
+        assertThat(fetching.findOne(-1l, "drivers")).isNull();
+        assertThat(fetching.findAll("drivers")).hasSize(3);
+        assertThat(fetching.findAll(CriteriaFilter.<Car>where("name", "B"), "drivers")).hasSize(1);
+
         assertThat(cars.getEntityClass()).isEqualTo(Car.class);
         assertThat(cars.getIdClass()).isEqualTo(Long.class);
         assertThat(cars.getRepository()).isNotNull();
@@ -380,6 +477,170 @@ public class JPAManagerIT extends WisdomTest {
 
         assertThat(cars.count()).isEqualTo(0);
 
+        // Bulk save
+        List<Car> fleet = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            Car car = new Car();
+            car.setName("car-" + i);
+            fleet.add(car);
+        }
+        final List<Long> progress = new ArrayList<>();
+        AbstractJTACrud<Car, Long> crud = (AbstractJTACrud<Car, Long>) cars;
+        assertThat(crud.saveInBatches(fleet, 10, true, new ProgressListener() {
+            @Override
+            public void onProgress(long processed) {
+                progress.add(processed);
+            }
+        })).isEqualTo(25);
+        assertThat(progress).containsExactly(10L, 20L, 25L);
+        assertThat(cars.count()).isEqualTo(25);
+
+        // Paging
+        Page<Car> page = crud.findPage(Sort.ascending("id"), 10, (Page.Key) null);
+        assertThat(page.getContent()).hasSize(10);
+        assertThat(page.hasNext()).isTrue();
+        Set<Long> seen = new HashSet<>();
+        int pages = 0;
+        while (page != null) {
+            for (Car car : page.getContent()) {
+                assertThat(seen.add(car.getId())).isTrue();
+            }
+            pages++;
+            page = page.hasNext() ? crud.findPage(Sort.ascending("id"), 10, page.getNext()) : null;
+        }
+        assertThat(pages).isEqualTo(3);
+        assertThat(seen).hasSize(25);
+
+        Page<Car> byName = crud.findPage(Sort.descending("name"), 5, (Page.Key) null);
+        assertThat(byName.getContent().get(0).getName()).isEqualTo("car-9");
+        Page<Car> nextByName = crud.findPage(Sort.descending("name"), 5, byName.getNext());
+        assertThat(nextByName.getContent().get(0).getName()).isEqualTo("car-4");
+        assertThat(crud.findPage(Sort.descending("name"), 5, 5).getContent().get(0).getName())
+                .isEqualTo("car-4");
+        assertThat(crud.findPage(Sort.ascending("id"), 10, 20).hasNext()).isFalse();
+
+        // Projections
+        List<Tuple> tuples = crud.project(CriteriaFilter.<Car>where("name", "car-3"), "id", "name");
+        assertThat(tuples).hasSize(1);
+        assertThat(tuples.get(0).get("name")).isEqualTo("car-3");
+        assertThat(tuples.get(0).get("id")).isNotNull();
+        List<CarName> carNames = crud.project(CarName.class, null, "id", "name");
+        assertThat(carNames).hasSize(25);
+        assertThat(carNames.get(0).name).startsWith("car-");
+
+        // Streaming
+        final List<String> names = new ArrayList<>();
+        assertThat(crud.forEach(7, new EntityConsumer<Car>() {
+            @Override
+            public void accept(Car car) {
+                names.add(car.getName());
+            }
+        })).isEqualTo(25);
+        assertThat(names).hasSize(25).contains("car-0", "car-24");
+        assertThat(crud.forEach(CriteriaFilter.<Car>where("name", CriteriaFilter.Operator.LIKE, "car-1%"), 5,
+                new EntityConsumer<Car>() {
+                    @Override
+                    public void accept(Car car) {
+                        assertThat(car.getName()).startsWith("car-1");
+                    }
+                })).isEqualTo(11);
+        // The changes of the consumer are committed, and invalidate the cached results.
+        crud.enableQueryCache(10, 60, TimeUnit.SECONDS);
+        try {
+            assertThat(crud.count(CriteriaFilter.<Car>where("name", "car-2"))).isEqualTo(1);
+            assertThat(crud.forEach(CriteriaFilter.<Car>where("name", "car-2"), 5, new EntityConsumer<Car>() {
+                @Override
+                public void accept(Car car) {
+                    car.setName("streamed-2");
+                }
+            })).isEqualTo(1);
+            assertThat(crud.count(CriteriaFilter.<Car>where("name", "car-2"))).isEqualTo(0);
+            assertThat(crud.count(CriteriaFilter.<Car>where("name", "streamed-2"))).isEqualTo(1);
+        } finally {
+            crud.disableQueryCache();
+        }
+        assertThat(crud.updateWhere(CriteriaFilter.<Car>where("name", "streamed-2"),
+                ImmutableMap.of("name", "car-2"))).isEqualTo(1);
+
+        // Bulk updates
+        Car first = crud.findOne(CriteriaFilter.<Car>where("name", "car-0"));
+        assertThat(crud.update(first.getId(), ImmutableMap.of("name", "updated-0"))).isEqualTo(1);
+        assertThat(cars.findOne(first.getId()).getName()).isEqualTo("updated-0");
+        assertThat(crud.update(-1l, ImmutableMap.of("name", "none"))).isEqualTo(0);
+        assertThat(crud.updateWhere(CriteriaFilter.<Car>where("name", "updated-0"),
+                ImmutableMap.of("name", "car-0"))).isEqualTo(1);
+        assertThat(crud.findOne(first.getId()).getName()).isEqualTo("car-0");
+
+        // Asynchronous operations
+        ListenableFuture<Long> countFuture = crud.countAsync();
+        ListenableFuture<Car> carFuture = crud.findOneAsync(CriteriaFilter.<Car>where("name", "car-7"));
+        assertThat(countFuture.get()).isEqualTo(25);
+        assertThat(carFuture.get().getName()).isEqualTo("car-7");
+
+        // Query result cache
+        crud.enableQueryCache(10, 60, TimeUnit.SECONDS);
+        try {
+            assertThat(cars.findAll()).hasSize(25);
+            assertThat(cars.findAll()).hasSize(25);
+            assertThat(crud.count(CriteriaFilter.<Car>where("name", "car-3"))).isEqualTo(1);
+            assertThat(crud.count(CriteriaFilter.<Car>where("name", "car-3"))).isEqualTo(1);
+            assertThat(crud.getQueryCache().getHitCount()).isEqualTo(2);
+            assertThat(crud.getQueryCache().getMissCount()).isEqualTo(2);
+            // A committed modification invalidates the cached results.
+            crud.deleteWhere(CriteriaFilter.<Car>where("name", "car-3"));
+            assertThat(crud.getQueryCache().getInvalidationCount()).isEqualTo(1);
+            assertThat(cars.findAll()).hasSize(24);
+            assertThat(crud.count(CriteriaFilter.<Car>where("name", "car-3"))).isEqualTo(0);
+        } finally {
+            crud.disableQueryCache();
+        }
+
+        cars.delete(cars.findAll());
+        assertThat(cars.count()).isEqualTo(0);
+    }
+
+    @Test
+    public void testFindAllReturnsTheManagedInstancesWithoutQuery() throws SystemException, NotSupportedException {
+        Car car1 = new Car();
+        car1.setName("managed-1");
+        Car car2 = new Car();
+        car2.setName("managed-2");
+        cars.save(ImmutableList.of(car1, car2));
+        List<Long> ids = ImmutableList.of(car1.getId(), car2.getId());
+
+        TransactionManager transactionManager = TransactionManagerService.get();
+        transactionManager.begin();
+        try {
+            List<Car> loaded = Lists.newArrayList(cars.findAll(ids));
+            assertThat(loaded).hasSize(2);
+            // Delete the rows behind the back of the persistence context: a second lookup running a query would
+            // not find them anymore.
+            assertThat(jtaEm.createNativeQuery("DELETE FROM Car WHERE id IN (" + car1.getId() + ", "
+                    + car2.getId() + ")").executeUpdate()).isEqualTo(2);
+            List<Car> again = Lists.newArrayList(cars.findAll(ids));
+            assertThat(again).hasSize(2);
+            assertThat(again.get(0)).isSameAs(loaded.get(0));
+            assertThat(again.get(1)).isSameAs(loaded.get(1));
+        } finally {
+            transactionManager.rollback();
+        }
+
+        assertThat(cars.count()).isEqualTo(2);
+        cars.delete(cars.findAll());
+        assertThat(cars.count()).isEqualTo(0);
+    }
+
+    /**
+     * A projection of {@link Car}.
+     */
+    public static class CarName {
+        final Long id;
+        final String name;
+
+        public CarName(Long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
     }
 
     private void create(EntityManager em) {
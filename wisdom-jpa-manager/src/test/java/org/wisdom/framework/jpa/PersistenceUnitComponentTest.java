@@ -117,6 +117,8 @@ public class PersistenceUnitComponentTest {
         assertThat(component.emfRegistration).isNotNull();
         assertThat(component.emRegistration).isNotNull();
 
+        assertThat(component.executor).isNotNull();
+
         component.shutdown();
     }
 
@@ -163,9 +165,50 @@ public class PersistenceUnitComponentTest {
         assertThat(component.emfRegistration).isNotNull();
         assertThat(component.emRegistration).isNotNull();
 
+        // The entity manager of a resource-local unit is not thread-safe, asynchronous operations run in the caller
+        // thread.
+        assertThat(component.executor).isNull();
+
         component.shutdown();
     }
 
+    @Test
+    public void testAddBatchLimit() {
+        assertThat(PersistenceUnitComponent.addBatchLimit(null, 50)).isEqualTo("batchLimit=50");
+        assertThat(PersistenceUnitComponent.addBatchLimit("h2", 50)).isEqualTo("h2(batchLimit=50)");
+        assertThat(PersistenceUnitComponent.addBatchLimit("h2()", 50)).isEqualTo("h2(batchLimit=50)");
+        assertThat(PersistenceUnitComponent.addBatchLimit("h2(useSchemaName=false)", 50))
+                .isEqualTo("h2(useSchemaName=false,batchLimit=50)");
+        assertThat(PersistenceUnitComponent.addBatchLimit("useSchemaName=false", 50))
+                .isEqualTo("useSchemaName=false,batchLimit=50");
+        assertThat(PersistenceUnitComponent.addBatchLimit("h2(batchLimit=10)", 50))
+                .isEqualTo("h2(batchLimit=10)");
+    }
+
+    @Test
+    public void testGetMaximumPoolSize() {
+        assertThat(PersistenceUnitComponent.getMaximumPoolSize(new PooledDataSource(4))).isEqualTo(4);
+        // Fallback on the default Hikari size.
+        assertThat(PersistenceUnitComponent.getMaximumPoolSize(new PooledDataSource(0))).isEqualTo(10);
+        assertThat(PersistenceUnitComponent.getMaximumPoolSize(new JdbcDataSource())).isEqualTo(10);
+        assertThat(PersistenceUnitComponent.getMaximumPoolSize(null)).isEqualTo(10);
+    }
+
+    /**
+     * A data source exposing the size of its pool as Hikari does.
+     */
+    public static class PooledDataSource extends JdbcDataSource {
+        private final int size;
+
+        public PooledDataSource(int size) {
+            this.size = size;
+        }
+
+        public int getMaximumPoolSize() {
+            return size;
+        }
+    }
+
     private Properties getDataSourceProperties() {
         Properties props = new Properties();
         props.put(DataSourceFactory.JDBC_URL, "jdbc:h2:mem:test");
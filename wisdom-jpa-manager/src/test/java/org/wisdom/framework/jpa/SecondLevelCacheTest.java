@@ -0,0 +1,162 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Test;
+import org.wisdom.api.configuration.ApplicationConfiguration;
+import org.wisdom.configuration.ConfigurationImpl;
+import org.wisdom.framework.entities.Student;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.SharedCacheMode;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class SecondLevelCacheTest {
+
+    private ApplicationConfiguration configuration(Map<String, Object> map) {
+        ApplicationConfiguration configuration = mock(ApplicationConfiguration.class);
+        when(configuration.getConfiguration(SecondLevelCache.CONFIGURATION_PREFIX))
+                .thenReturn(new ConfigurationImpl(null, ConfigFactory.parseMap(map)));
+        return configuration;
+    }
+
+    @Test
+    public void testWithoutConfiguration() {
+        SecondLevelCache cache = new SecondLevelCache("unit", null);
+        Map<String, Object> map = new HashMap<>();
+        cache.configureOpenJPA(map, null);
+        cache.configureHibernate(map);
+        assertThat(map).isEmpty();
+        assertThat(cache.getMode()).isNull();
+
+        // Without factory, the statistics are empty.
+        assertThat(cache.getUnitName()).isEqualTo("unit");
+        assertThat(cache.getHitCount()).isEqualTo(0);
+        assertThat(cache.getMissCount()).isEqualTo(0);
+        assertThat(cache.getQueryHitCount()).isEqualTo(0);
+        assertThat(cache.getScheduledEvictionCount()).isEqualTo(0);
+        cache.reset();
+    }
+
+    @Test
+    public void testOpenJPAProperties() {
+        SecondLevelCache cache = new SecondLevelCache("unit", configuration(ImmutableMap.<String, Object>of(
+                "unit.cache.mode", "enable_selective",
+                "unit.cache.size", 500,
+                "unit.cache.timeout", 60000,
+                "unit.cache.query", true
+        )));
+        Map<String, Object> map = new HashMap<>();
+        cache.configureOpenJPA(map, null);
+        assertThat(cache.getMode()).isEqualTo(SharedCacheMode.ENABLE_SELECTIVE);
+        assertThat(map)
+                .containsEntry("javax.persistence.sharedCache.mode", "ENABLE_SELECTIVE")
+                .containsEntry("openjpa.DataCache", "true(EnableStatistics=true,CacheSize=500)")
+                .containsEntry("openjpa.RemoteCommitProvider", "sjvm")
+                .containsEntry("openjpa.DataCacheTimeout", "60000")
+                .containsEntry("openjpa.QueryCache", "true");
+
+        // The unit properties win.
+        map = new HashMap<>();
+        map.put("openjpa.DataCache", "false");
+        cache.configureOpenJPA(map, null);
+        assertThat(map).containsEntry("openjpa.DataCache", "false");
+    }
+
+    @Test
+    public void testDisabledCache() {
+        SecondLevelCache cache = new SecondLevelCache("unit", configuration(ImmutableMap.<String, Object>of(
+                "unit.cache.mode", "NONE"
+        )));
+        Map<String, Object> map = new HashMap<>();
+        cache.configureOpenJPA(map, null);
+        assertThat(map)
+                .containsEntry("openjpa.DataCache", "false")
+                .containsEntry("openjpa.QueryCache", "false");
+
+        map = new HashMap<>();
+        cache.configureHibernate(map);
+        assertThat(map).containsEntry("hibernate.cache.use_second_level_cache", "false");
+    }
+
+    @Test
+    public void testCacheDisabledByThePersistenceXml() {
+        SecondLevelCache cache = new SecondLevelCache("unit", configuration(ImmutableMap.<String, Object>of(
+                "unit.cache.size", 500
+        )));
+        Map<String, Object> map = new HashMap<>();
+        cache.configureOpenJPA(map, SharedCacheMode.NONE);
+        assertThat(map)
+                .doesNotContainKey("javax.persistence.sharedCache.mode")
+                .containsEntry("openjpa.DataCache", "false")
+                .containsEntry("openjpa.QueryCache", "false");
+
+        // The configured mode overrides the persistence.xml file.
+        cache = new SecondLevelCache("unit", configuration(ImmutableMap.<String, Object>of(
+                "unit.cache.mode", "ALL"
+        )));
+        map = new HashMap<>();
+        cache.configureOpenJPA(map, SharedCacheMode.NONE);
+        assertThat(map).containsEntry("openjpa.DataCache", "true(EnableStatistics=true)");
+    }
+
+    @Test
+    public void testInvalidMode() {
+        SecondLevelCache cache = new SecondLevelCache("unit", configuration(ImmutableMap.<String, Object>of(
+                "unit.cache.mode", "sometimes"
+        )));
+        assertThat(cache.getMode()).isNull();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testEvictionInterval() throws InterruptedException {
+        SecondLevelCache cache = new SecondLevelCache("unit", configuration(ImmutableMap.<String, Object>of(
+                "unit.cache.evictionInterval.Student", 10,
+                "unit.cache.evictionInterval.Missing", 10
+        )));
+        EntityType type = mock(EntityType.class);
+        when(type.getJavaType()).thenReturn(Student.class);
+        Metamodel metamodel = mock(Metamodel.class);
+        when(metamodel.getEntities()).thenReturn(ImmutableSet.<EntityType<?>>of(type));
+        Cache jpaCache = mock(Cache.class);
+        EntityManagerFactory emf = mock(EntityManagerFactory.class);
+        when(emf.getMetamodel()).thenReturn(metamodel);
+        when(emf.getCache()).thenReturn(jpaCache);
+
+        cache.start(emf);
+        try {
+            verify(jpaCache, timeout(1000).atLeast(2)).evict(Student.class);
+            assertThat(cache.getScheduledEvictionCount()).isGreaterThanOrEqualTo(1);
+        } finally {
+            cache.stop();
+        }
+    }
+}
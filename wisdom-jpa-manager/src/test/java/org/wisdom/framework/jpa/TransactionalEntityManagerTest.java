@@ -0,0 +1,88 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa;
+
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import javax.transaction.TransactionManager;
+import java.sql.Connection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Mockito.*;
+
+public class TransactionalEntityManagerTest {
+
+    @Test(expected = IllegalStateException.class)
+    public void testNoTransactionOutsideOfReadOnlyScope() {
+        TransactionManager tm = mock(TransactionManager.class);
+        EntityManagerFactory emf = mock(EntityManagerFactory.class);
+        TransactionalEntityManager em = new TransactionalEntityManager(tm, emf, null);
+        em.clear();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testReadOnlyScope() throws Exception {
+        TransactionManager tm = mock(TransactionManager.class);
+        EntityManagerFactory emf = mock(EntityManagerFactory.class);
+        EntityManager delegate = mock(EntityManager.class);
+        Connection connection = mock(Connection.class);
+        when(emf.createEntityManager(anyMap())).thenReturn(delegate);
+        when(delegate.unwrap(Connection.class)).thenReturn(connection);
+
+        TransactionalEntityManager em = new TransactionalEntityManager(tm, emf, null);
+        em.beginReadOnly();
+        em.beginReadOnly();
+        em.clear();
+        em.clear();
+        em.endReadOnly();
+        // Still in the outer scope
+        verify(delegate, never()).close();
+        em.endReadOnly();
+
+        verify(emf, times(1)).createEntityManager(anyMap());
+        verify(connection).setReadOnly(true);
+        verify(delegate, times(2)).clear();
+        verify(delegate).close();
+        assertThat(em.perThreadReadOnlyEntityManager.get()).isNull();
+        assertThat(em.readOnlyScopeDepth.get()).isNull();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testReadOnlyScopeWhenConnectionCannotBeRetrieved() {
+        TransactionManager tm = mock(TransactionManager.class);
+        EntityManagerFactory emf = mock(EntityManagerFactory.class);
+        EntityManager delegate = mock(EntityManager.class);
+        when(emf.createEntityManager(anyMap())).thenReturn(delegate);
+        when(delegate.unwrap(Connection.class)).thenThrow(new PersistenceException("not supported"));
+
+        TransactionalEntityManager em = new TransactionalEntityManager(tm, emf, null);
+        em.beginReadOnly();
+        em.clear();
+        em.endReadOnly();
+        verify(delegate).clear();
+        verify(delegate).close();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.wisdom.framework.entities.Student;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Fail.fail;
+
+public class CriteriaFilterTest {
+
+    @Test
+    public void testEqualityInMemory() {
+        Student student = student(1, "Jen");
+        assertThat(CriteriaFilter.<Student>where("name", "Jen").accept(student)).isTrue();
+        assertThat(CriteriaFilter.<Student>where("name", "Bob").accept(student)).isFalse();
+        assertThat(CriteriaFilter.<Student>where("name", CriteriaFilter.Operator.NOT_EQUALS, "Bob")
+                .accept(student)).isTrue();
+        assertThat(CriteriaFilter.<Student>where("name", null).accept(student)).isFalse();
+    }
+
+    @Test
+    public void testComparisonInMemory() {
+        Student student = student(5, "Jen");
+        assertThat(CriteriaFilter.<Student>where("id", CriteriaFilter.Operator.GREATER_THAN, 4)
+                .accept(student)).isTrue();
+        assertThat(CriteriaFilter.<Student>where("id", CriteriaFilter.Operator.LESS_THAN, 5)
+                .accept(student)).isFalse();
+        assertThat(CriteriaFilter.<Student>where("id", CriteriaFilter.Operator.LESS_THAN_OR_EQUALS, 5)
+                .and("name", "Jen")
+                .accept(student)).isTrue();
+        assertThat(CriteriaFilter.<Student>where("id", CriteriaFilter.Operator.GREATER_THAN_OR_EQUALS, 5)
+                .and("name", "Bob")
+                .accept(student)).isFalse();
+    }
+
+    @Test
+    public void testLikeAndInInMemory() {
+        Student student = student(1, "Jennifer");
+        assertThat(CriteriaFilter.<Student>where("name", CriteriaFilter.Operator.LIKE, "Jen%")
+                .accept(student)).isTrue();
+        assertThat(CriteriaFilter.<Student>where("name", CriteriaFilter.Operator.LIKE, "J_nnifer")
+                .accept(student)).isTrue();
+        assertThat(CriteriaFilter.<Student>where("name", CriteriaFilter.Operator.LIKE, "Jen.*")
+                .accept(student)).isFalse();
+        assertThat(CriteriaFilter.<Student>where("id", CriteriaFilter.Operator.IN, ImmutableList.of(1, 2))
+                .accept(student)).isTrue();
+        assertThat(CriteriaFilter.<Student>where("id", CriteriaFilter.Operator.IN, ImmutableList.of())
+                .accept(student)).isFalse();
+    }
+
+    @Test
+    public void testNullChecksAndNestedFields() {
+        Student student = student(1, "Jen");
+        assertThat(CriteriaFilter.<Student>where("classRoom", CriteriaFilter.Operator.IS_NULL, null)
+                .accept(student)).isTrue();
+        assertThat(CriteriaFilter.<Student>where("classRoom.name", "200").accept(student)).isFalse();
+        assertThat(CriteriaFilter.<Student>where("name", CriteriaFilter.Operator.IS_NOT_NULL, null)
+                .accept(student)).isTrue();
+    }
+
+    @Test
+    public void testToJpql() {
+        Map<String, Object> parameters = new HashMap<>();
+        String jpql = CriteriaFilter.<Student>where("name", CriteriaFilter.Operator.LIKE, "J%")
+                .and("id", CriteriaFilter.Operator.GREATER_THAN, 3)
+                .and("classRoom", CriteriaFilter.Operator.IS_NULL, null)
+                .and("id", CriteriaFilter.Operator.IN, ImmutableList.of(4, 5))
+                .toJpql("s", parameters);
+        assertThat(jpql).isEqualTo("s.name LIKE :p0 AND s.id > :p1 AND s.classRoom IS NULL AND s.id IN :p2");
+        assertThat(parameters).hasSize(3).containsEntry("p0", "J%").containsEntry("p1", 3);
+
+        parameters.clear();
+        assertThat(CriteriaFilter.<Student>where("name", null).and("id", CriteriaFilter.Operator.IN,
+                ImmutableList.of()).toJpql("s", parameters)).isEqualTo("s.name IS NULL AND 1 = 0");
+        assertThat(parameters).isEmpty();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInRequiresACollection() {
+        CriteriaFilter.where("id", CriteriaFilter.Operator.IN, 1);
+    }
+
+    @Test
+    public void testInvalidFieldNamesAreRejected() {
+        for (String field : ImmutableList.of("name = 'x' OR 1 = 1", "id) OR (1", "name,", "owner..name", ".name",
+                "name.", "1name")) {
+            try {
+                CriteriaFilter.<Student>where(field, "x");
+                fail("The field " + field + " should have been rejected");
+            } catch (IllegalArgumentException e) {
+                assertThat(e).hasMessageContaining(field);
+            }
+        }
+        assertThat(CriteriaFilter.<Student>where("classRoom.name", "200").toJpql("s", new HashMap<String, Object>()))
+                .isEqualTo("s.classRoom.name = :p0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownField() {
+        CriteriaFilter.<Student>where("missing", "x").accept(student(1, "Jen"));
+    }
+
+    private Student student(int id, String name) {
+        Student student = new Student();
+        student.setId(id);
+        student.setName(name);
+        return student;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DialectTest {
+
+    @Test
+    public void testFromProductName() {
+        assertThat(Dialect.fromProductName("H2")).isEqualTo(Dialect.H2);
+        assertThat(Dialect.fromProductName("PostgreSQL")).isEqualTo(Dialect.POSTGRESQL);
+        assertThat(Dialect.fromProductName("MySQL")).isEqualTo(Dialect.MYSQL);
+        assertThat(Dialect.fromProductName("SQLite")).isEqualTo(Dialect.SQLITE);
+        assertThat(Dialect.fromProductName("Apache Derby")).isEqualTo(Dialect.DERBY);
+        assertThat(Dialect.fromProductName("HSQL Database Engine")).isEqualTo(Dialect.HSQL);
+        assertThat(Dialect.fromProductName("Oracle")).isEqualTo(Dialect.UNKNOWN);
+        assertThat(Dialect.fromProductName(null)).isEqualTo(Dialect.UNKNOWN);
+    }
+
+    @Test
+    public void testFromDataSource() throws SQLException {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:dialect");
+        assertThat(Dialect.fromDataSource(ds)).isEqualTo(Dialect.H2);
+        assertThat(Dialect.fromDataSource(null)).isEqualTo(Dialect.UNKNOWN);
+
+        DataSource broken = mock(DataSource.class);
+        when(broken.getConnection()).thenThrow(new SQLException("boom"));
+        assertThat(Dialect.fromDataSource(broken)).isEqualTo(Dialect.UNKNOWN);
+    }
+
+    @Test
+    public void testStreamingFetchSize() {
+        assertThat(Dialect.MYSQL.getStreamingFetchSize(100)).isEqualTo(Integer.MIN_VALUE);
+        assertThat(Dialect.POSTGRESQL.getStreamingFetchSize(100)).isEqualTo(100);
+        assertThat(Dialect.H2.getStreamingFetchSize(10)).isEqualTo(10);
+    }
+
+    @Test
+    public void testParameterLimits() {
+        assertThat(Dialect.SQLITE.getMaxParameters()).isLessThan(1000);
+        assertThat(Dialect.POSTGRESQL.getMaxParameters()).isEqualTo(Short.MAX_VALUE);
+    }
+
+    @Test
+    public void testUpsertStatements() {
+        List<String> columns = Arrays.asList("id", "name", "done");
+        assertThat(Dialect.H2.getUpsertStatement("todo", columns, 0))
+                .isEqualTo("MERGE INTO todo (id, name, done) KEY (id) VALUES (?, ?, ?)");
+        assertThat(Dialect.POSTGRESQL.getUpsertStatement("todo", columns, 0))
+                .isEqualTo("INSERT INTO todo (id, name, done) VALUES (?, ?, ?) " +
+                        "ON CONFLICT (id) DO UPDATE SET name = EXCLUDED.name, done = EXCLUDED.done");
+        assertThat(Dialect.MYSQL.getUpsertStatement("todo", columns, 0))
+                .isEqualTo("INSERT INTO todo (id, name, done) VALUES (?, ?, ?) " +
+                        "ON DUPLICATE KEY UPDATE name = VALUES(name), done = VALUES(done)");
+        assertThat(Dialect.SQLITE.getUpsertStatement("todo", columns, 0))
+                .isEqualTo("INSERT OR REPLACE INTO todo (id, name, done) VALUES (?, ?, ?)");
+        assertThat(Dialect.HSQL.getUpsertStatement("todo", columns, 0))
+                .isEqualTo("MERGE INTO todo USING (VALUES(?, ?, ?)) AS v (id, name, done) ON todo.id = v.id " +
+                        "WHEN MATCHED THEN UPDATE SET name = v.name, done = v.done " +
+                        "WHEN NOT MATCHED THEN INSERT (id, name, done) VALUES (v.id, v.name, v.done)");
+        assertThat(Dialect.DERBY.getUpsertStatement("todo", columns, 0))
+                .isEqualTo("MERGE INTO todo USING SYSIBM.SYSDUMMY1 ON todo.id = ? " +
+                        "WHEN MATCHED THEN UPDATE SET name = ?, done = ? " +
+                        "WHEN NOT MATCHED THEN INSERT (id, name, done) VALUES (?, ?, ?)");
+        assertThat(Dialect.UNKNOWN.getUpsertStatement("todo", columns, 0)).isNull();
+
+        assertThat(Dialect.POSTGRESQL.getUpsertStatement("tag", Collections.singletonList("id"), 0))
+                .isEqualTo("INSERT INTO tag (id) VALUES (?) ON CONFLICT (id) DO NOTHING");
+    }
+
+    @Test
+    public void testUpsertParameters() {
+        assertThat(Dialect.H2.getUpsertParameters(3, 1)).containsExactly(0, 1, 2);
+        assertThat(Dialect.DERBY.getUpsertParameters(3, 1)).containsExactly(1, 0, 2, 0, 1, 2);
+    }
+
+    @Test
+    public void testH2UpsertStatement() throws SQLException {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:upsert;DB_CLOSE_DELAY=-1");
+        String sql = Dialect.H2.getUpsertStatement("todo", Arrays.asList("id", "name"), 0);
+        try (Connection connection = ds.getConnection()) {
+            connection.createStatement().execute("CREATE TABLE todo (id BIGINT PRIMARY KEY, name VARCHAR(255))");
+            for (String name : new String[]{"first", "second"}) {
+                try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    statement.setLong(1, 1L);
+                    statement.setString(2, name);
+                    statement.executeUpdate();
+                }
+            }
+            ResultSet rs = connection.createStatement().executeQuery("SELECT COUNT(*), MAX(name) FROM todo");
+            assertThat(rs.next()).isTrue();
+            assertThat(rs.getInt(1)).isEqualTo(1);
+            assertThat(rs.getString(2)).isEqualTo("second");
+        }
+    }
+}
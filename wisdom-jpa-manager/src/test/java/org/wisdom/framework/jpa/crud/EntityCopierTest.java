@@ -0,0 +1,100 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import org.junit.Test;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.SingularAttribute;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class EntityCopierTest {
+
+    public static class Country {
+        private String code;
+        private String name;
+        private Date updated;
+
+        protected Country() {
+            // Used by JPA.
+        }
+
+        public Country(String code, String name, Date updated) {
+            this.code = code;
+            this.name = name;
+            this.updated = updated;
+        }
+    }
+
+    public static class EuropeanCountry extends Country {
+        public EuropeanCountry() {
+            super("fr", "France", null);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static EntityType<Country> getType(Attribute.PersistentAttributeType type) throws Exception {
+        Set<SingularAttribute<? super Country, ?>> attributes = new LinkedHashSet<>();
+        for (String name : new String[]{"code", "name", "updated"}) {
+            SingularAttribute attribute = mock(SingularAttribute.class);
+            when(attribute.getName()).thenReturn(name);
+            when(attribute.getJavaMember()).thenReturn(Country.class.getDeclaredField(name));
+            when(attribute.getPersistentAttributeType()).thenReturn(name.equals("name") ? type :
+                    Attribute.PersistentAttributeType.BASIC);
+            attributes.add(attribute);
+        }
+        EntityType<Country> entity = mock(EntityType.class);
+        when(entity.getName()).thenReturn("Country");
+        when(entity.getJavaType()).thenReturn(Country.class);
+        when(entity.getSingularAttributes()).thenReturn(attributes);
+        when(entity.getPluralAttributes()).thenReturn(Collections.<PluralAttribute<? super Country, ?, ?>>emptySet());
+        return entity;
+    }
+
+    @Test
+    public void testCopy() throws Exception {
+        EntityCopier<Country> copier = new EntityCopier<>(getType(Attribute.PersistentAttributeType.BASIC));
+        Country country = new Country("fr", "France", new Date(0));
+        assertThat(copier.supports(country)).isTrue();
+        Country copy = copier.copy(country);
+        assertThat(copy).isNotSameAs(country);
+        assertThat(copy.code).isEqualTo("fr");
+        assertThat(copy.name).isEqualTo("France");
+        assertThat(copy.updated).isEqualTo(country.updated).isNotSameAs(country.updated);
+
+        // Instances of sub-classes are not supported.
+        assertThat(copier.supports(new EuropeanCountry())).isFalse();
+        assertThat(copier.supports(null)).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRelationsAreNotSupported() throws Exception {
+        new EntityCopier<>(getType(Attribute.PersistentAttributeType.MANY_TO_ONE));
+    }
+}
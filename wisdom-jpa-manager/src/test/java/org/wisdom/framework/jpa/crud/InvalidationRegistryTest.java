@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+import org.wisdom.framework.entities.Student;
+import org.wisdom.framework.entities.vehicules.Car;
+import org.wisdom.framework.entities.vehicules.Driver;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.Type;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class InvalidationRegistryTest {
+
+    @Test
+    public void testInvalidationsAreDispatchedByType() {
+        InvalidationRegistry registry = new InvalidationRegistry(null);
+        final AtomicInteger first = new AtomicInteger();
+        final AtomicInteger second = new AtomicInteger();
+        Runnable r1 = new Runnable() {
+            @Override
+            public void run() {
+                first.incrementAndGet();
+            }
+        };
+        Runnable r2 = new Runnable() {
+            @Override
+            public void run() {
+                second.incrementAndGet();
+            }
+        };
+        assertThat(registry.isWatched(String.class)).isFalse();
+        registry.register(String.class, r1);
+        registry.register(String.class, r2);
+        registry.register(Integer.class, r2);
+        assertThat(registry.isWatched(String.class)).isTrue();
+
+        // Several Crud services of the same entity.
+        registry.invalidate(String.class);
+        assertThat(first.get()).isEqualTo(1);
+        assertThat(second.get()).isEqualTo(1);
+
+        registry.invalidate(Integer.class);
+        assertThat(first.get()).isEqualTo(1);
+        assertThat(second.get()).isEqualTo(2);
+
+        registry.unregister(String.class, r1);
+        registry.unregister(String.class, r2);
+        assertThat(registry.isWatched(String.class)).isFalse();
+        registry.invalidate(String.class);
+        assertThat(first.get()).isEqualTo(1);
+        assertThat(second.get()).isEqualTo(2);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRelatedTypes() {
+        // Car has many drivers, Student is not associated.
+        Type driverType = mock(Type.class);
+        when(driverType.getJavaType()).thenReturn(Driver.class);
+        PluralAttribute drivers = mock(PluralAttribute.class);
+        when(drivers.isAssociation()).thenReturn(true);
+        when(drivers.getElementType()).thenReturn(driverType);
+        Attribute name = mock(Attribute.class);
+        when(name.isAssociation()).thenReturn(false);
+
+        EntityType car = mock(EntityType.class);
+        when(car.getJavaType()).thenReturn(Car.class);
+        when(car.getAttributes()).thenReturn(ImmutableSet.of(drivers, name));
+        EntityType driver = mock(EntityType.class);
+        when(driver.getJavaType()).thenReturn(Driver.class);
+        when(driver.getAttributes()).thenReturn(ImmutableSet.of());
+        EntityType student = mock(EntityType.class);
+        when(student.getJavaType()).thenReturn(Student.class);
+        when(student.getAttributes()).thenReturn(ImmutableSet.of(name));
+        Metamodel metamodel = mock(Metamodel.class);
+        when(metamodel.getEntities()).thenReturn(ImmutableSet.<EntityType<?>>of(car, driver, student));
+
+        InvalidationRegistry registry = new InvalidationRegistry(metamodel);
+        assertThat(registry.getRelatedTypes(Car.class)).containsOnly(Car.class, Driver.class);
+        // The association is followed in both directions.
+        assertThat(registry.getRelatedTypes(Driver.class)).containsOnly(Car.class, Driver.class);
+        assertThat(registry.getRelatedTypes(Student.class)).containsOnly(Student.class);
+    }
+}
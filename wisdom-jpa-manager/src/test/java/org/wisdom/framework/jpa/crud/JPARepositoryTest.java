@@ -0,0 +1,169 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.wisdom.api.model.Crud;
+import org.wisdom.framework.entities.Student;
+import org.wisdom.framework.jpa.model.Persistence;
+import org.wisdom.framework.jpa.model.PersistenceUnitTransactionType;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.Type;
+import java.util.Dictionary;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class JPARepositoryTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCrudServicesAreCreatedOnDemand() {
+        EntityType<Student> type = mock(EntityType.class);
+        Type id = mock(Type.class);
+        when(id.getJavaType()).thenReturn(Integer.class);
+        when(type.getIdType()).thenReturn(id);
+        when(type.getJavaType()).thenReturn(Student.class);
+        Metamodel metamodel = mock(Metamodel.class);
+        when(metamodel.getEntities()).thenReturn(ImmutableSet.<EntityType<?>>of(type));
+        EntityManagerFactory emf = mock(EntityManagerFactory.class);
+        when(emf.getMetamodel()).thenReturn(metamodel);
+
+        Persistence.PersistenceUnit pu = new Persistence.PersistenceUnit();
+        pu.setName("unit");
+        pu.setTransactionType(PersistenceUnitTransactionType.RESOURCE_LOCAL);
+
+        BundleContext context = mock(BundleContext.class);
+        ServiceRegistration registration = mock(ServiceRegistration.class);
+        when(context.registerService(anyString(), any(), any(Dictionary.class))).thenReturn(registration);
+
+        JPARepository repository = new JPARepository(pu, mock(EntityManager.class), emf, null, context,
+                Dialect.H2, null);
+
+        ArgumentCaptor<Object> service = ArgumentCaptor.forClass(Object.class);
+        verify(context).registerService(eq(Crud.class.getName()), service.capture(), any(Dictionary.class));
+        JPARepository.CrudServiceFactory factory = (JPARepository.CrudServiceFactory) service.getValue();
+        assertThat(factory.isCreated()).isFalse();
+
+        Bundle b1 = mock(Bundle.class);
+        Bundle b2 = mock(Bundle.class);
+        Crud crud = factory.getService(b1, registration);
+        assertThat(crud).isInstanceOf(LocalEntityCrud.class);
+        assertThat(crud.getEntityClass()).isEqualTo(Student.class);
+        assertThat(factory.getService(b2, registration)).isSameAs(crud);
+
+        factory.ungetService(b1, registration, crud);
+        assertThat(factory.isCreated()).isTrue();
+        factory.ungetService(b2, registration, crud);
+        assertThat(factory.isCreated()).isFalse();
+
+        // The instances returned by the repository are kept, even when no bundle uses them anymore.
+        Crud retained = repository.getCrudServices().iterator().next();
+        assertThat(factory.isCreated()).isTrue();
+        assertThat(factory.getService(b1, registration)).isSameAs(retained);
+        factory.ungetService(b1, registration, retained);
+        assertThat(factory.isCreated()).isTrue();
+        assertThat(repository.getCrudServices()).containsExactly(retained);
+
+        repository.dispose();
+        verify(registration).unregister();
+        assertThat(factory.isCreated()).isFalse();
+    }
+
+    @Test
+    public void testRetryPolicyConfiguration() {
+        Persistence.PersistenceUnit pu = new Persistence.PersistenceUnit();
+        pu.setName("unit");
+        pu.setProperties(new Persistence.PersistenceUnit.Properties());
+        // Not retried by default.
+        assertThat(JPARepository.createRetryPolicy(pu)).isNull();
+
+        addProperty(pu, JPARepository.RETRY_ATTEMPTS_PROP, "3");
+        addProperty(pu, JPARepository.RETRY_EXCEPTIONS_PROP, "java.lang.IllegalStateException, ");
+        RetryPolicy policy = JPARepository.createRetryPolicy(pu);
+        assertThat(policy).isNotNull();
+        assertThat(policy.getMaxAttempts()).isEqualTo(3);
+        assertThat(policy.isRetryable(new IllegalStateException())).isTrue();
+        assertThat(policy.isRetryable(new OptimisticLockException())).isFalse();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRetryPolicyIsSharedAndPublished() {
+        EntityType<Student> type = mock(EntityType.class);
+        Type id = mock(Type.class);
+        when(id.getJavaType()).thenReturn(Integer.class);
+        when(type.getIdType()).thenReturn(id);
+        when(type.getJavaType()).thenReturn(Student.class);
+        Metamodel metamodel = mock(Metamodel.class);
+        when(metamodel.getEntities()).thenReturn(ImmutableSet.<EntityType<?>>of(type));
+        EntityManagerFactory emf = mock(EntityManagerFactory.class);
+        when(emf.getMetamodel()).thenReturn(metamodel);
+
+        Persistence.PersistenceUnit pu = new Persistence.PersistenceUnit();
+        pu.setName("unit");
+        pu.setTransactionType(PersistenceUnitTransactionType.RESOURCE_LOCAL);
+        pu.setProperties(new Persistence.PersistenceUnit.Properties());
+        addProperty(pu, JPARepository.RETRY_ATTEMPTS_PROP, "3");
+
+        BundleContext context = mock(BundleContext.class);
+        ServiceRegistration registration = mock(ServiceRegistration.class);
+        when(context.registerService(anyString(), any(), any(Dictionary.class))).thenReturn(registration);
+
+        JPARepository repository = new JPARepository(pu, mock(EntityManager.class), emf, null, context,
+                Dialect.H2, null);
+
+        ArgumentCaptor<Object> service = ArgumentCaptor.forClass(Object.class);
+        ArgumentCaptor<Dictionary> properties = ArgumentCaptor.forClass(Dictionary.class);
+        verify(context).registerService(eq(RetryPolicy.class.getName()), service.capture(), properties.capture());
+        assertThat(properties.getValue().get(JPARepository.UNIT_NAME_PROP)).isEqualTo("unit");
+        RetryPolicy policy = (RetryPolicy) service.getValue();
+        assertThat(policy.getMaxAttempts()).isEqualTo(3);
+
+        // The Crud services use the published policy, also when they are created again.
+        AbstractJTACrud<?, ?> crud = (AbstractJTACrud<?, ?>) repository.getCrudServices().iterator().next();
+        assertThat(crud.getRetryPolicy()).isSameAs(policy);
+        repository.factories.get(0).dispose();
+        assertThat(repository.factories.get(0).get().getRetryPolicy()).isSameAs(policy);
+
+        repository.dispose();
+        verify(registration, times(2)).unregister();
+    }
+
+    private static void addProperty(Persistence.PersistenceUnit pu, String name, String value) {
+        Persistence.PersistenceUnit.Properties.Property property =
+                new Persistence.PersistenceUnit.Properties.Property();
+        property.setName(name);
+        property.setValue(value);
+        pu.getProperties().getProperty().add(property);
+    }
+}
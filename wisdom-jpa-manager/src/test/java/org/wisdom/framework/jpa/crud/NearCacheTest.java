@@ -0,0 +1,182 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NearCacheTest {
+
+    @Test
+    public void testHitsAndMisses() {
+        NearCache<Integer, String> cache = new NearCache<>(10);
+        assertThat(cache.get(1)).isNull();
+        cache.put(1, "one", cache.generation());
+        assertThat(cache.get(1)).isEqualTo("one");
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testInvalidation() {
+        NearCache<Integer, String> cache = new NearCache<>(10);
+        long generation = cache.generation();
+        cache.put(1, "one", generation);
+        cache.put(2, "two", generation);
+        cache.invalidate(1);
+        assertThat(cache.get(1)).isNull();
+        assertThat(cache.get(2)).isEqualTo("two");
+
+        // Values loaded before the invalidation are not stored.
+        cache.put(1, "stale", generation);
+        assertThat(cache.get(1)).isNull();
+
+        cache.invalidate();
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cache.getInvalidationCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testBounded() {
+        NearCache<Integer, String> cache = new NearCache<>(100);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, Integer.toString(i), cache.generation());
+        }
+        assertThat(cache.size()).isLessThanOrEqualTo(100);
+        assertThat(cache.getEvictionCount()).isGreaterThanOrEqualTo(900);
+    }
+
+    @Test
+    public void testFrequentEntriesSurviveScans() {
+        NearCache<Integer, String> cache = new NearCache<>(100);
+        // Hot entries, accessed often.
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                if (cache.get(i) == null) {
+                    cache.put(i, Integer.toString(i), cache.generation());
+                }
+            }
+        }
+        // A scan of entries accessed once.
+        for (int i = 1000; i < 3000; i++) {
+            if (cache.get(i) == null) {
+                cache.put(i, Integer.toString(i), cache.generation());
+            }
+        }
+        int hot = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get(i) != null) {
+                hot++;
+            }
+        }
+        // A LRU cache would have lost all of them.
+        assertThat(hot).isGreaterThanOrEqualTo(45);
+    }
+
+    @Test
+    public void testExpiration() {
+        final AtomicLong time = new AtomicLong();
+        NearCache<Integer, String> cache = new NearCache<>(10, 1, TimeUnit.SECONDS, new Ticker() {
+            @Override
+            public long read() {
+                return time.get();
+            }
+        });
+        cache.put(1, "one", cache.generation());
+        assertThat(cache.get(1)).isEqualTo("one");
+        time.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        assertThat(cache.get(1)).isEqualTo("one");
+        time.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertThat(cache.get(1)).isNull();
+        assertThat(cache.getMissCount()).isEqualTo(1);
+
+        // Reloaded.
+        cache.put(1, "reloaded", cache.generation());
+        assertThat(cache.get(1)).isEqualTo("reloaded");
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        final NearCache<Integer, String> cache = new NearCache<>(100);
+        for (int i = 0; i < 50; i++) {
+            cache.put(i, Integer.toString(i), cache.generation());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int found = 0;
+                        for (int i = 0; i < 10000; i++) {
+                            if (cache.get(i % 50) != null) {
+                                found++;
+                            }
+                            if (i % 1000 == 0) {
+                                cache.put(50 + i % 50, "new", cache.generation());
+                            }
+                        }
+                        return found;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertThat(result.get()).isGreaterThan(0);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(cache.getHitCount() + cache.getMissCount()).isEqualTo(40000);
+        assertThat(cache.size()).isLessThanOrEqualTo(100);
+    }
+
+    @Test
+    public void testFrequencySketch() {
+        NearCache.FrequencySketch sketch = new NearCache.FrequencySketch(100);
+        assertThat(sketch.frequency("a")).isEqualTo(0);
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("a");
+        }
+        assertThat(sketch.frequency("a")).isGreaterThanOrEqualTo(5);
+        for (int i = 0; i < 100; i++) {
+            sketch.increment("b");
+        }
+        // 4-bit counters.
+        assertThat(sketch.frequency("b")).isEqualTo(15);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new NearCache<Integer, String>(0);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QueryResultCacheTest {
+
+    private final List<Object> all = Arrays.<Object>asList("findAll");
+    private final List<Object> count = Arrays.<Object>asList("count");
+
+    @Test
+    public void testHitsAndMisses() {
+        QueryResultCache cache = new QueryResultCache(10, 0, TimeUnit.SECONDS);
+        assertThat(cache.get(all)).isNull();
+        cache.put(all, "result", cache.generation());
+        assertThat(cache.get(all)).isEqualTo("result");
+        assertThat(cache.get(Arrays.<Object>asList("findAll"))).isEqualTo("result");
+        assertThat(cache.getHitCount()).isEqualTo(2);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testInvalidation() {
+        QueryResultCache cache = new QueryResultCache(10, 0, TimeUnit.SECONDS);
+        cache.put(all, "result", cache.generation());
+        cache.put(count, 1L, cache.generation());
+        cache.invalidate();
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cache.get(all)).isNull();
+        assertThat(cache.getInvalidationCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testResultsComputedBeforeAnInvalidationAreNotCached() {
+        QueryResultCache cache = new QueryResultCache(10, 0, TimeUnit.SECONDS);
+        long generation = cache.generation();
+        cache.invalidate();
+        cache.put(all, "stale", generation);
+        assertThat(cache.get(all)).isNull();
+    }
+
+    @Test
+    public void testSizeBound() {
+        QueryResultCache cache = new QueryResultCache(2, 0, TimeUnit.SECONDS);
+        for (int i = 0; i < 5; i++) {
+            cache.put(Arrays.<Object>asList("findAll", i), i, cache.generation());
+        }
+        assertThat(cache.size()).isLessThanOrEqualTo(2);
+        assertThat(cache.getEvictionCount()).isGreaterThanOrEqualTo(3);
+    }
+
+    @Test
+    public void testExpiration() throws InterruptedException {
+        QueryResultCache cache = new QueryResultCache(10, 10, TimeUnit.MILLISECONDS);
+        cache.put(all, "result", cache.generation());
+        Thread.sleep(50);
+        assertThat(cache.get(all)).isNull();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new QueryResultCache(0, 0, TimeUnit.SECONDS);
+    }
+}
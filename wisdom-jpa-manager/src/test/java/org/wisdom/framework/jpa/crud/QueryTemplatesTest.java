@@ -0,0 +1,45 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QueryTemplatesTest {
+
+    @Test
+    public void testTemplates() {
+        QueryTemplates templates = new QueryTemplates("Car", "id");
+        assertThat(templates.findAll()).isEqualTo("SELECT e FROM Car e");
+        assertThat(templates.findAllById()).isEqualTo("SELECT e FROM Car e WHERE e.id IN :ids");
+        assertThat(templates.count()).isEqualTo("SELECT COUNT(e) FROM Car e");
+        assertThat(templates.exists()).isEqualTo("SELECT e.id FROM Car e WHERE e.id = :id");
+        assertThat(templates.deleteAllById()).isEqualTo("DELETE FROM Car e WHERE e.id IN :ids");
+    }
+
+    @Test
+    public void testTemplatesAreReused() {
+        QueryTemplates templates = new QueryTemplates("Student", "code");
+        // The provider caches are keyed by the query string, the same instance is returned on every call.
+        assertThat(templates.findAll()).isSameAs(templates.findAll());
+        assertThat(templates.exists()).isEqualTo("SELECT e.code FROM Student e WHERE e.code = :id");
+    }
+}
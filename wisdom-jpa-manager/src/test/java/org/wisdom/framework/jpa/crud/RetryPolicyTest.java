@@ -0,0 +1,206 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import org.junit.Test;
+import org.wisdom.framework.entities.Student;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceException;
+import javax.persistence.RollbackException;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void testRetryableExceptions() {
+        RetryPolicy policy = new RetryPolicy(3, 10, 100, TimeUnit.MILLISECONDS);
+        assertThat(policy.isRetryable(new OptimisticLockException())).isTrue();
+        // Causes are checked.
+        assertThat(policy.isRetryable(new PersistenceException(new OptimisticLockException()))).isTrue();
+        // Deadlocks and serialization failures.
+        assertThat(policy.isRetryable(new PersistenceException(new SQLException("deadlock", "40001")))).isTrue();
+        assertThat(policy.isRetryable(new SQLException("constraint", "23505"))).isFalse();
+        assertThat(policy.isRetryable(new IllegalStateException())).isFalse();
+
+        policy = new RetryPolicy(3, 10, 100, TimeUnit.MILLISECONDS,
+                Collections.singletonList(RuntimeException.class.getName()));
+        // Sub-classes are retryable too.
+        assertThat(policy.isRetryable(new IllegalStateException())).isTrue();
+        assertThat(policy.isRetryable(new Exception())).isFalse();
+    }
+
+    @Test
+    public void testDelays() {
+        RetryPolicy policy = new RetryPolicy(10, 10, 100, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.getDelay(1)).isBetween(0L, 10L);
+            assertThat(policy.getDelay(3)).isBetween(0L, 40L);
+            assertThat(policy.getDelay(8)).isBetween(0L, 100L);
+        }
+        assertThat(new RetryPolicy(3, 0, 0, TimeUnit.MILLISECONDS).getDelay(2)).isEqualTo(0L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidAttempts() {
+        new RetryPolicy(0, 10, 100, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testRetriesInNewTransactions() throws Exception {
+        EntityManager em = mock(EntityManager.class);
+        EntityTransaction transaction = mock(EntityTransaction.class);
+        when(em.getTransaction()).thenReturn(transaction);
+        LocalEntityCrud<Student, Integer> crud = new LocalEntityCrud<>("unit", em, Student.class, Integer.class,
+                null);
+        RetryPolicy policy = new RetryPolicy(3, 0, 0, TimeUnit.MILLISECONDS);
+        crud.setRetryPolicy(policy);
+
+        final AtomicInteger calls = new AtomicInteger();
+        String result = crud.executeTransactionalBlock(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                if (calls.incrementAndGet() < 3) {
+                    throw new OptimisticLockException();
+                }
+                return "done";
+            }
+        });
+        assertThat(result).isEqualTo("done");
+        verify(transaction, times(3)).begin();
+        verify(transaction, times(2)).rollback();
+        verify(transaction).commit();
+        assertThat(policy.getRetryCount()).isEqualTo(2);
+        assertThat(policy.getRecoveredCount()).isEqualTo(1);
+
+        // Exhausted
+        calls.set(0);
+        result = crud.executeTransactionalBlock(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                throw new OptimisticLockException();
+            }
+        });
+        assertThat(result).isNull();
+        assertThat(calls.get()).isEqualTo(3);
+        assertThat(policy.getExhaustedCount()).isEqualTo(1);
+
+        // Not retryable
+        calls.set(0);
+        result = crud.executeTransactionalBlock(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                throw new IllegalArgumentException();
+            }
+        });
+        assertThat(result).isNull();
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testNestedCrudCallsFailingWithAConflict() {
+        EntityManager em = mock(EntityManager.class);
+        FakeTransaction transaction = new FakeTransaction();
+        when(em.getTransaction()).thenReturn(transaction);
+        final Student student = new Student();
+        // The first merge hits an optimistic conflict.
+        when(em.merge(student)).thenThrow(new OptimisticLockException()).thenReturn(student);
+        final LocalEntityCrud<Student, Integer> crud = new LocalEntityCrud<Student, Integer>("unit", em,
+                Student.class, Integer.class, null) {
+            @Override
+            protected boolean isNew(Student s) {
+                return false;
+            }
+        };
+        RetryPolicy policy = new RetryPolicy(3, 0, 0, TimeUnit.MILLISECONDS);
+        crud.setRetryPolicy(policy);
+
+        final AtomicInteger calls = new AtomicInteger();
+        Student result = crud.executeTransactionalBlock(new Callable<Student>() {
+            @Override
+            public Student call() throws Exception {
+                calls.incrementAndGet();
+                // The nested save swallows the conflict, and marks the transaction as rollback only.
+                return crud.save(student);
+            }
+        });
+        assertThat(result).isSameAs(student);
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(transaction.commits).isEqualTo(1);
+        assertThat(policy.getRetryCount()).isEqualTo(1);
+        assertThat(policy.getRecoveredCount()).isEqualTo(1);
+    }
+
+    /**
+     * A resource-local transaction failing to commit when marked as rollback only, as the providers do.
+     */
+    private static class FakeTransaction implements EntityTransaction {
+
+        private boolean active;
+        private boolean rollbackOnly;
+        private int commits;
+
+        @Override
+        public void begin() {
+            active = true;
+            rollbackOnly = false;
+        }
+
+        @Override
+        public void commit() {
+            active = false;
+            if (rollbackOnly) {
+                throw new RollbackException("The transaction has been marked as rollback only");
+            }
+            commits++;
+        }
+
+        @Override
+        public void rollback() {
+            active = false;
+        }
+
+        @Override
+        public void setRollbackOnly() {
+            rollbackOnly = true;
+        }
+
+        @Override
+        public boolean getRollbackOnly() {
+            return rollbackOnly;
+        }
+
+        @Override
+        public boolean isActive() {
+            return active;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.jpa.crud;
+
+import org.junit.Test;
+
+import javax.persistence.Column;
+import javax.persistence.Table;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.SingularAttribute;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TableMappingTest {
+
+    @Table(name = "COUNTRIES", schema = "REF")
+    public static class Country {
+        private String code;
+        @Column(name = "COUNTRY_NAME")
+        private String name;
+    }
+
+    public static class City {
+        private String code;
+        private String name;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> EntityType<T> getType(Class<T> clazz) throws Exception {
+        Set<SingularAttribute<? super T, ?>> attributes = new LinkedHashSet<>();
+        for (String name : new String[]{"code", "name"}) {
+            SingularAttribute attribute = mock(SingularAttribute.class);
+            when(attribute.getName()).thenReturn(name);
+            when(attribute.getJavaMember()).thenReturn(clazz.getDeclaredField(name));
+            when(attribute.getPersistentAttributeType()).thenReturn(Attribute.PersistentAttributeType.BASIC);
+            when(attribute.isId()).thenReturn(name.equals("code"));
+            attributes.add(attribute);
+        }
+        EntityType<T> entity = mock(EntityType.class);
+        when(entity.getName()).thenReturn(clazz.getSimpleName());
+        when(entity.getJavaType()).thenReturn(clazz);
+        when(entity.getSingularAttributes()).thenReturn(attributes);
+        when(entity.getPluralAttributes()).thenReturn(Collections.<PluralAttribute<? super T, ?, ?>>emptySet());
+        return entity;
+    }
+
+    @Test
+    public void testNamesFromAnnotations() throws Exception {
+        TableMapping<Country> mapping = new TableMapping<>(getType(Country.class));
+        assertThat(mapping.getTable()).isEqualTo("REF.COUNTRIES");
+        assertThat(mapping.getColumns()).containsExactly("code", "COUNTRY_NAME");
+        assertThat(mapping.getKey()).isEqualTo(0);
+        assertThat(mapping.getProbeStatement()).isEqualTo("SELECT code, COUNTRY_NAME FROM REF.COUNTRIES WHERE 1 = 0");
+    }
+
+    @Test
+    public void testDefaultNamesMustBeVerified() throws Exception {
+        TableMapping<City> mapping = new TableMapping<>(getType(City.class));
+        assertThat(mapping.getTable()).isEqualTo("City");
+        assertThat(mapping.getColumns()).containsExactly("code", "name");
+        assertThat(mapping.getProbeStatement()).isEqualTo("SELECT code, name FROM City WHERE 1 = 0");
+        assertThat(mapping.isVerified()).isFalse();
+        mapping.setVerified();
+        assertThat(mapping.isVerified()).isTrue();
+    }
+}
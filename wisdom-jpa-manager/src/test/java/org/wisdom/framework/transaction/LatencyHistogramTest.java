@@ -0,0 +1,82 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.transaction;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertThat(histogram.getCount()).isEqualTo(0);
+        assertThat(histogram.getMean()).isEqualTo(0.0);
+        assertThat(histogram.getMax()).isEqualTo(0);
+        assertThat(histogram.getP99()).isEqualTo(0);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 990; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        assertThat(histogram.getCount()).isEqualTo(1000);
+        assertThat(histogram.getMax()).isEqualTo(10000);
+        assertThat(histogram.getMean()).isEqualTo(199.0);
+        // Percentiles are approximated by the upper bound of their power-of-two bucket.
+        assertThat(histogram.getP50()).isBetween(100L, 200L);
+        assertThat(histogram.getP99()).isBetween(100L, 200L);
+        assertThat(histogram.getP999()).isEqualTo(10000);
+        assertThat(histogram.getPercentile(100)).isEqualTo(10000);
+    }
+
+    @Test
+    public void testNegativeAndZeroDurations() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(0);
+        assertThat(histogram.getCount()).isEqualTo(2);
+        assertThat(histogram.getMax()).isEqualTo(0);
+        assertThat(histogram.getP50()).isEqualTo(0);
+    }
+
+    @Test
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.reset();
+        assertThat(histogram.getCount()).isEqualTo(0);
+        assertThat(histogram.getTotal()).isEqualTo(0);
+        assertThat(histogram.getP50()).isEqualTo(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        new LatencyHistogram().getPercentile(101);
+    }
+}
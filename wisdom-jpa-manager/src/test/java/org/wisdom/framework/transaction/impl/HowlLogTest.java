@@ -33,6 +33,8 @@ import java.io.Writer;
 import java.util.Collections;
 import java.util.List;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 public class HowlLogTest {
 
     private static final File basedir = new File(System.getProperty("basedir", System.getProperty("user.dir")));
@@ -92,6 +94,12 @@ public class HowlLogTest {
     private Writer resultsCSV;
 
 
+    @Test
+    public void testFormatIdDecoding() {
+        assertThat(HowlLog.bytesToInt(new byte[]{0x12, 0x34, 0x56, 0x78})).isEqualTo(0x12345678);
+        assertThat(HowlLog.bytesToInt(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFE})).isEqualTo(-2);
+    }
+
     @Test
     public void testTransactionLog() throws Exception {
         File resultFileXML = new File("target/howllog" + ".xml");
@@ -0,0 +1,407 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.transaction.impl;
+
+import org.apache.geronimo.transaction.manager.LogException;
+import org.apache.geronimo.transaction.manager.Recovery;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfo;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfoImpl;
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wisdom.framework.transaction.TransactionLogStatistics;
+
+import javax.transaction.xa.Xid;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Fail.fail;
+
+public class JournalLogTest {
+
+    private static final File DIRECTORY = new File("target/journal-test");
+
+    private final XidFactory xidFactory = new XidFactoryImpl("journal".getBytes());
+    private JournalLog journal;
+
+    @Before
+    public void setUp() throws Exception {
+        delete(DIRECTORY);
+        journal = open(64 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (journal != null) {
+            journal.stop();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private JournalLog open(int segmentSize) throws Exception {
+        JournalLog log = new JournalLog(DIRECTORY, "transaction", segmentSize, 2);
+        log.start();
+        return log;
+    }
+
+    private List<TransactionBranchInfo> branches(Xid xid, String... resources) {
+        List<TransactionBranchInfo> branches = new ArrayList<>();
+        for (int i = 0; i < resources.length; i++) {
+            branches.add(new TransactionBranchInfoImpl(xidFactory.createBranch(xid, i + 1), resources[i]));
+        }
+        return branches;
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        Xid committed = xidFactory.createXid();
+        Xid rolledBack = xidFactory.createXid();
+        Xid inDoubt = xidFactory.createXid();
+        journal.commit(committed, journal.prepare(committed, branches(committed, "db")));
+        journal.rollback(rolledBack, journal.prepare(rolledBack, branches(rolledBack, "db")));
+        journal.prepare(inDoubt, branches(inDoubt, "db", "jms"));
+        assertThat(journal.getActiveCount()).isEqualTo(1);
+        journal.stop();
+
+        journal = open(64 * 1024);
+        Collection<Recovery.XidBranchesPair> recovered = journal.recover(xidFactory);
+        assertThat(recovered).hasSize(1);
+        Recovery.XidBranchesPair pair = recovered.iterator().next();
+        assertThat(pair.getXid()).isEqualTo(inDoubt);
+        assertThat(pair.getBranches()).hasSize(2);
+        assertThat(resources(pair)).containsExactly("db", "jms");
+
+        // The recovered transaction can be completed.
+        journal.commit(pair.getXid(), pair.getMark());
+        assertThat(journal.getActiveCount()).isEqualTo(0);
+        journal.stop();
+        journal = open(64 * 1024);
+        assertThat(journal.recover(xidFactory)).isEmpty();
+    }
+
+    private static List<String> resources(Recovery.XidBranchesPair pair) {
+        List<String> resources = new ArrayList<>();
+        for (TransactionBranchInfo branch : pair.getBranches()) {
+            resources.add(branch.getResourceName());
+        }
+        return resources;
+    }
+
+    @Test
+    public void testSegmentRotation() throws Exception {
+        journal.stop();
+        delete(DIRECTORY);
+        journal = open(4 * 1024);
+
+        Xid inDoubt = xidFactory.createXid();
+        journal.prepare(inDoubt, branches(inDoubt, "db", "jms"));
+        // Fill the segments several times.
+        for (int i = 0; i < 500; i++) {
+            Xid xid = xidFactory.createXid();
+            journal.commit(xid, journal.prepare(xid, branches(xid, "db")));
+        }
+        journal.stop();
+        // Simulate a crash, the resource names are read from the resource records of the segments.
+        assertThat(new File(DIRECTORY, "transaction.checkpoint").delete()).isTrue();
+
+        journal = open(4 * 1024);
+        Collection<Recovery.XidBranchesPair> recovered = journal.recover(xidFactory);
+        assertThat(recovered).hasSize(1);
+        assertThat(recovered.iterator().next().getXid()).isEqualTo(inDoubt);
+        assertThat(resources(recovered.iterator().next())).containsExactly("db", "jms");
+    }
+
+    @Test
+    public void testFailedResourceRecordsAreNotRegistered() throws Exception {
+        journal.stop();
+        delete(DIRECTORY);
+        journal = open(4 * 1024);
+
+        // The resource record does not fit in a segment.
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            name.append('x');
+        }
+        Xid failed = xidFactory.createXid();
+        try {
+            journal.prepare(failed, branches(failed, name.toString()));
+            fail("The resource record should not fit in the segment");
+        } catch (LogException e) {
+            // Expected.
+        }
+
+        // The rotations do not copy the unregistered resource.
+        Xid inDoubt = xidFactory.createXid();
+        journal.prepare(inDoubt, branches(inDoubt, "db"));
+        for (int i = 0; i < 200; i++) {
+            Xid xid = xidFactory.createXid();
+            journal.commit(xid, journal.prepare(xid, branches(xid, "db")));
+        }
+        journal.stop();
+        assertThat(new File(DIRECTORY, "transaction.checkpoint").delete()).isTrue();
+
+        journal = open(4 * 1024);
+        Collection<Recovery.XidBranchesPair> recovered = journal.recover(xidFactory);
+        assertThat(recovered).hasSize(1);
+        assertThat(resources(recovered.iterator().next())).containsExactly("db");
+    }
+
+    @Test
+    public void testResourceNamesInCheckpoint() throws Exception {
+        Xid inDoubt = xidFactory.createXid();
+        journal.prepare(inDoubt, branches(inDoubt, "jms", "db"));
+        journal.stop();
+
+        journal = open(64 * 1024);
+        Collection<Recovery.XidBranchesPair> recovered = journal.recover(xidFactory);
+        assertThat(recovered).hasSize(1);
+        assertThat(resources(recovered.iterator().next())).containsExactly("jms", "db");
+
+        // New resources get new numbers.
+        Xid other = xidFactory.createXid();
+        journal.prepare(other, branches(other, "cache"));
+        journal.stop();
+        assertThat(new File(DIRECTORY, "transaction.checkpoint").delete()).isTrue();
+        journal = open(64 * 1024);
+        assertThat(journal.recover(xidFactory)).hasSize(2);
+    }
+
+    @Test
+    public void testResourceNumbersWithGaps() throws Exception {
+        Xid committed = xidFactory.createXid();
+        journal.commit(committed, journal.prepare(committed, branches(committed, "db")));
+        journal.stop();
+        journal = null;
+        assertThat(new File(DIRECTORY, "transaction.checkpoint").delete()).isTrue();
+        // Renumber the first resource, as if the record of the resource 0 was lost: the replay leaves a gap.
+        renumber(0, 1);
+
+        // The checkpoint written on start contains the gap.
+        journal = open(64 * 1024);
+        Xid inDoubt = xidFactory.createXid();
+        journal.prepare(inDoubt, branches(inDoubt, "db", "jms"));
+        journal.stop();
+
+        journal = open(64 * 1024);
+        Collection<Recovery.XidBranchesPair> recovered = journal.recover(xidFactory);
+        assertThat(recovered).hasSize(1);
+        assertThat(resources(recovered.iterator().next())).containsExactly("db", "jms");
+    }
+
+    /**
+     * Changes the number of the record written at the given offset of the first segment, and updates its checksum.
+     */
+    private void renumber(long offset, long id) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(new File(DIRECTORY, "transaction_0.journal"), "rw")) {
+            file.seek(offset + 13);
+            file.writeLong(id);
+            int length = file.readInt();
+            byte[] record = new byte[JournalLog.RECORD_OVERHEAD - 4 + length];
+            file.seek(offset);
+            file.readFully(record);
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            file.writeInt((int) crc.getValue());
+        }
+    }
+
+    @Test
+    public void testCorruptedRecordsAreIgnored() throws Exception {
+        Xid first = xidFactory.createXid();
+        Xid second = xidFactory.createXid();
+        List<TransactionBranchInfo> branches = branches(first, "db");
+        journal.prepare(first, branches);
+        journal.prepare(second, branches(second, "db"));
+        journal.stop();
+        journal = null;
+        // Simulate a crash, the records are replayed from the segments.
+        assertThat(new File(DIRECTORY, "transaction.checkpoint").delete()).isTrue();
+
+        // Corrupt the payload of the second prepare, written after the resource record and the first prepare.
+        corrupt(JournalLog.RECORD_OVERHEAD + "db".length() + JournalLog.RECORD_OVERHEAD + payloadSize(first, branches)
+                + 30);
+
+        journal = open(64 * 1024);
+        Collection<Recovery.XidBranchesPair> recovered = journal.recover(xidFactory);
+        assertThat(recovered).hasSize(1);
+        assertThat(recovered.iterator().next().getXid()).isEqualTo(first);
+    }
+
+    private static int payloadSize(Xid xid, List<TransactionBranchInfo> branches) {
+        int size = 4 + 2 + xid.getGlobalTransactionId().length + 2 + xid.getBranchQualifier().length + 4;
+        for (TransactionBranchInfo branch : branches) {
+            size += 2 + branch.getBranchXid().getBranchQualifier().length + 4;
+        }
+        return size;
+    }
+
+    private void corrupt(long offset) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(new File(DIRECTORY, "transaction_0.journal"), "rw")) {
+            file.seek(offset);
+            int value = file.read();
+            file.seek(offset);
+            file.write(value ^ 0xFF);
+        }
+    }
+
+    @Test
+    public void testRecoveryFromCheckpoint() throws Exception {
+        Xid first = xidFactory.createXid();
+        Xid second = xidFactory.createXid();
+        journal.prepare(first, branches(first, "db"));
+        journal.prepare(second, branches(second, "db"));
+        journal.stop();
+        journal = null;
+
+        // The records before the checkpoint are not replayed, so corrupting them has no effect.
+        corrupt(30);
+
+        journal = open(64 * 1024);
+        assertThat(journal.recover(xidFactory)).hasSize(2);
+        // The recovered transactions can be completed.
+        for (Recovery.XidBranchesPair pair : journal.recover(xidFactory)) {
+            journal.commit(pair.getXid(), pair.getMark());
+        }
+        Xid third = xidFactory.createXid();
+        journal.prepare(third, branches(third, "db"));
+        journal.stop();
+
+        journal = open(64 * 1024);
+        Collection<Recovery.XidBranchesPair> recovered = journal.recover(xidFactory);
+        assertThat(recovered).hasSize(1);
+        assertThat(recovered.iterator().next().getXid()).isEqualTo(third);
+    }
+
+    @Test
+    public void testPeriodicCheckpoint() throws Exception {
+        File checkpoint = new File(DIRECTORY, "transaction.checkpoint");
+        long empty = checkpoint.length();
+        journal.setCheckpointInterval(10);
+        Xid inDoubt = xidFactory.createXid();
+        journal.prepare(inDoubt, branches(inDoubt, "db"));
+        for (int i = 0; i < 20; i++) {
+            Xid xid = xidFactory.createXid();
+            journal.commit(xid, journal.prepare(xid, branches(xid, "db")));
+        }
+        // The periodic checkpoint contains the transaction in doubt.
+        assertThat(checkpoint.length()).isGreaterThan(empty);
+
+        // Simulate a crash after a last prepare: the recovery loads the periodic checkpoint and replays the tail.
+        File copy = new File(DIRECTORY, "copy");
+        Files.copy(checkpoint.toPath(), copy.toPath());
+        Xid last = xidFactory.createXid();
+        journal.prepare(last, branches(last, "db"));
+        journal.stop();
+        Files.move(copy.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        journal = open(64 * 1024);
+        Collection<Recovery.XidBranchesPair> recovered = journal.recover(xidFactory);
+        assertThat(recovered).hasSize(2);
+    }
+
+    @Test
+    public void testOutdatedCheckpoint() throws Exception {
+        journal.stop();
+        delete(DIRECTORY);
+        journal = open(4 * 1024);
+        File checkpoint = new File(DIRECTORY, "transaction.checkpoint");
+        File copy = new File(DIRECTORY, "copy");
+        Files.copy(checkpoint.toPath(), copy.toPath());
+
+        Xid inDoubt = xidFactory.createXid();
+        journal.prepare(inDoubt, branches(inDoubt, "db"));
+        for (int i = 0; i < 500; i++) {
+            Xid xid = xidFactory.createXid();
+            journal.commit(xid, journal.prepare(xid, branches(xid, "db")));
+        }
+        journal.stop();
+        // Restore the first checkpoint, its segment has been reused since.
+        Files.move(copy.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        journal = open(4 * 1024);
+        Collection<Recovery.XidBranchesPair> recovered = journal.recover(xidFactory);
+        assertThat(recovered).hasSize(1);
+        assertThat(recovered.iterator().next().getXid()).isEqualTo(inDoubt);
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        final int workers = 20;
+        final int transactions = 50;
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < transactions; j++) {
+                            Xid xid = xidFactory.createXid();
+                            Object mark = journal.prepare(xid, Collections.<TransactionBranchInfo>emptyList());
+                            journal.commit(xid, mark);
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(failures.get()).isEqualTo(0);
+        assertThat(journal.getActiveCount()).isEqualTo(0);
+        // Each prepare is durable, with at most one force per prepare.
+        assertThat(journal.getForceCount()).isGreaterThan(0).isLessThanOrEqualTo(workers * transactions + 1);
+        assertThat(journal.getAverageBytesPerForce()).isGreaterThan(0);
+        TransactionLogStatistics statistics = journal.getStatistics();
+        assertThat(statistics.getPrepareLatency().getCount()).isEqualTo(workers * transactions);
+        assertThat(statistics.getCommitLatency().getCount()).isEqualTo(workers * transactions);
+        assertThat(statistics.getBufferWaitLatency().getCount()).isEqualTo(2 * workers * transactions);
+        assertThat(statistics.getRecordsPerForce()).isGreaterThan(0.0);
+        assertThat(journal.getXMLStats()).contains("<forces>");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSegmentCount() {
+        new JournalLog(DIRECTORY, "transaction", 64 * 1024, 1);
+    }
+}
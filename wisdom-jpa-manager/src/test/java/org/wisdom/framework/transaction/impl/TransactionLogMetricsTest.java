@@ -0,0 +1,93 @@
+/*
+ * #%L
+ * Wisdom-Framework
+ * %%
+ * Copyright (C) 2013 - 2014 Wisdom Framework
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.wisdom.framework.transaction.impl;
+
+import org.junit.Test;
+import org.wisdom.framework.transaction.TransactionLogStatistics;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TransactionLogMetricsTest {
+
+    @Test
+    public void testReportedForces() {
+        TransactionLogMetrics metrics = new TransactionLogMetrics("journal", true);
+        metrics.recordPrepare(2000000, 100);
+        metrics.recordPrepare(2000000, 100);
+        metrics.recordCommit(1000, 30);
+        metrics.recordForce(1000000, 3, 230);
+
+        assertThat(metrics.getForceCount()).isEqualTo(1);
+        assertThat(metrics.getRecordsPerForce()).isEqualTo(3.0);
+        assertThat(metrics.getBytesPerForce()).isEqualTo(230.0);
+        assertThat(metrics.getAverageForceTime()).isEqualTo(1);
+        assertThat(metrics.getPrepareLatency().getCount()).isEqualTo(2);
+        assertThat(metrics.getCommitLatency().getCount()).isEqualTo(1);
+        assertThat(metrics.getRollbackLatency().getCount()).isEqualTo(0);
+
+        metrics.reset();
+        assertThat(metrics.getForceCount()).isEqualTo(0);
+        assertThat(metrics.getRecordsPerForce()).isEqualTo(0.0);
+        assertThat(metrics.getPrepareLatency().getCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testEstimatedForces() {
+        // The prepares are counted as forces.
+        TransactionLogMetrics metrics = new TransactionLogMetrics("howl", false);
+        metrics.recordPrepare(3000000, 100);
+        metrics.recordPrepare(3000000, 100);
+        metrics.recordCommit(1000, 20);
+        metrics.recordRollback(1000, 20);
+
+        assertThat(metrics.getForceCount()).isEqualTo(2);
+        assertThat(metrics.getRecordsPerForce()).isEqualTo(2.0);
+        assertThat(metrics.getBytesPerForce()).isEqualTo(120.0);
+        assertThat(metrics.getAverageForceTime()).isEqualTo(3);
+        assertThat(metrics.getForceLatency().getCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testMXBean() throws Exception {
+        TransactionLogMetrics metrics = new TransactionLogMetrics("journal", true);
+        metrics.recordPrepare(2000000, 100);
+        metrics.recordForce(1000000, 1, 100);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(TransactionLogStatistics.OBJECT_NAME + ",name=test");
+        server.registerMBean(metrics, name);
+        try {
+            assertThat(server.getAttribute(name, "LogType")).isEqualTo("journal");
+            assertThat(server.getAttribute(name, "ForceCount")).isEqualTo(1L);
+            CompositeData prepare = (CompositeData) server.getAttribute(name, "PrepareLatency");
+            assertThat(prepare.get("count")).isEqualTo(1L);
+            assertThat(prepare.get("max")).isEqualTo(2000L);
+            server.invoke(name, "reset", null, null);
+            assertThat(metrics.getForceCount()).isEqualTo(0);
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -23,7 +23,13 @@ import org.apache.geronimo.transaction.manager.XidFactory;
 import org.junit.Test;
 
 import javax.transaction.xa.Xid;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -68,4 +74,56 @@ public class XidFactoryImplTest {
         assertThat(factory2.matchesBranchId(b_id2.getBranchQualifier())).isTrue();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testXidEquality() {
+        XidFactory factory = new XidFactoryImpl("hi".getBytes());
+        Xid xid = factory.createXid();
+        Xid branch = factory.createBranch(xid, 1);
+
+        Xid recovered = factory.recover(xid.getFormatId(), xid.getGlobalTransactionId(), xid.getBranchQualifier());
+        assertThat(recovered).isEqualTo(xid);
+        assertThat(recovered.hashCode()).isEqualTo(xid.hashCode());
+        Xid recoveredBranch = factory.recover(branch.getFormatId(), branch.getGlobalTransactionId(),
+                branch.getBranchQualifier());
+        assertThat(recoveredBranch).isEqualTo(branch);
+        assertThat(recoveredBranch.hashCode()).isEqualTo(branch.hashCode());
+
+        assertThat(branch).isNotEqualTo(xid);
+        assertThat(branch.getGlobalTransactionId()).isEqualTo(xid.getGlobalTransactionId());
+        assertThat(factory.createBranch(xid, 2)).isNotEqualTo(branch);
+        assertThat(factory.createXid()).isNotEqualTo(xid);
+
+        // The Xids cannot be modified through the returned arrays.
+        xid.getGlobalTransactionId()[0]++;
+        assertThat(recovered).isEqualTo(xid);
+    }
+
+    @Test
+    public void testConcurrentCreation() throws Exception {
+        final XidFactory factory = new XidFactoryImpl("hi".getBytes());
+        final Set<Xid> xids = Collections.newSetFromMap(new ConcurrentHashMap<Xid, Boolean>());
+        final int count = 10000;
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < count; j++) {
+                        if (!xids.add(factory.createXid())) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(failures.get()).isEqualTo(0);
+        assertThat(xids).hasSize(8 * count);
+    }
+
+}